@@ -1,5 +1,9 @@
 package org.lwjglb.engine;
 
+import java.lang.management.ManagementFactory;
+
+import com.sun.management.ThreadMXBean;
+
 public class GameEngine implements Runnable {
 
     public static final int TARGET_FPS = 75;
@@ -21,6 +25,12 @@ public class GameEngine implements Runnable {
     private int fps;
     
     private String windowTitle;
+
+    private final StringBuilder title;
+
+    private ThreadMXBean threadBean;
+
+    private long allocatedBytes;
     
     public GameEngine(String windowTitle, boolean vSync, Window.WindowOptions opts, IGameLogic gameLogic) throws Exception {
         this(windowTitle, 0, 0, vSync, opts, gameLogic);
@@ -28,6 +38,7 @@ public class GameEngine implements Runnable {
 
     public GameEngine(String windowTitle, int width, int height, boolean vSync, Window.WindowOptions opts, IGameLogic gameLogic) throws Exception {
         this.windowTitle = windowTitle;
+        title = new StringBuilder(windowTitle);
         gameLoopThread = new Thread(this, "GAME_LOOP_THREAD");
         window = new Window(windowTitle, width, height, vSync, opts);
         mouseInput = new MouseInput();
@@ -63,6 +74,12 @@ public class GameEngine implements Runnable {
         gameLogic.init(window);
         lastFps = timer.getTime();
         fps = 0;
+        if (window.getWindowOptions().showAllocations) {
+            // Only HotSpot compatible virtual machines measure the allocations of a thread
+            threadBean = (ThreadMXBean) ManagementFactory.getThreadMXBean();
+            threadBean.setThreadAllocatedMemoryEnabled(true);
+            allocatedBytes = threadBean.getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
     }
 
     protected void gameLoop() {
@@ -117,7 +134,14 @@ public class GameEngine implements Runnable {
     protected void render() {
         if ( window.getWindowOptions().showFps && timer.getLastLoopTime() - lastFps > 1 ) {
             lastFps = timer.getLastLoopTime();
-            window.setWindowTitle(windowTitle + " - " + fps + " FPS");
+            title.setLength(windowTitle.length());
+            title.append(" - ").append(fps).append(" FPS");
+            if (threadBean != null) {
+                long bytes = threadBean.getThreadAllocatedBytes(Thread.currentThread().getId());
+                title.append(" - ").append((bytes - allocatedBytes) / Math.max(fps, 1)).append(" B/frame");
+                allocatedBytes = bytes;
+            }
+            window.setWindowTitle(title);
             fps = 0;
         }
         fps++;
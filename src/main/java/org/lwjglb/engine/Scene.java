@@ -11,6 +11,7 @@ import java.util.List;
 import java.util.Map;
 import org.lwjglb.engine.graph.InstancedMesh;
 import org.lwjglb.engine.graph.Mesh;
+import org.lwjglb.engine.graph.RenderQueue;
 import org.lwjglb.engine.graph.particles.IParticleEmitter;
 import org.lwjglb.engine.graph.weather.Fog;
 
@@ -19,6 +20,8 @@ public class Scene {
     private final Map<Mesh, List<GameItem>> meshMap;
 
     private final Map<InstancedMesh, List<GameItem>> instancedMeshMap;
+
+    private final RenderQueue renderQueue;
     
     private Board board;
     
@@ -35,6 +38,7 @@ public class Scene {
     public Scene() {
         meshMap = new HashMap<>();
         instancedMeshMap = new HashMap<>();
+        renderQueue = new RenderQueue();
         fog = Fog.NOFOG;
     }
 
@@ -65,9 +69,24 @@ public class Scene {
                 }
                 list.add(gameItem);
             }
+            renderQueue.add(gameItem);
         }
     }
 
+    /**
+     * Non instanced draws of the game items, the board tiles and the player
+     */
+    public RenderQueue getRenderQueue() {
+        return renderQueue;
+    }
+
+    /**
+     * Refreshes the draws of a game item after its meshes changed, or after a static item moved
+     */
+    public void updateGameItem(GameItem gameItem) {
+        renderQueue.update(gameItem);
+    }
+
     public void cleanup() {
         for (Mesh mesh : meshMap.keySet()) {
             mesh.cleanUp();
@@ -75,6 +94,9 @@ public class Scene {
         for (Mesh mesh : instancedMeshMap.keySet()) {
             mesh.cleanUp();
         }
+        if (board != null) {
+            board.cleanup();
+        }
         if (particleEmitters != null) {
             for (IParticleEmitter particleEmitter : particleEmitters) {
                 particleEmitter.cleanup();
@@ -87,7 +109,13 @@ public class Scene {
 	}
     
     public void setBoard(Board board) {
+    	if (this.board != null) {
+    		this.board.getTiles().forEach(renderQueue::remove);
+    	}
 		this.board = board;
+		if (board != null) {
+			board.getTiles().forEach(renderQueue::add);
+		}
 	}
     
     public Player getPlayer() {
@@ -95,7 +123,13 @@ public class Scene {
 	}
     
     public void setPlayer(Player player) {
+    	if (this.player != null) {
+    		renderQueue.remove(this.player);
+    	}
 		this.player = player;
+		if (player != null) {
+			renderQueue.add(player);
+		}
 	}
 
     public SkyBox getSkyBox() {
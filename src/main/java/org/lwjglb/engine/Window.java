@@ -7,6 +7,7 @@ import org.lwjgl.glfw.GLFWVidMode;
 import org.lwjgl.opengl.GL;
 import static org.lwjgl.opengl.GL11.*;
 import static org.lwjgl.system.MemoryUtil.NULL;
+import org.lwjglb.engine.graph.GLState;
 
 public class Window {
 
@@ -160,6 +161,8 @@ public class Window {
     }
     
     public void restoreState() {
+        // nanovg binds its own textures, vertex array and program
+        GLState.invalidate();
         glEnable(GL_DEPTH_TEST);
         glEnable(GL_STENCIL_TEST);
         glBlendFunc(GL_SRC_ALPHA, GL_ONE_MINUS_SRC_ALPHA);
@@ -177,7 +180,7 @@ public class Window {
         return title;
     }
 
-    public void setWindowTitle(String title) {
+    public void setWindowTitle(CharSequence title) {
         glfwSetWindowTitle(windowHandle, title);
     }
 
@@ -260,12 +263,43 @@ public class Window {
 
         public boolean showFps;
 
+        /*
+         * Add the bytes allocated per frame by the game loop to the frame rate shown, to track down what the frame
+         * allocation test reports
+         */
+        public boolean showAllocations;
+
         public boolean compatibleProfile;
 
         public boolean antialiasing;
 
         public boolean frustumCulling;    
 
+        /*
+         * Hide the board tiles behind nearer terrain, needs frustum culling
+         */
+        public boolean occlusionCulling;
+
+        /*
+         * Render the shadow cascades as the layers of one texture in a single pass, through a geometry shader
+         */
+        public boolean layeredShadows;
+
+        /*
+         * Store the G-Buffer in fewer and smaller targets, the positions are rebuilt from the depth
+         */
+        public boolean compactGBuffer;
+
+        /*
+         * Shade all the point lights in a single pass, binned into screen tiles and depth slices
+         */
+        public boolean clusteredLights;
+
+        /*
+         * Only shade the pixels inside the bounding box of every point light, ignored with clustered lights
+         */
+        public boolean lightVolumes;
+
         /*
          * 0 disabled
          * 1 init
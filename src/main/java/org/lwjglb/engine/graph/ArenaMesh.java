@@ -0,0 +1,107 @@
+package org.lwjglb.engine.graph;
+
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+import static org.lwjgl.opengl.GL11.*;
+import static org.lwjgl.opengl.GL32.*;
+
+import org.joml.AABBf;
+import org.lwjglb.engine.items.GameItem;
+
+/**
+ * Range of a {@link MeshArena}. The items of a render batch made of ranges of the same arena are drawn together with a
+ * single multi draw, except the hovered, selected or highlighted ones that need their own uniforms.
+ */
+public class ArenaMesh extends Mesh {
+
+    private final MeshArena arena;
+
+    private final int baseVertex;
+
+    private final int firstIndex;
+
+    ArenaMesh(MeshArena arena, int baseVertex, int firstIndex, int indexCount, AABBf boundaryBox) {
+        super(indexCount, arena.getVaoId(), boundaryBox);
+        this.arena = arena;
+        this.baseVertex = baseVertex;
+        this.firstIndex = firstIndex;
+    }
+
+    public MeshArena getArena() {
+        return arena;
+    }
+
+    public int getBaseVertex() {
+        return baseVertex;
+    }
+
+    public int getFirstIndex() {
+        return firstIndex;
+    }
+
+    @Override
+    public boolean isPacked() {
+        return true;
+    }
+
+    @Override
+    protected Object getBatchKey() {
+        return arena;
+    }
+
+    @Override
+    protected void enableVertexAttribArrays() {
+        GLState.enableVertexAttribArray(VoxelMesh.POSITION_LOCATION);
+        GLState.enableVertexAttribArray(VoxelMesh.ATTRIBUTES_LOCATION);
+    }
+
+    @Override
+    protected void draw() {
+        glDrawElementsBaseVertex(GL_TRIANGLES, getVertexCount(), GL_UNSIGNED_INT, (long) firstIndex * Integer.BYTES, baseVertex);
+    }
+
+    /**
+     * The records [from, to[ must all be ranges of this arena. The items that are not flagged share their uniforms, so
+     * the consumer is called once for all of them.
+     */
+    @Override
+    public void renderBatch(RenderQueue queue, int from, int to, Predicate<GameItem> filter, Consumer<GameItem> consumer) {
+        initRender();
+
+        GameItem sharedItem = null;
+        for (int i = from; i < to; i++) {
+            RenderQueue.DrawRecord record = queue.get(i);
+            GameItem gameItem = record.getItem();
+            if (!filter.test(gameItem)) {
+                continue;
+            }
+            ArenaMesh mesh = (ArenaMesh) record.getMesh();
+            if (gameItem.isHovered() || gameItem.isSelected() || gameItem.isHighlighted()) {
+                consumer.accept(gameItem);
+                mesh.draw();
+            } else {
+                if (sharedItem == null) {
+                    sharedItem = gameItem;
+                }
+                arena.addDraw(mesh);
+            }
+        }
+        if (sharedItem != null) {
+            consumer.accept(sharedItem);
+            arena.multiDraw();
+        }
+
+        endRender();
+    }
+
+    /**
+     * The buffers and the vertex array belong to the arena
+     */
+    @Override
+    public void cleanUp() {
+    }
+
+    @Override
+    public void deleteBuffers() {
+    }
+}
@@ -3,9 +3,14 @@ package org.lwjglb.engine.graph;
 import java.nio.ByteBuffer;
 import static org.lwjgl.opengl.GL11.*;
 import static org.lwjgl.opengl.GL12.GL_CLAMP_TO_EDGE;
+import static org.lwjgl.opengl.GL12.glTexImage3D;
 import static org.lwjgl.opengl.GL13.*;
 import static org.lwjgl.opengl.GL14.GL_TEXTURE_COMPARE_MODE;
+import static org.lwjgl.opengl.GL30.GL_TEXTURE_2D_ARRAY;
 
+/**
+ * Depth textures of the same size, either separate 2D textures or the layers of a single 2D array texture
+ */
 public class ArrTexture {
 
     private final int[] ids;
@@ -14,14 +19,34 @@ public class ArrTexture {
 
     private final int height;
 
+    private final int layers;
+
     public ArrTexture(int numTextures, int width, int height, int pixelFormat) throws Exception {
-        ids = new int[numTextures];
+        this(numTextures, width, height, pixelFormat, false);
+    }
+
+    /**
+     * @param layered true to create one GL_TEXTURE_2D_ARRAY of numTextures layers instead of numTextures textures
+     */
+    public ArrTexture(int numTextures, int width, int height, int pixelFormat, boolean layered) throws Exception {
+        ids = new int[layered ? 1 : numTextures];
         glGenTextures(ids);
         this.width = width;
         this.height = height;
+        this.layers = layered ? numTextures : 0;
 
+        if (layered) {
+            GLState.bindTexture(GL_TEXTURE_2D_ARRAY, ids[0]);
+            glTexImage3D(GL_TEXTURE_2D_ARRAY, 0, GL_DEPTH_COMPONENT, this.width, this.height, layers, 0, pixelFormat, GL_FLOAT, (ByteBuffer) null);
+            glTexParameteri(GL_TEXTURE_2D_ARRAY, GL_TEXTURE_MIN_FILTER, GL_LINEAR);
+            glTexParameteri(GL_TEXTURE_2D_ARRAY, GL_TEXTURE_MAG_FILTER, GL_LINEAR);
+            glTexParameteri(GL_TEXTURE_2D_ARRAY, GL_TEXTURE_COMPARE_MODE, GL_NONE);
+            glTexParameteri(GL_TEXTURE_2D_ARRAY, GL_TEXTURE_WRAP_S, GL_CLAMP_TO_EDGE);
+            glTexParameteri(GL_TEXTURE_2D_ARRAY, GL_TEXTURE_WRAP_T, GL_CLAMP_TO_EDGE);
+            return;
+        }
         for (int i = 0; i < numTextures; i++) {
-            glBindTexture(GL_TEXTURE_2D, ids[i]);
+            GLState.bindTexture(GL_TEXTURE_2D, ids[i]);
             glTexImage2D(GL_TEXTURE_2D, 0, GL_DEPTH_COMPONENT, this.width, this.height, 0, pixelFormat, GL_FLOAT, (ByteBuffer) null);
             glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_MIN_FILTER, GL_LINEAR);
             glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_MAG_FILTER, GL_LINEAR);
@@ -43,9 +68,13 @@ public class ArrTexture {
         return ids;
     }
 
+    public boolean isLayered() {
+        return layers > 0;
+    }
+
     public void cleanup() {
         for (int id : ids) {
-            glDeleteTextures(id);
+            GLState.deleteTexture(id);
         }
     }
 }
@@ -0,0 +1,297 @@
+package org.lwjglb.engine.graph;
+
+import java.util.function.IntConsumer;
+
+import org.joml.FrustumIntersection;
+
+/**
+ * Binary tree of axis aligned boxes over the boxes of a set of items, built by splitting the items at the median of
+ * their centers along the longest axis. Every node covers a contiguous range of {@link #getOrder()}, so a subtree fully
+ * inside the frustum is accepted without testing its items.
+ *
+ * The item boxes are the arrays given to {@link #build}, the tree reads them again when it is refitted.
+ */
+class BoundingVolumeHierarchy {
+
+    static final int ALL_PLANES = FrustumIntersection.PLANE_MASK_NX | FrustumIntersection.PLANE_MASK_PX
+            | FrustumIntersection.PLANE_MASK_NY | FrustumIntersection.PLANE_MASK_PY
+            | FrustumIntersection.PLANE_MASK_NZ | FrustumIntersection.PLANE_MASK_PZ;
+
+    private static final int LEAF_SIZE = 4;
+
+    /**
+     * The median split keeps the depth under 32 and a walk holds at most one pending node per level
+     */
+    static final int STACK_SIZE = 64;
+
+    private float[] minX;
+
+    private float[] minY;
+
+    private float[] minZ;
+
+    private float[] maxX;
+
+    private float[] maxY;
+
+    private float[] maxZ;
+
+    private int[] order = new int[0];
+
+    private int nodeCount;
+
+    private float[] nodeMinX = new float[0];
+
+    private float[] nodeMinY = new float[0];
+
+    private float[] nodeMinZ = new float[0];
+
+    private float[] nodeMaxX = new float[0];
+
+    private float[] nodeMaxY = new float[0];
+
+    private float[] nodeMaxZ = new float[0];
+
+    /**
+     * Index of the right child, the left child being the next node, or -1 for a leaf
+     */
+    private int[] nodeRight = new int[0];
+
+    private int[] nodeStart = new int[0];
+
+    private int[] nodeEnd = new int[0];
+
+    private final int[] stack = new int[STACK_SIZE];
+
+    public void build(float[] minX, float[] minY, float[] minZ, float[] maxX, float[] maxY, float[] maxZ, int count) {
+        this.minX = minX;
+        this.minY = minY;
+        this.minZ = minZ;
+        this.maxX = maxX;
+        this.maxY = maxY;
+        this.maxZ = maxZ;
+        if (order.length < count) {
+            order = new int[count];
+            int capacity = Math.max(1, 2 * count);
+            nodeMinX = new float[capacity];
+            nodeMinY = new float[capacity];
+            nodeMinZ = new float[capacity];
+            nodeMaxX = new float[capacity];
+            nodeMaxY = new float[capacity];
+            nodeMaxZ = new float[capacity];
+            nodeRight = new int[capacity];
+            nodeStart = new int[capacity];
+            nodeEnd = new int[capacity];
+        }
+        for (int i = 0; i < count; i++) {
+            order[i] = i;
+        }
+        nodeCount = 0;
+        if (count > 0) {
+            buildNode(0, count);
+        }
+    }
+
+    private int buildNode(int start, int end) {
+        int node = nodeCount++;
+        nodeStart[node] = start;
+        nodeEnd[node] = end;
+        nodeRight[node] = -1;
+        fitNode(node);
+        if (end - start > LEAF_SIZE) {
+            // Split along the longest axis of the node
+            float sizeX = nodeMaxX[node] - nodeMinX[node];
+            float sizeY = nodeMaxY[node] - nodeMinY[node];
+            float sizeZ = nodeMaxZ[node] - nodeMinZ[node];
+            int axis = sizeX >= sizeY && sizeX >= sizeZ ? 0 : sizeY >= sizeZ ? 1 : 2;
+            int middle = (start + end) >>> 1;
+            select(start, end - 1, middle, axis);
+            buildNode(start, middle);
+            nodeRight[node] = buildNode(middle, end);
+        }
+        return node;
+    }
+
+    /**
+     * Partially sorts order[left, right] so that the item at k has the median center along the axis
+     */
+    private void select(int left, int right, int k, int axis) {
+        while (left < right) {
+            float pivot = center(order[(left + right) >>> 1], axis);
+            int i = left;
+            int j = right;
+            while (i <= j) {
+                while (center(order[i], axis) < pivot) {
+                    i++;
+                }
+                while (center(order[j], axis) > pivot) {
+                    j--;
+                }
+                if (i <= j) {
+                    int tmp = order[i];
+                    order[i] = order[j];
+                    order[j] = tmp;
+                    i++;
+                    j--;
+                }
+            }
+            if (k <= j) {
+                right = j;
+            } else if (k >= i) {
+                left = i;
+            } else {
+                return;
+            }
+        }
+    }
+
+    private float center(int item, int axis) {
+        switch (axis) {
+        case 0:
+            return minX[item] + maxX[item];
+        case 1:
+            return minY[item] + maxY[item];
+        default:
+            return minZ[item] + maxZ[item];
+        }
+    }
+
+    /**
+     * Updates the boxes of the nodes after the boxes of some items changed, children always follow their parent
+     */
+    public void refit() {
+        for (int node = nodeCount - 1; node >= 0; node--) {
+            int right = nodeRight[node];
+            if (right < 0) {
+                fitNode(node);
+            } else {
+                int left = node + 1;
+                nodeMinX[node] = Math.min(nodeMinX[left], nodeMinX[right]);
+                nodeMinY[node] = Math.min(nodeMinY[left], nodeMinY[right]);
+                nodeMinZ[node] = Math.min(nodeMinZ[left], nodeMinZ[right]);
+                nodeMaxX[node] = Math.max(nodeMaxX[left], nodeMaxX[right]);
+                nodeMaxY[node] = Math.max(nodeMaxY[left], nodeMaxY[right]);
+                nodeMaxZ[node] = Math.max(nodeMaxZ[left], nodeMaxZ[right]);
+            }
+        }
+    }
+
+    private void fitNode(int node) {
+        float nMinX = Float.POSITIVE_INFINITY;
+        float nMinY = Float.POSITIVE_INFINITY;
+        float nMinZ = Float.POSITIVE_INFINITY;
+        float nMaxX = Float.NEGATIVE_INFINITY;
+        float nMaxY = Float.NEGATIVE_INFINITY;
+        float nMaxZ = Float.NEGATIVE_INFINITY;
+        for (int i = nodeStart[node]; i < nodeEnd[node]; i++) {
+            int item = order[i];
+            nMinX = Math.min(nMinX, minX[item]);
+            nMinY = Math.min(nMinY, minY[item]);
+            nMinZ = Math.min(nMinZ, minZ[item]);
+            nMaxX = Math.max(nMaxX, maxX[item]);
+            nMaxY = Math.max(nMaxY, maxY[item]);
+            nMaxZ = Math.max(nMaxZ, maxZ[item]);
+        }
+        nodeMinX[node] = nMinX;
+        nodeMinY[node] = nMinY;
+        nodeMinZ[node] = nMinZ;
+        nodeMaxX[node] = nMaxX;
+        nodeMaxY[node] = nMaxY;
+        nodeMaxZ[node] = nMaxZ;
+    }
+
+    /**
+     * Splits the tree into at most maxRoots disjoint subtrees covering all the items, the largest subtree being split
+     * first, so that they can be culled by different threads
+     *
+     * @return the number of subtrees written to roots
+     */
+    public int split(int[] roots, int maxRoots) {
+        if (nodeCount == 0) {
+            return 0;
+        }
+        int rootCount = 0;
+        roots[rootCount++] = 0;
+        while (rootCount < maxRoots) {
+            int largest = -1;
+            for (int i = 0; i < rootCount; i++) {
+                int node = roots[i];
+                if (nodeRight[node] >= 0 && (largest < 0 || getSize(node) > getSize(roots[largest]))) {
+                    largest = i;
+                }
+            }
+            if (largest < 0) {
+                break;
+            }
+            int node = roots[largest];
+            roots[largest] = node + 1;
+            roots[rootCount++] = nodeRight[node];
+        }
+        return rootCount;
+    }
+
+    /**
+     * First index in {@link #getOrder()} of the items under the node
+     */
+    public int getStart(int node) {
+        return nodeStart[node];
+    }
+
+    public int getSize(int node) {
+        return nodeEnd[node] - nodeStart[node];
+    }
+
+    /**
+     * Calls the consumer with the index of every item whose box intersects the frustum
+     *
+     * @param planeMask the planes of the frustum tested, a combination of the FrustumIntersection.PLANE_MASK_ bits
+     */
+    public void cull(FrustumIntersection frustum, int planeMask, IntConsumer visibleItem) {
+        if (nodeCount > 0) {
+            cull(0, frustum, planeMask, visibleItem, stack);
+        }
+    }
+
+    /**
+     * Same as {@link #cull(FrustumIntersection, int, IntConsumer)} for the items under the root node, with a stack of
+     * {@link #STACK_SIZE} entries owned by the caller so that subtrees can be culled concurrently
+     */
+    public void cull(int root, FrustumIntersection frustum, int planeMask, IntConsumer visibleItem, int[] stack) {
+        int top = 0;
+        stack[top++] = root;
+        while (top > 0) {
+            int node = stack[--top];
+            int result = frustum.intersectAab(nodeMinX[node], nodeMinY[node], nodeMinZ[node], nodeMaxX[node], nodeMaxY[node], nodeMaxZ[node], planeMask);
+            if (result == FrustumIntersection.INSIDE) {
+                for (int i = nodeStart[node]; i < nodeEnd[node]; i++) {
+                    visibleItem.accept(order[i]);
+                }
+            } else if (result == FrustumIntersection.INTERSECT) {
+                int right = nodeRight[node];
+                if (right < 0) {
+                    for (int i = nodeStart[node]; i < nodeEnd[node]; i++) {
+                        int item = order[i];
+                        if (testAab(frustum, planeMask, item)) {
+                            visibleItem.accept(item);
+                        }
+                    }
+                } else {
+                    stack[top++] = right;
+                    stack[top++] = node + 1;
+                }
+            }
+        }
+    }
+
+    private boolean testAab(FrustumIntersection frustum, int planeMask, int item) {
+        if (planeMask == ALL_PLANES) {
+            return frustum.testAab(minX[item], minY[item], minZ[item], maxX[item], maxY[item], maxZ[item]);
+        }
+        // The index of the first plane culling the box is returned when it is outside
+        return frustum.intersectAab(minX[item], minY[item], minZ[item], maxX[item], maxY[item], maxZ[item], planeMask) < 0;
+    }
+
+    public int[] getOrder() {
+        return order;
+    }
+}
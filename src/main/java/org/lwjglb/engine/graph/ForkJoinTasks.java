@@ -0,0 +1,39 @@
+package org.lwjglb.engine.graph;
+
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * Runs the per frame tasks of the culling passes on the common pool without allocating, the tasks are kept from one
+ * frame to the next and reinitialized.
+ */
+final class ForkJoinTasks {
+
+    private ForkJoinTasks() {
+    }
+
+    /**
+     * Runs the first count tasks, the first one on the calling thread, and returns when all of them are done
+     */
+    static void invokeAll(ForkJoinTask<?>[] tasks, int count) {
+        for (int i = 0; i < count; i++) {
+            tasks[i].reinitialize();
+        }
+        // Forked one by one rather than through ForkJoinTask.invokeAll, which would need a list of the tasks every frame
+        for (int i = 1; i < count; i++) {
+            tasks[i].fork();
+        }
+        tasks[0].invoke();
+        // Joined in reverse so that the tasks no worker took yet are run here, the other ones are waited for by
+        // spinning as parking this thread in join() allocates a wait node
+        for (int i = count - 1; i > 0; i--) {
+            if (tasks[i].tryUnfork()) {
+                tasks[i].invoke();
+                continue;
+            }
+            while (!tasks[i].isDone()) {
+                Thread.onSpinWait();
+            }
+            tasks[i].join();
+        }
+    }
+}
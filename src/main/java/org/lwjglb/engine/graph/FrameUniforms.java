@@ -0,0 +1,123 @@
+package org.lwjglb.engine.graph;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+
+import org.joml.Matrix4f;
+import org.lwjglb.engine.Utils;
+import org.joml.Vector3f;
+import static org.lwjgl.opengl.GL15.*;
+import static org.lwjgl.opengl.GL30.*;
+import static org.lwjgl.opengl.GL31.*;
+import org.lwjgl.system.MemoryUtil;
+import org.lwjglb.engine.SceneLight;
+import org.lwjglb.engine.graph.lights.DirectionalLight;
+import org.lwjglb.engine.graph.shadow.ShadowCascade;
+import org.lwjglb.engine.graph.shadow.ShadowRenderer;
+
+/**
+ * Uniforms shared by every program drawing the frame: the camera and cascade matrices, the ambient and directional
+ * lights and the size of the G-Buffer. They are written once per frame to a uniform buffer, read by the programs through
+ * the block of frame_uniforms.glsl, instead of being set again on each of them.
+ */
+public class FrameUniforms {
+
+    public static final String BLOCK_NAME = "FrameUniforms";
+
+    public static final String SHADER_FILE = "/shaders/frame_uniforms.glsl";
+
+    /**
+     * The first binding point is used by nanovg
+     */
+    public static final int BINDING = 1;
+
+    /**
+     * Offsets of the members in the std140 layout of the block
+     */
+    private static final int VIEW_MATRIX = 0;
+
+    private static final int PROJECTION_MATRIX = 64;
+
+    private static final int INV_PROJECTION_MATRIX = 128;
+
+    private static final int ORTHO_PROJECTION_MATRICES = 192;
+
+    private static final int LIGHT_VIEW_MATRICES = ORTHO_PROJECTION_MATRICES + 64 * ShadowRenderer.NUM_CASCADES;
+
+    private static final int CASCADE_FAR_PLANES = LIGHT_VIEW_MATRICES + 64 * ShadowRenderer.NUM_CASCADES;
+
+    private static final int AMBIENT_LIGHT = CASCADE_FAR_PLANES + 16;
+
+    private static final int LIGHT_COLOUR = AMBIENT_LIGHT + 16;
+
+    private static final int LIGHT_INTENSITY = LIGHT_COLOUR + 12;
+
+    private static final int LIGHT_DIRECTION = LIGHT_COLOUR + 16;
+
+    private static final int SCREEN_SIZE = LIGHT_DIRECTION + 16;
+
+    public static final int SIZE = SCREEN_SIZE + 16;
+
+    private final int bufferId;
+
+    private final ByteBuffer data;
+
+    private final Matrix4f invProjectionMatrix;
+
+    private final Vector3f lightDirection;
+
+    /**
+     * @return the code of the block, with the number of cascades the offsets are computed for
+     */
+    public static String loadShaderCode() throws Exception {
+        return "#define NUM_CASCADES " + ShadowRenderer.NUM_CASCADES + "\n" + Utils.loadResource(SHADER_FILE);
+    }
+
+    public FrameUniforms() {
+        invProjectionMatrix = new Matrix4f();
+        lightDirection = new Vector3f();
+        data = MemoryUtil.memCalloc(SIZE);
+
+        bufferId = glGenBuffers();
+        glBindBuffer(GL_UNIFORM_BUFFER, bufferId);
+        glBufferData(GL_UNIFORM_BUFFER, SIZE, GL_DYNAMIC_DRAW);
+        glBindBuffer(GL_UNIFORM_BUFFER, 0);
+    }
+
+    /**
+     * Writes the uniforms of the frame and binds the buffer, again every frame since nanovg changes the bindings
+     */
+    public void update(Matrix4f viewMatrix, Matrix4f projectionMatrix, List<ShadowCascade> shadowCascades, SceneLight sceneLight,
+            float width, float height) {
+        viewMatrix.get(VIEW_MATRIX, data);
+        projectionMatrix.get(PROJECTION_MATRIX, data);
+        invProjectionMatrix.set(projectionMatrix).invert().get(INV_PROJECTION_MATRIX, data);
+
+        for (int i = 0; i < ShadowRenderer.NUM_CASCADES; i++) {
+            ShadowCascade shadowCascade = shadowCascades.get(i);
+            shadowCascade.getOrthoProjMatrix().get(ORTHO_PROJECTION_MATRICES + 64 * i, data);
+            shadowCascade.getLightViewMatrix().get(LIGHT_VIEW_MATRICES + 64 * i, data);
+            data.putFloat(CASCADE_FAR_PLANES + 4 * i, ShadowRenderer.CASCADE_SPLITS[i]);
+        }
+
+        sceneLight.getAmbientLight().get(AMBIENT_LIGHT, data);
+        // The direction is used in view coordinates
+        DirectionalLight dirLight = sceneLight.getDirectionalLight();
+        dirLight.getColor().get(LIGHT_COLOUR, data);
+        data.putFloat(LIGHT_INTENSITY, dirLight.getIntensity());
+        lightDirection.set(dirLight.getDirection()).mulDirection(viewMatrix).get(LIGHT_DIRECTION, data);
+
+        data.putFloat(SCREEN_SIZE, width);
+        data.putFloat(SCREEN_SIZE + 4, height);
+
+        glBindBuffer(GL_UNIFORM_BUFFER, bufferId);
+        glBufferSubData(GL_UNIFORM_BUFFER, 0, data);
+        glBindBuffer(GL_UNIFORM_BUFFER, 0);
+        glBindBufferBase(GL_UNIFORM_BUFFER, BINDING, bufferId);
+    }
+
+    public void cleanUp() {
+        glDeleteBuffers(bufferId);
+        MemoryUtil.memFree(data);
+    }
+}
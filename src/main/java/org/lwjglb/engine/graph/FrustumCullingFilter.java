@@ -1,23 +1,130 @@
 package org.lwjglb.engine.graph;
 
+import java.util.Arrays;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.BiConsumer;
+import java.util.function.IntConsumer;
 
 import org.joml.AABBf;
 import org.joml.FrustumIntersection;
 import org.joml.Matrix4f;
 import org.joml.Vector3f;
+import org.lwjglb.engine.graph.shadow.ShadowCascade;
 import org.lwjglb.engine.items.GameItem;
 
+/**
+ * Frustum culling of the items of a {@link RenderQueue}. The world boxes of the items are kept in flat arrays, one per
+ * coordinate, under a {@link BoundingVolumeHierarchy} so that the regions out of the view are rejected in a few tests.
+ * Only the items that are not static are checked for moves every frame, the hierarchy is refitted when one moved.
+ *
+ * The same hierarchy culls the shadow casters against the light frustum of every {@link ShadowCascade}.
+ *
+ * Above {@link #PARALLEL_THRESHOLD} items the view frustum culling is split into subtrees of the hierarchy, run on the
+ * common pool, each subtree writing its visible items to its own range of the order of the hierarchy.
+ */
 public class FrustumCullingFilter {
 
+    private static final int ALL_PLANES = BoundingVolumeHierarchy.ALL_PLANES;
+
+    /**
+     * Casters between the light and a cascade are clamped to its near plane when rendering the depth maps
+     */
+    private static final int CASTER_PLANES = ALL_PLANES & ~FrustumIntersection.PLANE_MASK_NZ;
+
+    private static final int PARALLEL_THRESHOLD = 8192;
+
+    /**
+     * Subtrees per worker, so that the workers stay busy when the visible items are not evenly spread
+     */
+    private static final int TASKS_PER_WORKER = 4;
+
     private final Matrix4f prjViewMatrix;
 
     private final FrustumIntersection frustumInt;
 
+    private final Vector3f min;
+
+    private final Vector3f max;
+
+    private final BoundingVolumeHierarchy hierarchy;
+
+    private final IntConsumer markVisible;
+
+    private final IntConsumer markCaster;
+
+    private final BiConsumer<Mesh, List<GameItem>> filterItems;
+
+    private final BiConsumer<Mesh, List<GameItem>> filterItemCasters;
+
+    private List<ShadowCascade> casterCascades;
+
+    private int queueVersion = -1;
+
+    private int count;
+
+    private GameItem[] items = new GameItem[0];
+
+    private float[] minX = new float[0];
+
+    private float[] minY = new float[0];
+
+    private float[] minZ = new float[0];
+
+    private float[] maxX = new float[0];
+
+    private float[] maxY = new float[0];
+
+    private float[] maxZ = new float[0];
+
+    private float[] positionX = new float[0];
+
+    private float[] positionY = new float[0];
+
+    private float[] positionZ = new float[0];
+
+    private float[] scale = new float[0];
+
+    private int[] dynamicItems = new int[0];
+
+    private int dynamicCount;
+
+    /**
+     * Items found inside the frustum by the last filtering, reset at the start of the next one
+     */
+    private int[] visibleItems = new int[0];
+
+    private int visibleCount;
+
+    /**
+     * Set when the items were listed again, all of them must be reset by the next filtering
+     */
+    private boolean resetAll;
+
+    private int cascadeBit;
+
+    private CullTask[] cullTasks = new CullTask[0];
+
+    /**
+     * Number of subtrees culled in parallel, 0 when the items are culled on the calling thread
+     */
+    private int cullTaskCount;
+
+    private int[] roots = new int[0];
+
     public FrustumCullingFilter() {
         prjViewMatrix = new Matrix4f();
         frustumInt = new FrustumIntersection();
+        min = new Vector3f();
+        max = new Vector3f();
+        hierarchy = new BoundingVolumeHierarchy();
+        markVisible = this::markVisible;
+        markCaster = this::markCaster;
+        filterItems = this::filterItems;
+        filterItemCasters = this::filterItemCasters;
     }
 
     public void updateFrustum(Matrix4f projMatrix, Matrix4f viewMatrix) {
@@ -29,21 +136,250 @@ public class FrustumCullingFilter {
     }
 
     public void filter(Map<? extends Mesh, List<GameItem>> mapMesh) {
-        for (List<GameItem> gameItems : mapMesh.values()) {
-        	for (GameItem gameItem : gameItems) {
-                if (!gameItem.isDisableFrustumCulling()) {
-                    gameItem.setInsideFrustum(insideFrustum(gameItem));
+        mapMesh.forEach(filterItems);
+    }
+
+    private void filterItems(Mesh mesh, List<GameItem> gameItems) {
+        for (int i = 0; i < gameItems.size(); i++) {
+            GameItem gameItem = gameItems.get(i);
+            if (!gameItem.isDisableFrustumCulling()) {
+                gameItem.setInsideFrustum(insideFrustum(gameItem));
+            }
+        }
+    }
+
+    public void filter(RenderQueue renderQueue) {
+        update(renderQueue);
+
+        if (resetAll) {
+            for (int i = 0; i < count; i++) {
+                items[i].setInsideFrustum(false);
+            }
+            for (int i = 0; i < cullTaskCount; i++) {
+                cullTasks[i].found = 0;
+            }
+            resetAll = false;
+        } else {
+            for (int i = 0; i < visibleCount; i++) {
+                items[visibleItems[i]].setInsideFrustum(false);
+            }
+        }
+        visibleCount = 0;
+        if (cullTaskCount > 0) {
+            ForkJoinTasks.invokeAll(cullTasks, cullTaskCount);
+        } else {
+            hierarchy.cull(frustumInt, ALL_PLANES, markVisible);
+        }
+    }
+
+    /**
+     * Sets the shadow cascades of every item to the ones whose light frustum intersects its box
+     */
+    public void filterCasters(RenderQueue renderQueue, List<ShadowCascade> shadowCascades) {
+        update(renderQueue);
+
+        for (int i = 0; i < count; i++) {
+            items[i].setShadowCascades(0);
+        }
+        for (int i = 0; i < shadowCascades.size(); i++) {
+            cascadeBit = 1 << i;
+            hierarchy.cull(shadowCascades.get(i).getLightFrustum(), CASTER_PLANES, markCaster);
+        }
+    }
+
+    public void filterCasters(Map<? extends Mesh, List<GameItem>> mapMesh, List<ShadowCascade> shadowCascades) {
+        casterCascades = shadowCascades;
+        mapMesh.forEach(filterItemCasters);
+        casterCascades = null;
+    }
+
+    private void filterItemCasters(Mesh mesh, List<GameItem> gameItems) {
+        for (int j = 0; j < gameItems.size(); j++) {
+            GameItem gameItem = gameItems.get(j);
+            if (!gameItem.isDisableFrustumCulling()) {
+                int cascades = 0;
+                for (int i = 0; i < casterCascades.size(); i++) {
+                    if (insideFrustum(gameItem, casterCascades.get(i).getLightFrustum(), CASTER_PLANES)) {
+                        cascades |= 1 << i;
+                    }
                 }
+                gameItem.setShadowCascades(cascades);
             }
         }
     }
 
+    /**
+     * Lists the items again after the queue changed, refits the hierarchy after dynamic items moved
+     */
+    private void update(RenderQueue renderQueue) {
+        int version = renderQueue.getVersion();
+        if (version != queueVersion) {
+            rebuild(renderQueue);
+            queueVersion = version;
+        }
+
+        boolean moved = false;
+        for (int i = 0; i < dynamicCount; i++) {
+            int item = dynamicItems[i];
+            GameItem gameItem = items[item];
+            Vector3f position = gameItem.getPosition();
+            if (position.x != positionX[item] || position.y != positionY[item] || position.z != positionZ[item] || gameItem.getScale() != scale[item]) {
+                updateBox(item);
+                moved = true;
+            }
+        }
+        if (moved) {
+            hierarchy.refit();
+        }
+    }
+
+    private void markVisible(int item) {
+        items[item].setInsideFrustum(true);
+        visibleItems[visibleCount++] = item;
+    }
+
+    private void markCaster(int item) {
+        items[item].setShadowCascades(items[item].getShadowCascades() | cascadeBit);
+    }
+
     public boolean insideFrustum(GameItem gameItem) {
+        return insideFrustum(gameItem, frustumInt, ALL_PLANES);
+    }
+
+    public boolean insideFrustum(Vector3f center, float radius) {
+        return frustumInt.testSphere(center, radius);
+    }
+
+    private boolean insideFrustum(GameItem gameItem, FrustumIntersection frustum, int planeMask) {
         AABBf boundaryBox = gameItem.getMesh().getBoundaryBox();
-    	Vector3f min = new Vector3f(gameItem.getPosition());
-    	Vector3f max = new Vector3f(gameItem.getPosition());
-        min.add(boundaryBox.minX * gameItem.getScale(), boundaryBox.minY * gameItem.getScale(), boundaryBox.minZ * gameItem.getScale());
-        max.add(boundaryBox.maxX * gameItem.getScale(), boundaryBox.maxY * gameItem.getScale(), boundaryBox.maxZ * gameItem.getScale());
-        return frustumInt.testAab(min, max);
+        float itemScale = gameItem.getScale();
+        min.set(gameItem.getPosition()).add(boundaryBox.minX * itemScale, boundaryBox.minY * itemScale, boundaryBox.minZ * itemScale);
+        max.set(gameItem.getPosition()).add(boundaryBox.maxX * itemScale, boundaryBox.maxY * itemScale, boundaryBox.maxZ * itemScale);
+        // The index of the first plane culling the box is returned when it is outside
+        return frustum.intersectAab(min, max, planeMask) < 0;
+    }
+
+    /**
+     * Lists each culled item of the queue once and rebuilds the hierarchy. The items whose mesh has no box are always
+     * visible and in every cascade, the ones with culling disabled are left as they are.
+     */
+    private void rebuild(RenderQueue renderQueue) {
+        Map<GameItem, Boolean> seen = new IdentityHashMap<>();
+        if (items.length < renderQueue.size()) {
+            int capacity = renderQueue.size();
+            items = new GameItem[capacity];
+            minX = new float[capacity];
+            minY = new float[capacity];
+            minZ = new float[capacity];
+            maxX = new float[capacity];
+            maxY = new float[capacity];
+            maxZ = new float[capacity];
+            positionX = new float[capacity];
+            positionY = new float[capacity];
+            positionZ = new float[capacity];
+            scale = new float[capacity];
+            dynamicItems = new int[capacity];
+            visibleItems = new int[capacity];
+        }
+        Arrays.fill(items, null);
+        count = 0;
+        dynamicCount = 0;
+        visibleCount = 0;
+        resetAll = true;
+        for (int i = 0; i < renderQueue.size(); i++) {
+            GameItem gameItem = renderQueue.get(i).getItem();
+            if (seen.put(gameItem, Boolean.TRUE) != null || gameItem.isDisableFrustumCulling()) {
+                continue;
+            }
+            if (gameItem.getMesh().getBoundaryBox() == null) {
+                gameItem.setInsideFrustum(true);
+                gameItem.setShadowCascades(GameItem.ALL_SHADOW_CASCADES);
+                continue;
+            }
+            items[count] = gameItem;
+            updateBox(count);
+            if (!gameItem.isStatic()) {
+                dynamicItems[dynamicCount++] = count;
+            }
+            count++;
+        }
+        hierarchy.build(minX, minY, minZ, maxX, maxY, maxZ, count);
+
+        int workers = ForkJoinPool.getCommonPoolParallelism();
+        cullTaskCount = 0;
+        if (count >= PARALLEL_THRESHOLD && workers > 1) {
+            int maxRoots = TASKS_PER_WORKER * workers;
+            if (roots.length < maxRoots) {
+                roots = new int[maxRoots];
+            }
+            cullTaskCount = hierarchy.split(roots, maxRoots);
+            if (cullTasks.length < cullTaskCount) {
+                cullTasks = Arrays.copyOf(cullTasks, cullTaskCount);
+                for (int i = 0; i < cullTaskCount; i++) {
+                    if (cullTasks[i] == null) {
+                        cullTasks[i] = new CullTask();
+                    }
+                }
+            }
+            for (int i = 0; i < cullTaskCount; i++) {
+                cullTasks[i].setRoot(roots[i]);
+            }
+        }
+    }
+
+    private void updateBox(int i) {
+        GameItem gameItem = items[i];
+        AABBf boundaryBox = gameItem.getMesh().getBoundaryBox();
+        Vector3f position = gameItem.getPosition();
+        float itemScale = gameItem.getScale();
+        positionX[i] = position.x;
+        positionY[i] = position.y;
+        positionZ[i] = position.z;
+        scale[i] = itemScale;
+        minX[i] = position.x + boundaryBox.minX * itemScale;
+        minY[i] = position.y + boundaryBox.minY * itemScale;
+        minZ[i] = position.z + boundaryBox.minZ * itemScale;
+        maxX[i] = position.x + boundaryBox.maxX * itemScale;
+        maxY[i] = position.y + boundaryBox.maxY * itemScale;
+        maxZ[i] = position.z + boundaryBox.maxZ * itemScale;
+    }
+
+    /**
+     * Culls a subtree of the hierarchy, the items it finds visible are kept in visibleItems from the start of the subtree
+     * in the order of the hierarchy, which no other subtree covers
+     */
+    private class CullTask extends RecursiveAction implements IntConsumer {
+
+        private final int[] stack = new int[BoundingVolumeHierarchy.STACK_SIZE];
+
+        private int root;
+
+        private int start;
+
+        /**
+         * Items found visible by the last run, reset by the next one
+         */
+        private int found;
+
+        void setRoot(int root) {
+            this.root = root;
+            start = hierarchy.getStart(root);
+            found = 0;
+        }
+
+        @Override
+        protected void compute() {
+            for (int i = start; i < start + found; i++) {
+                items[visibleItems[i]].setInsideFrustum(false);
+            }
+            found = 0;
+            hierarchy.cull(root, frustumInt, ALL_PLANES, this, stack);
+        }
+
+        @Override
+        public void accept(int item) {
+            items[item].setInsideFrustum(true);
+            visibleItems[start + found++] = item;
+        }
     }
 }
@@ -10,10 +10,23 @@ import static org.lwjgl.opengl.GL11.*;
 import static org.lwjgl.opengl.GL20.*;
 import static org.lwjgl.opengl.GL30.*;
 
+/**
+ * Render targets of the geometry pass. The compact layout drops the position target, which the light passes rebuild
+ * from the depth, and stores the colours in RGBA8 with the shadow factor and the reflectance in their alpha and the
+ * normals octahedral encoded in two half floats: 16 bytes per pixel instead of 60.
+ */
 public class GBuffer {
 
     private static final int TOTAL_TEXTURES = 6;
 
+    private static final int COMPACT_TEXTURES = 4;
+
+    private final boolean compact;
+
+    private final boolean stencil;
+
+    private final int totalTextures;
+
     private int gBufferId;
 
     private int[] textureIds;
@@ -27,33 +40,38 @@ public class GBuffer {
         gBufferId = glGenFramebuffers();
         glBindFramebuffer(GL_DRAW_FRAMEBUFFER, gBufferId);
 
-        textureIds = new int[TOTAL_TEXTURES];
+        compact = window.getOptions().compactGBuffer;
+        stencil = window.getOptions().lightVolumes;
+        totalTextures = compact ? COMPACT_TEXTURES : TOTAL_TEXTURES;
+        textureIds = new int[totalTextures];
         glGenTextures(textureIds);
 
         this.width = window.getWidth();
         this.height = window.getHeight();
 
         // Create textures for position, diffuse color, specular color, normal, shadow factor and depth
-        // All coordinates are in world coordinates system
-        for(int i=0; i<TOTAL_TEXTURES; i++) {
-            glBindTexture(GL_TEXTURE_2D, textureIds[i]);
+        // All coordinates are in world coordinates system, the compact layout has no position
+        for(int i=0; i<totalTextures; i++) {
+            GLState.bindTexture(GL_TEXTURE_2D, textureIds[i]);
             int attachmentType;
-            switch(i) {
-                case TOTAL_TEXTURES - 2:
-                    // Shadow texture and reflectance
-                    glTexImage2D(GL_TEXTURE_2D, 0, GL_RG32F, width, height, 0, GL_RGB, GL_FLOAT, (ByteBuffer) null);
-                    attachmentType = GL_COLOR_ATTACHMENT0 + i;
-                    break;
-                case TOTAL_TEXTURES - 1:
-                    // Depth component
-                    glTexImage2D(GL_TEXTURE_2D, 0, GL_DEPTH_COMPONENT32F, width, height, 0, GL_DEPTH_COMPONENT, GL_FLOAT,
-                            (ByteBuffer) null);
-                    attachmentType = GL_DEPTH_ATTACHMENT;
-                    break;
-                default:
-                    glTexImage2D(GL_TEXTURE_2D, 0, GL_RGB32F, width, height, 0, GL_RGB, GL_FLOAT, (ByteBuffer) null);
-                    attachmentType = GL_COLOR_ATTACHMENT0 + i;
-                    break;
+            if (compact) {
+                attachmentType = createCompactTexture(i);
+            } else {
+                switch(i) {
+                    case TOTAL_TEXTURES - 2:
+                        // Shadow texture and reflectance
+                        glTexImage2D(GL_TEXTURE_2D, 0, GL_RG32F, width, height, 0, GL_RGB, GL_FLOAT, (ByteBuffer) null);
+                        attachmentType = GL_COLOR_ATTACHMENT0 + i;
+                        break;
+                    case TOTAL_TEXTURES - 1:
+                        // Depth component
+                        attachmentType = createDepthTexture();
+                        break;
+                    default:
+                        glTexImage2D(GL_TEXTURE_2D, 0, GL_RGB32F, width, height, 0, GL_RGB, GL_FLOAT, (ByteBuffer) null);
+                        attachmentType = GL_COLOR_ATTACHMENT0 + i;
+                        break;
+                }
             }
             // For sampling
             glTexParameterf(GL_TEXTURE_2D, GL_TEXTURE_MIN_FILTER, GL_NEAREST);
@@ -64,10 +82,9 @@ public class GBuffer {
         }
 
         try (MemoryStack stack = MemoryStack.stackPush()) {
-            IntBuffer intBuff = stack.mallocInt(TOTAL_TEXTURES);
-            int values[] = {GL_COLOR_ATTACHMENT0, GL_COLOR_ATTACHMENT1, GL_COLOR_ATTACHMENT2, GL_COLOR_ATTACHMENT3, GL_COLOR_ATTACHMENT4, GL_COLOR_ATTACHMENT5};
-            for(int i = 0; i < values.length; i++) {
-                intBuff.put(values[i]);
+            IntBuffer intBuff = stack.mallocInt(totalTextures - 1);
+            for(int i = 0; i < totalTextures - 1; i++) {
+                intBuff.put(GL_COLOR_ATTACHMENT0 + i);
             }
             intBuff.flip();
             glDrawBuffers(intBuff);
@@ -77,6 +94,40 @@ public class GBuffer {
         glBindFramebuffer(GL_FRAMEBUFFER, 0);
     }
 
+    private int createCompactTexture(int i) {
+        switch(i) {
+            case 0:
+            case 1:
+                // Diffuse color and shadow factor, specular color and reflectance
+                glTexImage2D(GL_TEXTURE_2D, 0, GL_RGBA8, width, height, 0, GL_RGBA, GL_UNSIGNED_BYTE, (ByteBuffer) null);
+                return GL_COLOR_ATTACHMENT0 + i;
+            case 2:
+                // Octahedral encoded normal
+                glTexImage2D(GL_TEXTURE_2D, 0, GL_RG16F, width, height, 0, GL_RG, GL_FLOAT, (ByteBuffer) null);
+                return GL_COLOR_ATTACHMENT0 + i;
+            default:
+                return createDepthTexture();
+        }
+    }
+
+    /**
+     * The light volumes are marked in a stencil next to a copy of the depth, whose format must be the same
+     */
+    private int createDepthTexture() {
+        if (stencil) {
+            glTexImage2D(GL_TEXTURE_2D, 0, GL_DEPTH32F_STENCIL8, width, height, 0, GL_DEPTH_STENCIL,
+                    GL_FLOAT_32_UNSIGNED_INT_24_8_REV, (ByteBuffer) null);
+            return GL_DEPTH_STENCIL_ATTACHMENT;
+        }
+        glTexImage2D(GL_TEXTURE_2D, 0, GL_DEPTH_COMPONENT32F, width, height, 0, GL_DEPTH_COMPONENT, GL_FLOAT,
+                (ByteBuffer) null);
+        return GL_DEPTH_ATTACHMENT;
+    }
+
+    public boolean isCompact() {
+        return compact;
+    }
+
     public int getWidth() {
         return width;
     }
@@ -93,20 +144,23 @@ public class GBuffer {
         return textureIds;
     }
 
+    /**
+     * Not available in the compact layout, the positions are rebuilt from the depth
+     */
     public int getPositionTexture() {
-        return textureIds[0];
+        return compact ? 0 : textureIds[0];
     }
 
     public int getDepthTexture() {
-        return textureIds[TOTAL_TEXTURES-1];
+        return textureIds[totalTextures-1];
     }
 
     public void cleanUp() {
         glDeleteFramebuffers(gBufferId);
 
         if (textureIds != null) {
-            for (int i=0; i<TOTAL_TEXTURES; i++) {
-                glDeleteTextures(textureIds[i]);
+            for (int i=0; i<totalTextures; i++) {
+                GLState.deleteTexture(textureIds[i]);
             }
         }
     }
@@ -0,0 +1,255 @@
+package org.lwjglb.engine.graph;
+
+import java.util.Arrays;
+
+import static org.lwjgl.opengl.GL11.*;
+import static org.lwjgl.opengl.GL13.*;
+import static org.lwjgl.opengl.GL20.*;
+import static org.lwjgl.opengl.GL30.*;
+import static org.lwjgl.opengl.GL31.*;
+
+/**
+ * Tracks the texture, vertex array and program bindings and the generic vertex attribute values of the context so that
+ * the calls that would not change them are skipped. Every bind of the engine must go through it, code binding behind its back, like nanovg, must be followed
+ * by {@link #invalidate()}.
+ *
+ * The enabled vertex attribute arrays are part of the state of each vertex array, the meshes leave them enabled and only
+ * the first render of a vertex array enables them.
+ */
+public final class GLState {
+
+    private static final int MAX_UNITS = 32;
+
+    private static final int UNKNOWN = -1;
+
+    private static final int MAX_ATTRIBS = 16;
+
+    /**
+     * Texture targets tracked, the other ones are bound without tracking
+     */
+    private static final int[] TARGETS = {GL_TEXTURE_2D, GL_TEXTURE_2D_ARRAY, GL_TEXTURE_BUFFER};
+
+    private static final int[][] textures = new int[TARGETS.length][MAX_UNITS];
+
+    private static int activeUnit;
+
+    private static int vertexArray;
+
+    /**
+     * Bit mask of the enabled attribute arrays of every vertex array by id
+     */
+    private static int[] enabledArrays = new int[256];
+
+    private static int program;
+
+    /**
+     * Generic value of every attribute, NaN when unknown
+     */
+    private static final float[][] genericAttribs = new float[MAX_ATTRIBS][4];
+
+    private static int issuedCalls;
+
+    private static int elidedCalls;
+
+    private static int frameIssuedCalls;
+
+    private static int frameElidedCalls;
+
+    static {
+        invalidate();
+    }
+
+    private GLState() {
+    }
+
+    /**
+     * Forgets the bindings after other code used the context. The enabled arrays of the vertex arrays of the engine are
+     * kept, only the default vertex array is forgotten.
+     */
+    public static void invalidate() {
+        for (int[] unitTextures : textures) {
+            Arrays.fill(unitTextures, UNKNOWN);
+        }
+        activeUnit = UNKNOWN;
+        vertexArray = UNKNOWN;
+        enabledArrays[0] = 0;
+        program = UNKNOWN;
+        for (float[] value : genericAttribs) {
+            Arrays.fill(value, Float.NaN);
+        }
+    }
+
+    /**
+     * Keeps the counters of the frame that ends and starts counting again
+     */
+    public static void startFrame() {
+        frameIssuedCalls = issuedCalls;
+        frameElidedCalls = elidedCalls;
+        issuedCalls = 0;
+        elidedCalls = 0;
+    }
+
+    /**
+     * @return the calls sent to the driver during the last frame
+     */
+    public static int getIssuedCalls() {
+        return frameIssuedCalls;
+    }
+
+    /**
+     * @return the calls skipped during the last frame because they would not change the state
+     */
+    public static int getElidedCalls() {
+        return frameElidedCalls;
+    }
+
+    private static boolean changed(boolean changed) {
+        if (changed) {
+            issuedCalls++;
+        } else {
+            elidedCalls++;
+        }
+        return changed;
+    }
+
+    /**
+     * @param textureUnit GL_TEXTURE0 + the index of the unit
+     */
+    public static void activeTexture(int textureUnit) {
+        int unit = textureUnit - GL_TEXTURE0;
+        if (changed(unit != activeUnit)) {
+            glActiveTexture(textureUnit);
+            activeUnit = unit;
+        }
+    }
+
+    /**
+     * Binds the texture to the active unit
+     */
+    public static void bindTexture(int target, int texture) {
+        int index = targetIndex(target);
+        if (index < 0 || activeUnit == UNKNOWN) {
+            // The bindings are unknown as long as the active unit is
+            issuedCalls++;
+            glBindTexture(target, texture);
+            return;
+        }
+        if (changed(textures[index][activeUnit] != texture)) {
+            glBindTexture(target, texture);
+            textures[index][activeUnit] = texture;
+        }
+    }
+
+    /**
+     * Binds the texture to the unit, only activating the unit when its binding changes
+     *
+     * @param textureUnit GL_TEXTURE0 + the index of the unit
+     */
+    public static void bindTexture(int textureUnit, int target, int texture) {
+        int index = targetIndex(target);
+        int unit = textureUnit - GL_TEXTURE0;
+        if (index >= 0 && textures[index][unit] == texture) {
+            elidedCalls++;
+            return;
+        }
+        activeTexture(textureUnit);
+        bindTexture(target, texture);
+    }
+
+    public static void deleteTexture(int texture) {
+        // Deleting a bound texture binds the default one in its place
+        for (int[] unitTextures : textures) {
+            for (int i = 0; i < unitTextures.length; i++) {
+                if (unitTextures[i] == texture) {
+                    unitTextures[i] = 0;
+                }
+            }
+        }
+        glDeleteTextures(texture);
+    }
+
+    public static void deleteTextures(int[] textureIds) {
+        for (int texture : textureIds) {
+            deleteTexture(texture);
+        }
+    }
+
+    private static int targetIndex(int target) {
+        for (int i = 0; i < TARGETS.length; i++) {
+            if (TARGETS[i] == target) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    public static void bindVertexArray(int vaoId) {
+        if (changed(vaoId != vertexArray)) {
+            glBindVertexArray(vaoId);
+            vertexArray = vaoId;
+            if (vaoId >= enabledArrays.length) {
+                enabledArrays = Arrays.copyOf(enabledArrays, Math.max(vaoId + 1, 2 * enabledArrays.length));
+            }
+        }
+    }
+
+    public static void deleteVertexArray(int vaoId) {
+        if (vaoId == vertexArray) {
+            vertexArray = 0;
+        }
+        if (vaoId < enabledArrays.length) {
+            enabledArrays[vaoId] = 0;
+        }
+        glDeleteVertexArrays(vaoId);
+    }
+
+    /**
+     * Enables an attribute array of the bound vertex array
+     */
+    public static void enableVertexAttribArray(int index) {
+        int bit = 1 << index;
+        if (vertexArray == UNKNOWN) {
+            issuedCalls++;
+            glEnableVertexAttribArray(index);
+        } else if (changed((enabledArrays[vertexArray] & bit) == 0)) {
+            glEnableVertexAttribArray(index);
+            enabledArrays[vertexArray] |= bit;
+        }
+    }
+
+    /**
+     * Disables an attribute array of the bound vertex array
+     */
+    public static void disableVertexAttribArray(int index) {
+        int bit = 1 << index;
+        if (vertexArray == UNKNOWN) {
+            issuedCalls++;
+            glDisableVertexAttribArray(index);
+        } else if (changed((enabledArrays[vertexArray] & bit) != 0)) {
+            glDisableVertexAttribArray(index);
+            enabledArrays[vertexArray] &= ~bit;
+        }
+    }
+
+    /**
+     * Sets the value the shaders read for an attribute whose array is disabled, it is context state shared by all the
+     * vertex arrays
+     */
+    public static void vertexAttrib4f(int index, float x, float y, float z, float w) {
+        float[] value = genericAttribs[index];
+        if (changed(value[0] != x || value[1] != y || value[2] != z || value[3] != w)) {
+            glVertexAttrib4f(index, x, y, z, w);
+            value[0] = x;
+            value[1] = y;
+            value[2] = z;
+            value[3] = w;
+        }
+    }
+
+    public static void useProgram(int programId) {
+        if (changed(programId != program)) {
+            glUseProgram(programId);
+            program = programId;
+        }
+    }
+}
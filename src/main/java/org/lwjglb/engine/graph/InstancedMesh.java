@@ -33,11 +33,11 @@ public class InstancedMesh extends Mesh {
     private FloatBuffer instanceDataBuffer;
 
     public InstancedMesh(float[] positions, float[] textCoords, float[] normals, int[] indices, int numInstances) {
-        super(positions, textCoords, normals, indices, createEmptyIntArray(MAX_WEIGHTS * positions.length / 3, 0), createEmptyFloatArray(MAX_WEIGHTS * positions.length / 3, 0));
+        super(positions, textCoords, normals, indices);
 
         this.numInstances = numInstances;
 
-        glBindVertexArray(vaoId);
+        GLState.bindVertexArray(vaoId);
 
         instanceDataVBO = glGenBuffers();
         vboIdList.add(instanceDataVBO);
@@ -65,7 +65,7 @@ public class InstancedMesh extends Mesh {
         start++;
 
         glBindBuffer(GL_ARRAY_BUFFER, 0);
-        glBindVertexArray(0);
+        GLState.bindVertexArray(0);
     }
 
     @Override
@@ -84,21 +84,10 @@ public class InstancedMesh extends Mesh {
         int start = 5;
         int numElements = 4 * 2 + 2;
         for (int i = 0; i < numElements; i++) {
-            glEnableVertexAttribArray(start + i);
+            GLState.enableVertexAttribArray(start + i);
         }
     }
 
-    @Override
-    protected void endRender() {
-        int start = 5;
-        int numElements = 4 * 2 + 2;
-        for (int i = 0; i < numElements; i++) {
-            glDisableVertexAttribArray(start + i);
-        }
-
-        super.endRender();
-    }
-
     public void renderListInstanced( List<GameItem> gameItems, Transformation transformation, Matrix4f viewMatrix) {
         renderListInstanced(gameItems, false, transformation, viewMatrix);
     }
@@ -110,20 +99,23 @@ public class InstancedMesh extends Mesh {
         int length = gameItems.size();
         for (int i = 0; i < length; i += chunkSize) {
             int end = Math.min(length, i + chunkSize);
-            List<GameItem> subList = gameItems.subList(i, end);
-            renderChunkInstanced(subList, billBoard, transformation, viewMatrix);
+            renderChunkInstanced(gameItems, i, end, billBoard, transformation, viewMatrix);
         }
 
         endRender();
     }
 
-    private void renderChunkInstanced(List<GameItem> gameItems, boolean billBoard, Transformation transformation, Matrix4f viewMatrix) {
+    /**
+     * Renders the items [from, to[ of the list
+     */
+    private void renderChunkInstanced(List<GameItem> gameItems, int from, int to, boolean billBoard, Transformation transformation, Matrix4f viewMatrix) {
         this.instanceDataBuffer.clear();
 
         int i = 0;
 
         Texture text = getMaterial().getTexture();
-        for (GameItem gameItem : gameItems) {
+        for (int j = from; j < to; j++) {
+            GameItem gameItem = gameItems.get(j);
             Matrix4f modelMatrix = transformation.buildModelMatrix(gameItem);
             if (viewMatrix != null && billBoard) {
                 viewMatrix.transpose3x3(modelMatrix);
@@ -152,7 +144,7 @@ public class InstancedMesh extends Mesh {
         glBufferData(GL_ARRAY_BUFFER, instanceDataBuffer, GL_DYNAMIC_READ);
 
         glDrawElementsInstanced(
-                GL_TRIANGLES, getVertexCount(), GL_UNSIGNED_INT, 0, gameItems.size());
+                GL_TRIANGLES, getVertexCount(), GL_UNSIGNED_INT, 0, to - from);
 
         glBindBuffer(GL_ARRAY_BUFFER, 0);
     }
@@ -0,0 +1,258 @@
+package org.lwjglb.engine.graph;
+
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.util.Arrays;
+
+import org.joml.Matrix4f;
+import org.joml.Vector3f;
+import org.joml.Vector4f;
+import static org.lwjgl.opengl.GL11.*;
+import static org.lwjgl.opengl.GL13.*;
+import static org.lwjgl.opengl.GL15.*;
+import static org.lwjgl.opengl.GL30.*;
+import static org.lwjgl.opengl.GL31.*;
+import org.lwjgl.system.MemoryUtil;
+import org.lwjglb.engine.Window;
+import org.lwjglb.engine.graph.lights.PointLight;
+
+/**
+ * Point lights binned into clusters, screen tiles split in depth slices, so that all of them are shaded in a single
+ * pass where every pixel only loops over the lights of its cluster. The slices are exponential in view distance, the
+ * first one covering everything nearer than {@link #FIRST_SLICE_DEPTH}.
+ *
+ * The lights, in view space, the range of every cluster in the light list and the list itself are uploaded every frame
+ * to buffer textures. A light only reaches the clusters intersecting the sphere where it is brighter than
+ * {@link PointLight#MIN_LIGHT_LEVEL}. The binning only runs on the CPU, the buffer textures are created by
+ * {@link #init()}.
+ */
+public class LightClusters {
+
+    /**
+     * Must match the constants of the clustered point light shader
+     */
+    public static final int TILES_X = 16;
+
+    public static final int TILES_Y = 9;
+
+    public static final int SLICES = 24;
+
+    public static final float FIRST_SLICE_DEPTH = 1.0f;
+
+    private static final int CLUSTERS = TILES_X * TILES_Y * SLICES;
+
+    /**
+     * Position and intensity, colour and constant attenuation, linear and exponent attenuation
+     */
+    private static final int LIGHT_SIZE_FLOATS = 12;
+
+    private final float sliceScale;
+
+    private final Vector4f lightPosition;
+
+    private final int[] clusterCounts;
+
+    private final int[] clusterOffsets;
+
+    private int[] textureIds;
+
+    private int[] bufferIds;
+
+    private final IntBuffer clusterBuffer;
+
+    private FloatBuffer lightBuffer;
+
+    private IntBuffer indexBuffer;
+
+    private int lightCount;
+
+    /**
+     * Inclusive tile ranges along x and y then slice range of every binned light
+     */
+    private int[] lightRanges = new int[0];
+
+    public LightClusters() {
+        sliceScale = (SLICES - 1) / (float) Math.log(Window.Z_FAR / FIRST_SLICE_DEPTH);
+        lightPosition = new Vector4f();
+        clusterCounts = new int[CLUSTERS];
+        clusterOffsets = new int[CLUSTERS];
+        clusterBuffer = MemoryUtil.memAllocInt(2 * CLUSTERS);
+        lightBuffer = MemoryUtil.memAllocFloat(LIGHT_SIZE_FLOATS * 64);
+        indexBuffer = MemoryUtil.memAllocInt(256);
+    }
+
+    /**
+     * Creates the buffer textures the clusters are uploaded to, must be called from the thread owning the GL context
+     */
+    public void init() {
+        textureIds = new int[3];
+        bufferIds = new int[3];
+        glGenTextures(textureIds);
+        glGenBuffers(bufferIds);
+        int[] formats = {GL_RGBA32F, GL_RG32I, GL_R32I};
+        for (int i = 0; i < textureIds.length; i++) {
+            glBindBuffer(GL_TEXTURE_BUFFER, bufferIds[i]);
+            glBufferData(GL_TEXTURE_BUFFER, 16, GL_STREAM_DRAW);
+            GLState.bindTexture(GL_TEXTURE_BUFFER, textureIds[i]);
+            glTexBuffer(GL_TEXTURE_BUFFER, formats[i], bufferIds[i]);
+        }
+        GLState.bindTexture(GL_TEXTURE_BUFFER, 0);
+        glBindBuffer(GL_TEXTURE_BUFFER, 0);
+    }
+
+    public float getSliceScale() {
+        return sliceScale;
+    }
+
+    /**
+     * Bins the lights with the camera matrices of the frame and uploads the clusters
+     */
+    public void update(PointLight[] pointLights, Matrix4f projectionMatrix, Matrix4f viewMatrix) {
+        bin(pointLights, projectionMatrix, viewMatrix);
+
+        glBindBuffer(GL_TEXTURE_BUFFER, bufferIds[0]);
+        glBufferData(GL_TEXTURE_BUFFER, lightBuffer, GL_STREAM_DRAW);
+        glBindBuffer(GL_TEXTURE_BUFFER, bufferIds[1]);
+        glBufferData(GL_TEXTURE_BUFFER, clusterBuffer, GL_STREAM_DRAW);
+        glBindBuffer(GL_TEXTURE_BUFFER, bufferIds[2]);
+        glBufferData(GL_TEXTURE_BUFFER, indexBuffer, GL_STREAM_DRAW);
+        glBindBuffer(GL_TEXTURE_BUFFER, 0);
+    }
+
+    /**
+     * Bins the lights with the camera matrices of the frame into the cluster and light buffers, without uploading them
+     */
+    public void bin(PointLight[] pointLights, Matrix4f projectionMatrix, Matrix4f viewMatrix) {
+        int numLights = pointLights != null ? pointLights.length : 0;
+        if (lightRanges.length < 6 * numLights) {
+            lightRanges = new int[6 * numLights];
+        }
+        if (lightBuffer.capacity() < LIGHT_SIZE_FLOATS * numLights) {
+            MemoryUtil.memFree(lightBuffer);
+            lightBuffer = MemoryUtil.memAllocFloat(LIGHT_SIZE_FLOATS * numLights);
+        }
+        lightBuffer.clear();
+        Arrays.fill(clusterCounts, 0);
+        lightCount = 0;
+
+        for (int i = 0; i < numLights; i++) {
+            PointLight pointLight = pointLights[i];
+            // Lights reaching further than the far plane are bounded by it
+            float radius = Math.min(pointLight.getRadius(), Window.Z_FAR);
+            Vector3f position = pointLight.getPosition();
+            lightPosition.set(position, 1).mul(viewMatrix);
+            if (radius <= 0 || !bin(lightCount, radius, projectionMatrix)) {
+                continue;
+            }
+            Vector3f colour = pointLight.getColor();
+            PointLight.Attenuation attenuation = pointLight.getAttenuation();
+            lightBuffer.put(lightPosition.x).put(lightPosition.y).put(lightPosition.z).put(pointLight.getIntensity());
+            lightBuffer.put(colour.x).put(colour.y).put(colour.z).put(attenuation.getConstant());
+            lightBuffer.put(attenuation.getLinear()).put(attenuation.getExponent()).put(0).put(0);
+            lightCount++;
+        }
+        lightBuffer.flip();
+
+        // The lights of every cluster are contiguous in the index list
+        int indexCount = 0;
+        for (int i = 0; i < CLUSTERS; i++) {
+            clusterOffsets[i] = indexCount;
+            indexCount += clusterCounts[i];
+        }
+        if (indexBuffer.capacity() < Math.max(indexCount, 1)) {
+            MemoryUtil.memFree(indexBuffer);
+            indexBuffer = MemoryUtil.memAllocInt(indexCount);
+        }
+        indexBuffer.clear();
+        clusterBuffer.clear();
+        for (int i = 0; i < CLUSTERS; i++) {
+            clusterBuffer.put(clusterOffsets[i]).put(clusterCounts[i]);
+        }
+        clusterBuffer.flip();
+        for (int light = 0; light < lightCount; light++) {
+            int range = 6 * light;
+            for (int z = lightRanges[range + 4]; z <= lightRanges[range + 5]; z++) {
+                for (int y = lightRanges[range + 2]; y <= lightRanges[range + 3]; y++) {
+                    for (int x = lightRanges[range]; x <= lightRanges[range + 1]; x++) {
+                        int cluster = (z * TILES_Y + y) * TILES_X + x;
+                        indexBuffer.put(clusterOffsets[cluster]++, light);
+                    }
+                }
+            }
+        }
+        indexBuffer.limit(Math.max(indexCount, 1));
+    }
+
+    /**
+     * Stores the clusters touched by the view space box of the light sphere, returns false when none is
+     */
+    private boolean bin(int light, float radius, Matrix4f projectionMatrix) {
+        float nearDepth = Math.max(-lightPosition.z - radius, Window.Z_NEAR);
+        float farDepth = -lightPosition.z + radius;
+        if (farDepth < Window.Z_NEAR || nearDepth > Window.Z_FAR) {
+            return false;
+        }
+        // x / depth is extreme at the corners of the box
+        float minX = lightPosition.x - radius;
+        float maxX = lightPosition.x + radius;
+        float minY = lightPosition.y - radius;
+        float maxY = lightPosition.y + radius;
+        float ndcMinX = projectionMatrix.m00() * Math.min(minX / nearDepth, minX / farDepth) - projectionMatrix.m20();
+        float ndcMaxX = projectionMatrix.m00() * Math.max(maxX / nearDepth, maxX / farDepth) - projectionMatrix.m20();
+        float ndcMinY = projectionMatrix.m11() * Math.min(minY / nearDepth, minY / farDepth) - projectionMatrix.m21();
+        float ndcMaxY = projectionMatrix.m11() * Math.max(maxY / nearDepth, maxY / farDepth) - projectionMatrix.m21();
+        if (ndcMaxX < -1 || ndcMinX > 1 || ndcMaxY < -1 || ndcMinY > 1) {
+            return false;
+        }
+
+        int range = 6 * light;
+        lightRanges[range] = getTile(ndcMinX, TILES_X);
+        lightRanges[range + 1] = getTile(ndcMaxX, TILES_X);
+        lightRanges[range + 2] = getTile(ndcMinY, TILES_Y);
+        lightRanges[range + 3] = getTile(ndcMaxY, TILES_Y);
+        lightRanges[range + 4] = getSlice(nearDepth);
+        lightRanges[range + 5] = getSlice(farDepth);
+        for (int z = lightRanges[range + 4]; z <= lightRanges[range + 5]; z++) {
+            for (int y = lightRanges[range + 2]; y <= lightRanges[range + 3]; y++) {
+                for (int x = lightRanges[range]; x <= lightRanges[range + 1]; x++) {
+                    clusterCounts[(z * TILES_Y + y) * TILES_X + x]++;
+                }
+            }
+        }
+        return true;
+    }
+
+    private static int getTile(float ndc, int tiles) {
+        return Math.min(Math.max((int) ((ndc + 1) * 0.5f * tiles), 0), tiles - 1);
+    }
+
+    private int getSlice(float depth) {
+        if (depth < FIRST_SLICE_DEPTH) {
+            return 0;
+        }
+        return 1 + Math.min((int) (Math.log(depth / FIRST_SLICE_DEPTH) * sliceScale), SLICES - 2);
+    }
+
+    /**
+     * Binds the lights, the clusters and the light indices to three consecutive texture units
+     */
+    public void bindTextures(int start) {
+        for (int i = 0; i < textureIds.length; i++) {
+            GLState.bindTexture(GL_TEXTURE0 + start + i, GL_TEXTURE_BUFFER, textureIds[i]);
+        }
+    }
+
+    public int getLightCount() {
+        return lightCount;
+    }
+
+    public void cleanUp() {
+        if (textureIds != null) {
+            GLState.deleteTextures(textureIds);
+            glDeleteBuffers(bufferIds);
+        }
+        MemoryUtil.memFree(clusterBuffer);
+        MemoryUtil.memFree(lightBuffer);
+        MemoryUtil.memFree(indexBuffer);
+    }
+}
@@ -6,6 +6,7 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 import java.util.function.Consumer;
+import java.util.function.Predicate;
 import static org.lwjgl.opengl.GL11.*;
 import static org.lwjgl.opengl.GL13.*;
 import static org.lwjgl.opengl.GL15.*;
@@ -31,37 +32,66 @@ public class Mesh {
     private Material material;
     
     private AABBf boundaryBox;
+
+    private final boolean skinned;
+
+    private final boolean withSurroundings;
     
     public Mesh(float[] positions, float[] textCoords, float[] normals, int[] indices) {
-        this(positions, createEmptyFloatArray(4 * positions.length / 3, 0), createEmptyFloatArray(4 * positions.length / 3, 0), textCoords, normals, indices, createEmptyIntArray(MAX_WEIGHTS * positions.length / 3, 0), createEmptyFloatArray(MAX_WEIGHTS * positions.length / 3, 0), null);
+        this(positions, null, null, textCoords, normals, indices, null, null, null);
     }
 
     public Mesh(float[] positions, float[] surroundings, float[] surroundingsDiag, float[] textCoords, float[] normals, int[] indices, AABBf boundaryBox) {
-        this(positions, surroundings, surroundingsDiag, textCoords, normals, indices, createEmptyIntArray(MAX_WEIGHTS * positions.length / 3, 0), createEmptyFloatArray(MAX_WEIGHTS * positions.length / 3, 0), boundaryBox);
+        this(positions, surroundings, surroundingsDiag, textCoords, normals, indices, null, null, boundaryBox);
     }
     
     public Mesh(float[] positions, float[] textCoords, float[] normals, int[] indices, int[] jointIndices, float[] weights) {
-    	this(positions, createEmptyFloatArray(4 * positions.length / 3, 0), createEmptyFloatArray(4 * positions.length / 3, 0), textCoords, normals, indices, jointIndices, weights, null);
+    	this(positions, null, null, textCoords, normals, indices, jointIndices, weights, null);
+    }
+
+    /**
+     * Creates an empty vertex array, the subclass fills the vertex buffers with its own layout
+     */
+    protected Mesh(int vertexCount, AABBf boundaryBox) {
+        this(vertexCount, glGenVertexArrays(), boundaryBox);
     }
 
+    /**
+     * Uses a vertex array owned by another object, the subclass draws its own range of it
+     */
+    protected Mesh(int vertexCount, int vaoId, AABBf boundaryBox) {
+        this.vertexCount = vertexCount;
+        this.boundaryBox = boundaryBox;
+        skinned = false;
+        withSurroundings = false;
+        vboIdList = new ArrayList<>();
+        this.vaoId = vaoId;
+    }
+
+    /**
+     * The skinning streams (joint indices and weights) and the surroundings streams are optional, when they are null
+     * no buffer is created and the shaders read zeros for them. The border coordinates are derived from the vertex
+     * index in the shaders, every quad being made of four consecutive vertices.
+     */
     public Mesh(float[] positions, float[] surroundings, float[] surroundingsDiag, float[] textCoords, float[] normals, int[] indices, int[] jointIndices, float[] weights, AABBf boundaryBox) {
         FloatBuffer posBuffer = null;
         FloatBuffer surroundingsBuffer = null;
         FloatBuffer surroundingsDiagBuffer = null;
         FloatBuffer textCoordsBuffer = null;
-        FloatBuffer borderCoordsBuffer = null;
         FloatBuffer vecNormalsBuffer = null;
         FloatBuffer weightsBuffer = null;
         IntBuffer jointIndicesBuffer = null;
         IntBuffer indicesBuffer = null;
         try {            
             this.boundaryBox = boundaryBox;
+            skinned = weights != null && jointIndices != null;
+            withSurroundings = surroundings != null && surroundingsDiag != null;
             
             vertexCount = indices.length;
             vboIdList = new ArrayList<>();
 
             vaoId = glGenVertexArrays();
-            glBindVertexArray(vaoId);
+            GLState.bindVertexArray(vaoId);
 
             // Position VBO
             int vboId = glGenBuffers();
@@ -90,60 +120,45 @@ public class Mesh {
             glBufferData(GL_ARRAY_BUFFER, vecNormalsBuffer, GL_STATIC_DRAW);
             glVertexAttribPointer(2, 3, GL_FLOAT, false, 0, 0);
 
-            // Weights
-            vboId = glGenBuffers();
-            vboIdList.add(vboId);
-            weightsBuffer = MemoryUtil.memAllocFloat(weights.length);
-            weightsBuffer.put(weights).flip();
-            glBindBuffer(GL_ARRAY_BUFFER, vboId);
-            glBufferData(GL_ARRAY_BUFFER, weightsBuffer, GL_STATIC_DRAW);
-            glVertexAttribPointer(3, 4, GL_FLOAT, false, 0, 0);
-
-            // Joint indices
-            vboId = glGenBuffers();
-            vboIdList.add(vboId);
-            jointIndicesBuffer = MemoryUtil.memAllocInt(jointIndices.length);
-            jointIndicesBuffer.put(jointIndices).flip();
-            glBindBuffer(GL_ARRAY_BUFFER, vboId);
-            glBufferData(GL_ARRAY_BUFFER, jointIndicesBuffer, GL_STATIC_DRAW);
-            glVertexAttribPointer(4, 4, GL_FLOAT, false, 0, 0);
-            
-            float[] borderCoords = new float[textCoords.length];
-            for(int i = 0 ; i <= textCoords.length - 8 ; i = i + 8) {
-            	borderCoords[i] = 0.1f;
-            	borderCoords[i+1] = 0.1f;
-            	borderCoords[i+2] = 0.1f;
-            	borderCoords[i+3] = 0.9f;
-            	borderCoords[i+4] = 0.9f;
-            	borderCoords[i+5] = 0.9f;
-            	borderCoords[i+6] = 0.9f;
-            	borderCoords[i+7] = 0.1f;
+            if (skinned) {
+                // Weights
+                vboId = glGenBuffers();
+                vboIdList.add(vboId);
+                weightsBuffer = MemoryUtil.memAllocFloat(weights.length);
+                weightsBuffer.put(weights).flip();
+                glBindBuffer(GL_ARRAY_BUFFER, vboId);
+                glBufferData(GL_ARRAY_BUFFER, weightsBuffer, GL_STATIC_DRAW);
+                glVertexAttribPointer(3, 4, GL_FLOAT, false, 0, 0);
+
+                // Joint indices
+                vboId = glGenBuffers();
+                vboIdList.add(vboId);
+                jointIndicesBuffer = MemoryUtil.memAllocInt(jointIndices.length);
+                jointIndicesBuffer.put(jointIndices).flip();
+                glBindBuffer(GL_ARRAY_BUFFER, vboId);
+                glBufferData(GL_ARRAY_BUFFER, jointIndicesBuffer, GL_STATIC_DRAW);
+                glVertexAttribPointer(4, 4, GL_FLOAT, false, 0, 0);
             }
-            vboId = glGenBuffers();
-            vboIdList.add(vboId);            
-            borderCoordsBuffer = MemoryUtil.memAllocFloat(borderCoords.length);
-            borderCoordsBuffer.put(borderCoords).flip();
-            glBindBuffer(GL_ARRAY_BUFFER, vboId);
-            glBufferData(GL_ARRAY_BUFFER, borderCoordsBuffer, GL_STATIC_DRAW);
-            glVertexAttribPointer(6, 2, GL_FLOAT, false, 0, 0);
-            
-            // Surroundings VBO
-            vboId = glGenBuffers();
-            vboIdList.add(vboId);
-            surroundingsBuffer = MemoryUtil.memAllocFloat(surroundings.length);
-            surroundingsBuffer.put(surroundings).flip();
-            glBindBuffer(GL_ARRAY_BUFFER, vboId);
-            glBufferData(GL_ARRAY_BUFFER, surroundingsBuffer, GL_STATIC_DRAW);
-            glVertexAttribPointer(7, 4, GL_FLOAT, false, 0, 0);
 
-            // Surroundings Diag VBO
-            vboId = glGenBuffers();
-            vboIdList.add(vboId);
-            surroundingsDiagBuffer = MemoryUtil.memAllocFloat(surroundingsDiag.length);
-            surroundingsDiagBuffer.put(surroundingsDiag).flip();
-            glBindBuffer(GL_ARRAY_BUFFER, vboId);
-            glBufferData(GL_ARRAY_BUFFER, surroundingsDiagBuffer, GL_STATIC_DRAW);
-            glVertexAttribPointer(15, 4, GL_FLOAT, false, 0, 0);
+            if (withSurroundings) {
+                // Surroundings VBO
+                vboId = glGenBuffers();
+                vboIdList.add(vboId);
+                surroundingsBuffer = MemoryUtil.memAllocFloat(surroundings.length);
+                surroundingsBuffer.put(surroundings).flip();
+                glBindBuffer(GL_ARRAY_BUFFER, vboId);
+                glBufferData(GL_ARRAY_BUFFER, surroundingsBuffer, GL_STATIC_DRAW);
+                glVertexAttribPointer(7, 4, GL_FLOAT, false, 0, 0);
+
+                // Surroundings Diag VBO
+                vboId = glGenBuffers();
+                vboIdList.add(vboId);
+                surroundingsDiagBuffer = MemoryUtil.memAllocFloat(surroundingsDiag.length);
+                surroundingsDiagBuffer.put(surroundingsDiag).flip();
+                glBindBuffer(GL_ARRAY_BUFFER, vboId);
+                glBufferData(GL_ARRAY_BUFFER, surroundingsDiagBuffer, GL_STATIC_DRAW);
+                glVertexAttribPointer(15, 4, GL_FLOAT, false, 0, 0);
+            }
             
             // Index VBO
             vboId = glGenBuffers();
@@ -154,7 +169,7 @@ public class Mesh {
             glBufferData(GL_ELEMENT_ARRAY_BUFFER, indicesBuffer, GL_STATIC_DRAW);
 
             glBindBuffer(GL_ARRAY_BUFFER, 0);
-            glBindVertexArray(0);
+            GLState.bindVertexArray(0);
         } finally {
             if (posBuffer != null) {
                 MemoryUtil.memFree(posBuffer);
@@ -168,9 +183,6 @@ public class Mesh {
             if (textCoordsBuffer != null) {
                 MemoryUtil.memFree(textCoordsBuffer);
             }
-            if (borderCoordsBuffer != null) {
-                MemoryUtil.memFree(borderCoordsBuffer);
-            }
             if (vecNormalsBuffer != null) {
                 MemoryUtil.memFree(vecNormalsBuffer);
             }
@@ -213,85 +225,106 @@ public class Mesh {
     protected void initRender() {
         Texture texture = material != null ? material.getTexture() : null;
         if (texture != null) {
-            // Activate first texture bank
-            glActiveTexture(GL_TEXTURE0);
-            // Bind the texture
-            glBindTexture(GL_TEXTURE_2D, texture.getId());
+            // Bind the texture to its bank, skipped when it is still bound there
+            GLState.bindTexture(GL_TEXTURE0, GL_TEXTURE_2D, texture.getId());
         }
         Texture normalMap = material != null ? material.getNormalMap() : null;
         if (normalMap != null) {
-            // Activate second texture bank
-            glActiveTexture(GL_TEXTURE1);
-            // Bind the texture
-            glBindTexture(GL_TEXTURE_2D, normalMap.getId());
+            // Bind the texture to its bank, skipped when it is still bound there
+            GLState.bindTexture(GL_TEXTURE1, GL_TEXTURE_2D, normalMap.getId());
         }
         Texture borderTexture = material != null ? material.getTextureBorder() : null;
         if (borderTexture != null) {
-            // Activate second texture bank
-            glActiveTexture(GL_TEXTURE10);
-            // Bind the texture
-            glBindTexture(GL_TEXTURE_2D, borderTexture.getId());
+            // Bind the texture to its bank, skipped when it is still bound there
+            GLState.bindTexture(GL_TEXTURE10, GL_TEXTURE_2D, borderTexture.getId());
         }
         Texture borderTextureLeft = material != null ? material.getTextureBorderLeft() : null;
         if (borderTextureLeft != null) {
-            // Activate second texture bank
-            glActiveTexture(GL_TEXTURE11);
-            // Bind the texture
-            glBindTexture(GL_TEXTURE_2D, borderTextureLeft.getId());
+            // Bind the texture to its bank, skipped when it is still bound there
+            GLState.bindTexture(GL_TEXTURE11, GL_TEXTURE_2D, borderTextureLeft.getId());
         }
         Texture borderTextureTop = material != null ? material.getTextureBorderTop() : null;
         if (borderTextureTop != null) {
-            // Activate second texture bank
-            glActiveTexture(GL_TEXTURE12);
-            // Bind the texture
-            glBindTexture(GL_TEXTURE_2D, borderTextureTop.getId());
+            // Bind the texture to its bank, skipped when it is still bound there
+            GLState.bindTexture(GL_TEXTURE12, GL_TEXTURE_2D, borderTextureTop.getId());
         }
         Texture borderTextureRight = material != null ? material.getTextureBorderRight() : null;
         if (borderTextureRight != null) {
-            // Activate second texture bank
-            glActiveTexture(GL_TEXTURE13);
-            // Bind the texture
-            glBindTexture(GL_TEXTURE_2D, borderTextureRight.getId());
+            // Bind the texture to its bank, skipped when it is still bound there
+            GLState.bindTexture(GL_TEXTURE13, GL_TEXTURE_2D, borderTextureRight.getId());
         }
         Texture borderTextureBottom = material != null ? material.getTextureBorderBottom() : null;
         if (borderTextureBottom != null) {
-            // Activate second texture bank
-            glActiveTexture(GL_TEXTURE14);
-            // Bind the texture
-            glBindTexture(GL_TEXTURE_2D, borderTextureBottom.getId());
+            // Bind the texture to its bank, skipped when it is still bound there
+            GLState.bindTexture(GL_TEXTURE14, GL_TEXTURE_2D, borderTextureBottom.getId());
         }
 
         // Draw the mesh
-        glBindVertexArray(getVaoId());
-        glEnableVertexAttribArray(0);
-        glEnableVertexAttribArray(1);
-        glEnableVertexAttribArray(2);
-        glEnableVertexAttribArray(3);
-        glEnableVertexAttribArray(4);
-        glEnableVertexAttribArray(6);
-        glEnableVertexAttribArray(7);
-        glEnableVertexAttribArray(15);
+        GLState.bindVertexArray(getVaoId());
+        enableVertexAttribArrays();
+    }
+
+    protected void enableVertexAttribArrays() {
+        GLState.enableVertexAttribArray(0);
+        GLState.enableVertexAttribArray(1);
+        GLState.enableVertexAttribArray(2);
+        // Missing streams are read from the generic values, which are not part of the vertex array state, only the first
+        // mesh without them sets them
+        if (skinned) {
+            GLState.enableVertexAttribArray(3);
+            GLState.enableVertexAttribArray(4);
+        } else {
+            GLState.vertexAttrib4f(3, 0, 0, 0, 0);
+        }
+        if (withSurroundings) {
+            GLState.enableVertexAttribArray(7);
+            GLState.enableVertexAttribArray(15);
+        } else {
+            GLState.vertexAttrib4f(7, 0, 0, 0, 0);
+            GLState.vertexAttrib4f(15, 0, 0, 0, 0);
+        }
     }
 
     protected void endRender() {
-        // Restore state
-        glDisableVertexAttribArray(0);
-        glDisableVertexAttribArray(1);
-        glDisableVertexAttribArray(2);
-        glDisableVertexAttribArray(3);
-        glDisableVertexAttribArray(4);
-        glDisableVertexAttribArray(6);
-        glDisableVertexAttribArray(7);
-        glDisableVertexAttribArray(15);
-        glBindVertexArray(0);
-
-        glBindTexture(GL_TEXTURE_2D, 0);
+        // The vertex array, its enabled arrays and the textures are left bound, the next mesh only changes what differs
+    }
+
+    /**
+     * Type of the values of the index buffer
+     */
+    protected int getIndexType() {
+        return GL_UNSIGNED_INT;
+    }
+
+    /**
+     * @return true if the vertices use the packed voxel layout of {@link VoxelMesh}
+     */
+    public boolean isPacked() {
+        return false;
+    }
+
+    /**
+     * @return true if the mesh is made of voxel faces, possibly merged, whose borders are drawn around every voxel
+     */
+    public boolean isVoxel() {
+        return withSurroundings || isPacked();
+    }
+
+    /**
+     * Records of a {@link RenderQueue} are batched together when their meshes have the same key
+     */
+    protected Object getBatchKey() {
+        return this;
+    }
+
+    protected void draw() {
+        glDrawElements(GL_TRIANGLES, getVertexCount(), getIndexType(), 0);
     }
 
     public void render() {
         initRender();
 
-        glDrawElements(GL_TRIANGLES, getVertexCount(), GL_UNSIGNED_INT, 0);
+        draw();
 
         endRender();
     }
@@ -304,16 +337,38 @@ public class Mesh {
                 // Set up data requiered by gameItem
                 consumer.accept(gameItem);
                 // Render this game item
-                glDrawElements(GL_TRIANGLES, getVertexCount(), GL_UNSIGNED_INT, 0);
+                draw();
             }
         }
 
         endRender();
     }
 
-    public void cleanUp() {
-        glDisableVertexAttribArray(0);
+    /**
+     * Renders the items inside the frustum of the records [from, to[ of the queue, which must all use this mesh
+     */
+    public void renderBatch(RenderQueue queue, int from, int to, Consumer<GameItem> consumer) {
+        renderBatch(queue, from, to, GameItem::isInsideFrustum, consumer);
+    }
+
+    /**
+     * Renders the items accepted by the filter of the records [from, to[ of the queue, which must all use this mesh
+     */
+    public void renderBatch(RenderQueue queue, int from, int to, Predicate<GameItem> filter, Consumer<GameItem> consumer) {
+        initRender();
 
+        for (int i = from; i < to; i++) {
+            GameItem gameItem = queue.get(i).getItem();
+            if (filter.test(gameItem)) {
+                consumer.accept(gameItem);
+                draw();
+            }
+        }
+
+        endRender();
+    }
+
+    public void cleanUp() {
         // Delete the VBOs
         glBindBuffer(GL_ARRAY_BUFFER, 0);
         for (int vboId : vboIdList) {
@@ -327,13 +382,10 @@ public class Mesh {
         }
 
         // Delete the VAO
-        glBindVertexArray(0);
-        glDeleteVertexArrays(vaoId);
+        GLState.deleteVertexArray(vaoId);
     }
 
     public void deleteBuffers() {
-        glDisableVertexAttribArray(0);
-
         // Delete the VBOs
         glBindBuffer(GL_ARRAY_BUFFER, 0);
         for (int vboId : vboIdList) {
@@ -341,8 +393,7 @@ public class Mesh {
         }
 
         // Delete the VAO
-        glBindVertexArray(0);
-        glDeleteVertexArrays(vaoId);
+        GLState.deleteVertexArray(vaoId);
     }
 
     protected static float[] createEmptyFloatArray(int length, float defaultValue) {
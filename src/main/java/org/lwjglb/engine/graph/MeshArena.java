@@ -0,0 +1,153 @@
+package org.lwjglb.engine.graph;
+
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import static org.lwjgl.opengl.GL11.*;
+import static org.lwjgl.opengl.GL15.*;
+import static org.lwjgl.opengl.GL20.*;
+import static org.lwjgl.opengl.GL30.*;
+import static org.lwjgl.opengl.GL32.*;
+
+import org.joml.AABBf;
+import org.lwjgl.PointerBuffer;
+import org.lwjgl.system.MemoryUtil;
+
+/**
+ * One vertex buffer and one index buffer shared by many static meshes in the {@link VoxelMesh} layout, typically the
+ * tiles of a board. Every mesh added is an {@link ArenaMesh}, a range of the buffers drawn with a base vertex, and the
+ * visible ranges of a render batch are submitted with a single glMultiDrawElementsBaseVertex.
+ *
+ * Meshes are added to staging memory, then {@link #upload()} creates the buffers once.
+ */
+public class MeshArena {
+
+    private static final int INITIAL_CAPACITY = 1 << 16;
+
+    private final int vaoId;
+
+    private int vertexVboId;
+
+    private int indexVboId;
+
+    private ByteBuffer vertices;
+
+    private IntBuffer indices;
+
+    private int vertexCount;
+
+    private int rangeCount;
+
+    private IntBuffer drawCounts;
+
+    private PointerBuffer drawOffsets;
+
+    private IntBuffer drawBaseVertices;
+
+    public MeshArena() {
+        vaoId = glGenVertexArrays();
+        vertices = MemoryUtil.memAlloc(INITIAL_CAPACITY * VoxelMesh.VERTEX_SIZE_BYTES);
+        indices = MemoryUtil.memAllocInt(INITIAL_CAPACITY);
+    }
+
+    /**
+     * Appends a mesh, its positions must be in world coordinates as all the ranges of a batch share one model matrix
+     *
+     * @param meshVertices packed vertices, from the position to the limit of the buffer
+     * @param meshIndices indices of the triangles, relative to the first vertex of the mesh, from the position to the
+     * limit of the buffer
+     */
+    public ArenaMesh add(ByteBuffer meshVertices, IntBuffer meshIndices, AABBf boundaryBox) {
+        if (vertices == null) {
+            throw new IllegalStateException("The arena has already been uploaded");
+        }
+        if (vertices.remaining() < meshVertices.remaining()) {
+            vertices = MemoryUtil.memRealloc(vertices, Math.max(vertices.capacity() * 2, vertices.position() + meshVertices.remaining()));
+        }
+        int indexCount = meshIndices.remaining();
+        if (indices.remaining() < indexCount) {
+            indices = MemoryUtil.memRealloc(indices, Math.max(indices.capacity() * 2, indices.position() + indexCount));
+        }
+        int baseVertex = vertexCount;
+        int firstIndex = indices.position();
+        vertexCount += meshVertices.remaining() / VoxelMesh.VERTEX_SIZE_BYTES;
+        vertices.put(meshVertices);
+        indices.put(meshIndices);
+        rangeCount++;
+        return new ArenaMesh(this, baseVertex, firstIndex, indexCount, boundaryBox);
+    }
+
+    /**
+     * Creates the GPU buffers from the meshes added so far and frees the staging memory
+     */
+    public void upload() {
+        GLState.bindVertexArray(vaoId);
+
+        vertexVboId = glGenBuffers();
+        vertices.flip();
+        glBindBuffer(GL_ARRAY_BUFFER, vertexVboId);
+        glBufferData(GL_ARRAY_BUFFER, vertices, GL_STATIC_DRAW);
+        glVertexAttribPointer(VoxelMesh.POSITION_LOCATION, 3, GL_UNSIGNED_SHORT, false, VoxelMesh.VERTEX_SIZE_BYTES, 0);
+        glVertexAttribIPointer(VoxelMesh.ATTRIBUTES_LOCATION, 4, GL_UNSIGNED_BYTE, VoxelMesh.VERTEX_SIZE_BYTES, 8);
+
+        indexVboId = glGenBuffers();
+        indices.flip();
+        glBindBuffer(GL_ELEMENT_ARRAY_BUFFER, indexVboId);
+        glBufferData(GL_ELEMENT_ARRAY_BUFFER, indices, GL_STATIC_DRAW);
+
+        glBindBuffer(GL_ARRAY_BUFFER, 0);
+        GLState.bindVertexArray(0);
+
+        MemoryUtil.memFree(vertices);
+        MemoryUtil.memFree(indices);
+        vertices = null;
+        indices = null;
+
+        drawCounts = MemoryUtil.memAllocInt(Math.max(rangeCount, 1));
+        drawOffsets = MemoryUtil.memAllocPointer(Math.max(rangeCount, 1));
+        drawBaseVertices = MemoryUtil.memAllocInt(Math.max(rangeCount, 1));
+    }
+
+    public int getVaoId() {
+        return vaoId;
+    }
+
+    /**
+     * Queues the range of the mesh for the next {@link #multiDraw()}
+     */
+    void addDraw(ArenaMesh mesh) {
+        drawCounts.put(mesh.getVertexCount());
+        drawOffsets.put((long) mesh.getFirstIndex() * Integer.BYTES);
+        drawBaseVertices.put(mesh.getBaseVertex());
+    }
+
+    /**
+     * Draws the queued ranges with a single call, the vertex array must be bound
+     */
+    void multiDraw() {
+        drawCounts.flip();
+        drawOffsets.flip();
+        drawBaseVertices.flip();
+        if (drawCounts.hasRemaining()) {
+            glMultiDrawElementsBaseVertex(GL_TRIANGLES, drawCounts, GL_UNSIGNED_INT, drawOffsets, drawBaseVertices);
+        }
+        drawCounts.clear();
+        drawOffsets.clear();
+        drawBaseVertices.clear();
+    }
+
+    public void cleanUp() {
+        glBindBuffer(GL_ARRAY_BUFFER, 0);
+        glDeleteBuffers(vertexVboId);
+        glDeleteBuffers(indexVboId);
+        GLState.deleteVertexArray(vaoId);
+        if (vertices != null) {
+            MemoryUtil.memFree(vertices);
+            MemoryUtil.memFree(indices);
+        }
+        if (drawCounts != null) {
+            MemoryUtil.memFree(drawCounts);
+            MemoryUtil.memFree(drawOffsets);
+            MemoryUtil.memFree(drawBaseVertices);
+        }
+    }
+}
@@ -0,0 +1,428 @@
+package org.lwjglb.engine.graph;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import org.joml.AABBf;
+import org.joml.Matrix4f;
+import org.joml.Vector3f;
+import org.lwjglb.engine.Window;
+import org.lwjglb.engine.items.Board;
+import org.lwjglb.engine.items.Tile;
+
+/**
+ * Software occlusion culling of the tiles of a board. Every frame the solid part of the tiles inside the frustum, the
+ * columns under {@link Tile#getSolidHeight()}, is rasterized into a small buffer of view distances. The boxes of the
+ * same tiles are then tested against it and the ones hidden by nearer terrain are marked outside of the frustum. It
+ * never touches the GPU, the rows of the buffer and the tiles are shared between the workers of the common pool.
+ *
+ * Occluders cover the pixels whose center they contain and write their farthest distance, the tested boxes cover one
+ * more pixel on every side, so a tile is only culled when it is hidden.
+ */
+public class OcclusionCuller {
+
+    public static final int DEFAULT_WIDTH = 256;
+
+    public static final int DEFAULT_HEIGHT = 128;
+
+    /**
+     * A box face clipped by the near plane has at most 5 vertices
+     */
+    private static final int MAX_VERTICES = 5;
+
+    private static final int TILES_PER_TASK = 128;
+
+    /**
+     * Relative margin on the distance of the tested boxes, so that a tile is never hidden by its own occluder
+     */
+    private static final float DEPTH_BIAS = 1e-4f;
+
+    private final int width;
+
+    private final int height;
+
+    /**
+     * View distance of the nearest occluder of every pixel, row by row from the bottom of the screen
+     */
+    private final float[] depth;
+
+    private final Matrix4f prjViewMatrix;
+
+    private final Vector3f cameraPosition;
+
+    private final float[] clipX;
+
+    private final float[] clipY;
+
+    private final float[] clipW;
+
+    private final float[] clippedX;
+
+    private final float[] clippedY;
+
+    private final float[] clippedW;
+
+    private Tile[] tiles = new Tile[0];
+
+    private int tileCount;
+
+    private float[] polygonX = new float[0];
+
+    private float[] polygonY = new float[0];
+
+    private int[] polygonSize = new int[0];
+
+    private float[] polygonDepth = new float[0];
+
+    private int[] polygonMinRow = new int[0];
+
+    private int[] polygonMaxRow = new int[0];
+
+    private int polygonCount;
+
+    private RasterTask[] rasterTasks = new RasterTask[0];
+
+    private TestTask[] testTasks = new TestTask[0];
+
+    public OcclusionCuller() {
+        this(DEFAULT_WIDTH, DEFAULT_HEIGHT);
+    }
+
+    public OcclusionCuller(int width, int height) {
+        this.width = width;
+        this.height = height;
+        depth = new float[width * height];
+        prjViewMatrix = new Matrix4f();
+        cameraPosition = new Vector3f();
+        clipX = new float[4];
+        clipY = new float[4];
+        clipW = new float[4];
+        clippedX = new float[MAX_VERTICES];
+        clippedY = new float[MAX_VERTICES];
+        clippedW = new float[MAX_VERTICES];
+    }
+
+    /**
+     * Marks outside of the frustum the tiles of the board inside the frustum that are hidden by other tiles
+     *
+     * @return the number of tiles culled
+     */
+    public int cull(Matrix4f projMatrix, Matrix4f viewMatrix, Board board) {
+        prjViewMatrix.set(projMatrix).mul(viewMatrix);
+        viewMatrix.originAffine(cameraPosition);
+
+        List<Tile> boardTiles = board.getTiles();
+        if (tiles.length < boardTiles.size()) {
+            tiles = new Tile[boardTiles.size()];
+        }
+        tileCount = 0;
+        polygonCount = 0;
+        for (int i = 0; i < boardTiles.size(); i++) {
+            Tile tile = boardTiles.get(i);
+            if (tile.isInsideFrustum() && tile.getMesh().getBoundaryBox() != null) {
+                tiles[tileCount++] = tile;
+                addOccluder(tile);
+            }
+        }
+        if (polygonCount == 0) {
+            return 0;
+        }
+
+        Arrays.fill(depth, Float.POSITIVE_INFINITY);
+        int workers = ForkJoinPool.getCommonPoolParallelism();
+        if (rasterTasks.length != workers) {
+            rasterTasks = new RasterTask[workers];
+            int rows = (height + workers - 1) / workers;
+            for (int i = 0; i < workers; i++) {
+                rasterTasks[i] = new RasterTask(Math.min(i * rows, height), Math.min((i + 1) * rows, height));
+            }
+        }
+        ForkJoinTasks.invokeAll(rasterTasks, rasterTasks.length);
+
+        int taskCount = (tileCount + TILES_PER_TASK - 1) / TILES_PER_TASK;
+        if (testTasks.length < taskCount) {
+            testTasks = Arrays.copyOf(testTasks, taskCount);
+            for (int i = 0; i < taskCount; i++) {
+                if (testTasks[i] == null) {
+                    testTasks[i] = new TestTask(i * TILES_PER_TASK);
+                }
+            }
+        }
+        ForkJoinTasks.invokeAll(testTasks, taskCount);
+        int culled = 0;
+        for (int i = 0; i < taskCount; i++) {
+            culled += testTasks[i].culled;
+        }
+        return culled;
+    }
+
+    /**
+     * Adds the faces of the solid box of the tile turned to the camera
+     */
+    private void addOccluder(Tile tile) {
+        if (tile.getSolidHeight() <= 0) {
+            return;
+        }
+        AABBf boundaryBox = tile.getMesh().getBoundaryBox();
+        Vector3f position = tile.getPosition();
+        float scale = tile.getScale();
+        float minX = position.x + boundaryBox.minX * scale;
+        float minY = position.y + boundaryBox.minY * scale;
+        float minZ = position.z + boundaryBox.minZ * scale;
+        float maxX = position.x + boundaryBox.maxX * scale;
+        float maxY = position.y + tile.getSolidHeight() * scale;
+        float maxZ = position.z + boundaryBox.maxZ * scale;
+        if (cameraPosition.x < minX) {
+            addFace(minX, minY, minZ, minX, maxY, minZ, minX, maxY, maxZ, minX, minY, maxZ);
+        } else if (cameraPosition.x > maxX) {
+            addFace(maxX, minY, minZ, maxX, maxY, minZ, maxX, maxY, maxZ, maxX, minY, maxZ);
+        }
+        if (cameraPosition.y < minY) {
+            addFace(minX, minY, minZ, maxX, minY, minZ, maxX, minY, maxZ, minX, minY, maxZ);
+        } else if (cameraPosition.y > maxY) {
+            addFace(minX, maxY, minZ, maxX, maxY, minZ, maxX, maxY, maxZ, minX, maxY, maxZ);
+        }
+        if (cameraPosition.z < minZ) {
+            addFace(minX, minY, minZ, maxX, minY, minZ, maxX, maxY, minZ, minX, maxY, minZ);
+        } else if (cameraPosition.z > maxZ) {
+            addFace(minX, minY, maxZ, maxX, minY, maxZ, maxX, maxY, maxZ, minX, maxY, maxZ);
+        }
+    }
+
+    /**
+     * Projects the quad, clips it by the near plane and stores it as a screen polygon at its farthest distance
+     */
+    private void addFace(float x0, float y0, float z0, float x1, float y1, float z1, float x2, float y2, float z2, float x3, float y3, float z3) {
+        project(0, x0, y0, z0);
+        project(1, x1, y1, z1);
+        project(2, x2, y2, z2);
+        project(3, x3, y3, z3);
+
+        float near = Window.Z_NEAR;
+        int size = 0;
+        for (int i = 0; i < 4; i++) {
+            int j = (i + 1) & 3;
+            boolean inside = clipW[i] >= near;
+            if (inside) {
+                clippedX[size] = clipX[i];
+                clippedY[size] = clipY[i];
+                clippedW[size++] = clipW[i];
+            }
+            if (inside != clipW[j] >= near) {
+                float t = (near - clipW[i]) / (clipW[j] - clipW[i]);
+                clippedX[size] = clipX[i] + t * (clipX[j] - clipX[i]);
+                clippedY[size] = clipY[i] + t * (clipY[j] - clipY[i]);
+                clippedW[size++] = near;
+            }
+        }
+        if (size < 3) {
+            return;
+        }
+
+        if (polygonSize.length == polygonCount) {
+            int capacity = Math.max(64, polygonCount * 2);
+            polygonX = Arrays.copyOf(polygonX, capacity * MAX_VERTICES);
+            polygonY = Arrays.copyOf(polygonY, capacity * MAX_VERTICES);
+            polygonSize = Arrays.copyOf(polygonSize, capacity);
+            polygonDepth = Arrays.copyOf(polygonDepth, capacity);
+            polygonMinRow = Arrays.copyOf(polygonMinRow, capacity);
+            polygonMaxRow = Arrays.copyOf(polygonMaxRow, capacity);
+        }
+        int offset = polygonCount * MAX_VERTICES;
+        float farthest = 0;
+        float minY = Float.POSITIVE_INFINITY;
+        float maxY = Float.NEGATIVE_INFINITY;
+        for (int i = 0; i < size; i++) {
+            float sx = (clippedX[i] / clippedW[i] * 0.5f + 0.5f) * width;
+            float sy = (clippedY[i] / clippedW[i] * 0.5f + 0.5f) * height;
+            polygonX[offset + i] = sx;
+            polygonY[offset + i] = sy;
+            farthest = Math.max(farthest, clippedW[i]);
+            minY = Math.min(minY, sy);
+            maxY = Math.max(maxY, sy);
+        }
+        int minRow = Math.max(0, (int) Math.ceil(minY - 0.5f));
+        int maxRow = Math.min(height - 1, (int) Math.floor(maxY - 0.5f));
+        if (minRow > maxRow) {
+            return;
+        }
+        polygonSize[polygonCount] = size;
+        polygonDepth[polygonCount] = farthest;
+        polygonMinRow[polygonCount] = minRow;
+        polygonMaxRow[polygonCount] = maxRow;
+        polygonCount++;
+    }
+
+    private void project(int i, float x, float y, float z) {
+        Matrix4f m = prjViewMatrix;
+        clipX[i] = m.m00() * x + m.m10() * y + m.m20() * z + m.m30();
+        clipY[i] = m.m01() * x + m.m11() * y + m.m21() * z + m.m31();
+        clipW[i] = m.m03() * x + m.m13() * y + m.m23() * z + m.m33();
+    }
+
+    /**
+     * Fills the rows [startRow, endRow[ with the polygons. A polygon is convex, each row is the span of pixel centers on
+     * the inner side of all its edges.
+     */
+    private void rasterize(int startRow, int endRow) {
+        for (int p = 0; p < polygonCount; p++) {
+            int fromRow = Math.max(startRow, polygonMinRow[p]);
+            int toRow = Math.min(endRow - 1, polygonMaxRow[p]);
+            if (fromRow > toRow) {
+                continue;
+            }
+            int offset = p * MAX_VERTICES;
+            int size = polygonSize[p];
+            float area = 0;
+            for (int i = 0; i < size; i++) {
+                int j = i + 1 < size ? i + 1 : 0;
+                area += polygonX[offset + i] * polygonY[offset + j] - polygonX[offset + j] * polygonY[offset + i];
+            }
+            if (area == 0) {
+                continue;
+            }
+            float orientation = area > 0 ? 1 : -1;
+            float distance = polygonDepth[p];
+            for (int row = fromRow; row <= toRow; row++) {
+                float py = row + 0.5f;
+                float left = 0;
+                float right = width - 1;
+                for (int i = 0; i < size; i++) {
+                    int j = i + 1 < size ? i + 1 : 0;
+                    float ax = polygonX[offset + i];
+                    float ay = polygonY[offset + i];
+                    // Edge function e(px) = slope * px + constant, positive inside
+                    float slope = -orientation * (polygonY[offset + j] - ay);
+                    float constant = orientation * ((polygonX[offset + j] - ax) * (py - ay)) - slope * ax;
+                    if (slope > 0) {
+                        left = Math.max(left, -constant / slope - 0.5f);
+                    } else if (slope < 0) {
+                        right = Math.min(right, -constant / slope - 0.5f);
+                    } else if (constant < 0) {
+                        right = -1;
+                    }
+                }
+                int from = (int) Math.ceil(left);
+                int to = (int) Math.floor(right);
+                int rowOffset = row * width;
+                for (int x = rowOffset + from; x <= rowOffset + to; x++) {
+                    depth[x] = Math.min(depth[x], distance);
+                }
+            }
+        }
+    }
+
+    /**
+     * Tests the boxes of the tiles [from, to[ and marks the hidden ones outside of the frustum
+     *
+     * @return the number of tiles hidden
+     */
+    private int test(int from, int to) {
+        Matrix4f m = prjViewMatrix;
+        int culled = 0;
+        for (int t = from; t < to; t++) {
+            Tile tile = tiles[t];
+            AABBf boundaryBox = tile.getMesh().getBoundaryBox();
+            Vector3f position = tile.getPosition();
+            float scale = tile.getScale();
+            float minScreenX = Float.POSITIVE_INFINITY;
+            float minScreenY = Float.POSITIVE_INFINITY;
+            float maxScreenX = Float.NEGATIVE_INFINITY;
+            float maxScreenY = Float.NEGATIVE_INFINITY;
+            float nearest = Float.POSITIVE_INFINITY;
+            for (int corner = 0; corner < 8; corner++) {
+                float x = position.x + ((corner & 1) == 0 ? boundaryBox.minX : boundaryBox.maxX) * scale;
+                float y = position.y + ((corner & 2) == 0 ? boundaryBox.minY : boundaryBox.maxY) * scale;
+                float z = position.z + ((corner & 4) == 0 ? boundaryBox.minZ : boundaryBox.maxZ) * scale;
+                float w = m.m03() * x + m.m13() * y + m.m23() * z + m.m33();
+                float sx = ((m.m00() * x + m.m10() * y + m.m20() * z + m.m30()) / w * 0.5f + 0.5f) * width;
+                float sy = ((m.m01() * x + m.m11() * y + m.m21() * z + m.m31()) / w * 0.5f + 0.5f) * height;
+                nearest = Math.min(nearest, w);
+                minScreenX = Math.min(minScreenX, sx);
+                minScreenY = Math.min(minScreenY, sy);
+                maxScreenX = Math.max(maxScreenX, sx);
+                maxScreenY = Math.max(maxScreenY, sy);
+            }
+            // Boxes crossing the near plane do not have a screen rectangle
+            if (nearest < Window.Z_NEAR) {
+                continue;
+            }
+            int fromX = Math.max(0, (int) Math.floor(minScreenX) - 1);
+            int fromY = Math.max(0, (int) Math.floor(minScreenY) - 1);
+            int toX = Math.min(width - 1, (int) Math.floor(maxScreenX) + 1);
+            int toY = Math.min(height - 1, (int) Math.floor(maxScreenY) + 1);
+            if (fromX > toX || fromY > toY || isVisible(fromX, fromY, toX, toY, nearest * (1 - DEPTH_BIAS))) {
+                continue;
+            }
+            tile.setInsideFrustum(false);
+            culled++;
+        }
+        return culled;
+    }
+
+    private boolean isVisible(int fromX, int fromY, int toX, int toY, float nearest) {
+        for (int row = fromY; row <= toY; row++) {
+            int rowOffset = row * width;
+            for (int x = rowOffset + fromX; x <= rowOffset + toX; x++) {
+                if (depth[x] >= nearest) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * @return the view distance of the nearest occluder of every pixel after the last culling
+     */
+    public float[] getDepth() {
+        return depth;
+    }
+
+    private class RasterTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final int startRow;
+
+        private final int endRow;
+
+        RasterTask(int startRow, int endRow) {
+            this.startRow = startRow;
+            this.endRow = endRow;
+        }
+
+        @Override
+        protected void compute() {
+            rasterize(startRow, endRow);
+        }
+    }
+
+    private class TestTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final int from;
+
+        private int culled;
+
+        TestTask(int from) {
+            this.from = from;
+        }
+
+        @Override
+        protected void compute() {
+            culled = test(from, Math.min(from + TILES_PER_TASK, tileCount));
+        }
+    }
+}
@@ -0,0 +1,175 @@
+package org.lwjglb.engine.graph;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+import org.lwjglb.engine.items.GameItem;
+
+/**
+ * Flat list of the non instanced draws of a scene, one record per mesh of every game item. The records are sorted so
+ * that the draws sharing a mesh are contiguous, packed voxel meshes first and then by material, and grouped in batches
+ * of a single mesh, or of the ranges of a single {@link MeshArena}. Sorting only happens after items were added or
+ * removed, not every frame.
+ */
+public class RenderQueue {
+
+    private static final Comparator<DrawRecord> ORDER = Comparator
+            .comparingInt((DrawRecord record) -> record.mesh.isPacked() ? 0 : 1)
+            .thenComparingInt(record -> record.materialOrder)
+            .thenComparingInt(record -> record.meshOrder);
+
+    private final Map<Object, Integer> meshOrders;
+
+    private final Map<Material, Integer> materialOrders;
+
+    private DrawRecord[] records;
+
+    private int size;
+
+    private int[] batchStarts;
+
+    private int batchCount;
+
+    private boolean dirty;
+
+    private int version;
+
+    public RenderQueue() {
+        meshOrders = new IdentityHashMap<>();
+        materialOrders = new IdentityHashMap<>();
+        records = new DrawRecord[16];
+        batchStarts = new int[17];
+    }
+
+    /**
+     * Adds a record for every non instanced mesh of the item
+     */
+    public void add(GameItem gameItem) {
+        for (Mesh mesh : gameItem.getMeshes()) {
+            if (mesh == null || mesh instanceof InstancedMesh) {
+                continue;
+            }
+            if (size == records.length) {
+                records = Arrays.copyOf(records, size * 2);
+            }
+            int meshOrder = meshOrders.computeIfAbsent(mesh.getBatchKey(), m -> meshOrders.size());
+            int materialOrder = mesh.getMaterial() != null ? materialOrders.computeIfAbsent(mesh.getMaterial(), m -> materialOrders.size()) : -1;
+            records[size++] = new DrawRecord(mesh, gameItem, meshOrder, materialOrder);
+            dirty = true;
+        }
+    }
+
+    public void remove(GameItem gameItem) {
+        int kept = 0;
+        for (int i = 0; i < size; i++) {
+            if (records[i].item != gameItem) {
+                records[kept++] = records[i];
+            }
+        }
+        Arrays.fill(records, kept, size, null);
+        if (kept != size) {
+            size = kept;
+            dirty = true;
+        }
+    }
+
+    /**
+     * Replaces the records of an item whose meshes changed
+     */
+    public void update(GameItem gameItem) {
+        remove(gameItem);
+        add(gameItem);
+    }
+
+    public void clear() {
+        Arrays.fill(records, 0, size, null);
+        size = 0;
+        meshOrders.clear();
+        materialOrders.clear();
+        dirty = true;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public DrawRecord get(int index) {
+        return records[index];
+    }
+
+    /**
+     * Sorts the records if needed, the version changes each time the records are added, removed or reordered
+     */
+    public int getVersion() {
+        sortIfDirty();
+        return version;
+    }
+
+    public int getBatchCount() {
+        sortIfDirty();
+        return batchCount;
+    }
+
+    public Mesh getBatchMesh(int batch) {
+        return records[batchStarts[batch]].mesh;
+    }
+
+    public int getBatchStart(int batch) {
+        return batchStarts[batch];
+    }
+
+    public int getBatchEnd(int batch) {
+        return batchStarts[batch + 1];
+    }
+
+    private void sortIfDirty() {
+        if (!dirty) {
+            return;
+        }
+        Arrays.sort(records, 0, size, ORDER);
+        if (batchStarts.length < size + 1) {
+            batchStarts = new int[records.length + 1];
+        }
+        batchCount = 0;
+        for (int i = 0; i < size; i++) {
+            if (i == 0 || records[i].mesh.getBatchKey() != records[i - 1].mesh.getBatchKey()) {
+                batchStarts[batchCount++] = i;
+            }
+        }
+        batchStarts[batchCount] = size;
+        dirty = false;
+        version++;
+    }
+
+    public static class DrawRecord {
+
+        private final Mesh mesh;
+
+        private final GameItem item;
+
+        private final int meshOrder;
+
+        private final int materialOrder;
+
+        private DrawRecord(Mesh mesh, GameItem item, int meshOrder, int materialOrder) {
+            this.mesh = mesh;
+            this.item = item;
+            this.meshOrder = meshOrder;
+            this.materialOrder = materialOrder;
+        }
+
+        public Mesh getMesh() {
+            return mesh;
+        }
+
+        public Material getMaterial() {
+            return mesh.getMaterial();
+        }
+
+        public GameItem getItem() {
+            return item;
+        }
+    }
+}
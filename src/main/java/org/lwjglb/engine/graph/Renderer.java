@@ -1,20 +1,19 @@
 package org.lwjglb.engine.graph;
 
 import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.HashMap;
 
 import org.lwjglb.engine.graph.lights.PointLight;
-import org.lwjglb.engine.graph.lights.DirectionalLight;
 import java.util.List;
-import java.util.Map;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
 import org.joml.Matrix4f;
 import org.joml.Vector3f;
-import org.joml.Vector4f;
 import static org.lwjgl.opengl.GL11.*;
 import static org.lwjgl.opengl.GL13.*;
 import static org.lwjgl.opengl.GL14.*;
+import static org.lwjgl.opengl.GL20.*;
 import static org.lwjgl.opengl.GL30.*;
+import static org.lwjgl.opengl.GL32.GL_DEPTH_CLAMP;
 
 import org.lwjglb.engine.items.GameItem;
 import org.lwjglb.engine.MouseInput;
@@ -26,12 +25,19 @@ import org.lwjglb.engine.Window;
 import org.lwjglb.engine.graph.anim.AnimGameItem;
 import org.lwjglb.engine.graph.anim.AnimatedFrame;
 import org.lwjglb.engine.graph.particles.IParticleEmitter;
-import org.lwjglb.engine.graph.shadow.ShadowCascade;
 import org.lwjglb.engine.graph.shadow.ShadowRenderer;
 import org.lwjglb.engine.loaders.assimp.StaticMeshesLoader;
 
 public class Renderer {
 
+    private static final String[] SHADOW_MAP_UNIFORMS = new String[ShadowRenderer.NUM_CASCADES];
+
+    static {
+        for (int i = 0; i < ShadowRenderer.NUM_CASCADES; i++) {
+            SHADOW_MAP_UNIFORMS[i] = "shadowMap_" + i;
+        }
+    }
+
     private final Transformation transformation;
 
     private final ShadowRenderer shadowRenderer;
@@ -48,66 +54,141 @@ public class Renderer {
 
     private ShaderProgram fogShaderProgram;
 
+    private ShaderProgram lightVolumeShaderProgram;
+
     private final float specularPower;
 
     private final FrustumCullingFilter frustumFilter;
 
+    private final OcclusionCuller occlusionCuller;
+
     private final List<GameItem> filteredItems;
 
+    private final Consumer<GameItem> gBufferItemSetup;
+
+    private final BiConsumer<InstancedMesh, List<GameItem>> gBufferInstancedRender;
+
+    /**
+     * Handles of the G-Buffer uniforms set for every pass, batch or item
+     */
+    private int isInstancedUniform;
+
+    private int isPackedUniform;
+
+    private int isVoxelUniform;
+
+    private int numColsUniform;
+
+    private int numRowsUniform;
+
+    private int hoveredUniform;
+
+    private int selectedUniform;
+
+    private int highlightedUniform;
+
+    private int modelMatrixUniform;
+
+    private int jointsMatrixUniform;
+
+    private int[] materialUniform;
+
+    private Matrix4f instancedViewMatrix;
+
     private GBuffer gBuffer;
 
+    private LightClusters lightClusters;
+
     private SceneBuffer sceneBuffer;
 
     private Mesh bufferPassMesh;
 
     private Matrix4f bufferPassModelMatrix;
 
+    /**
+     * Box around the reach of a point light, set when only the pixels inside it are shaded
+     */
+    private Mesh lightVolumeMesh;
+
+    private final Matrix4f lightVolumeMatrix;
+
+    /**
+     * Lights of the scene transformed to view coordinates, reused every frame
+     */
+    private final PointLight viewPointLight;
+
+    private FrameUniforms frameUniforms;
+
+    private String frameUniformsCode;
+
     public Renderer() {
         transformation = new Transformation();
         specularPower = 10f;
         shadowRenderer = new ShadowRenderer();
         frustumFilter = new FrustumCullingFilter();
+        occlusionCuller = new OcclusionCuller();
         filteredItems = new ArrayList<>();
+        gBufferItemSetup = this::setupGBufferItem;
+        gBufferInstancedRender = this::renderInstancedMesh;
+        lightVolumeMatrix = new Matrix4f();
+        viewPointLight = new PointLight(new Vector3f(), new Vector3f(), 0);
+    }
+
+    public FrustumCullingFilter getFrustumFilter() {
+        return frustumFilter;
     }
 
     public void init(Window window) throws Exception {
         shadowRenderer.init(window);
         gBuffer = new GBuffer(window);
         sceneBuffer = new SceneBuffer(window);
+        frameUniforms = new FrameUniforms();
+        frameUniformsCode = FrameUniforms.loadShaderCode();
+        if (window.getOptions().clusteredLights) {
+            lightClusters = new LightClusters();
+            lightClusters.init();
+        }
         setupSkyBoxShader();
         setupParticlesShader();
         setupGBufferShader();
         setupDirLightShader();
         setupPointLightShader();
         setupFogShader();
+        if (window.getOptions().lightVolumes && lightClusters == null) {
+            setupLightVolumeShader();
+            lightVolumeMesh = createLightVolumeMesh();
+        }
 
         bufferPassModelMatrix =  new Matrix4f();
         bufferPassMesh = StaticMeshesLoader.load("src/main/resources/models/buffer_pass_mess.obj", "src/main/resources/models")[0];
     }
 
     public void render(Window window, MouseInput mouseInput, Camera camera, Scene scene, boolean sceneChanged) {
+        GLState.startFrame();
         clear();
 
+        // Also needed to skip the light volumes out of the view
+        frustumFilter.updateFrustum(window.getProjectionMatrix(), camera.getViewMatrix());
         if (window.getOptions().frustumCulling) {
-            frustumFilter.updateFrustum(window.getProjectionMatrix(), camera.getViewMatrix());
-            Map<Mesh, List<GameItem>> mapMeshes = new HashMap<>(scene.getGameMeshes());
-            if(scene.getBoard() != null) {
-    	        for(GameItem tile : scene.getBoard().getTiles()) {
-    	        	mapMeshes.put(tile.getMesh(), Arrays.asList(tile));
-    	        }
-    	        mapMeshes.put(scene.getPlayer().getMesh(), Arrays.asList(scene.getPlayer()));
-            }
-            frustumFilter.filter(mapMeshes);
+            frustumFilter.filter(scene.getRenderQueue());
             frustumFilter.filter(scene.getGameInstancedMeshes());
         }
 
         // Render depth map before view ports has been set up
         if(window.getWindowOptions().activeShadow == 1) {
         	sceneChanged = true;
+        	shadowRenderer.invalidate();
         	window.getWindowOptions().activeShadow = 2;
         }
-        if (window.getWindowOptions().activeShadow == 2 && sceneChanged) {
-            shadowRenderer.render(window, scene, camera, transformation, this);
+        // Rendered every frame for the dynamic casters, the static ones are cached
+        if (window.getWindowOptions().activeShadow == 2) {
+            shadowRenderer.render(window, scene, camera, transformation, this, sceneChanged);
+        }
+
+        // Tiles hidden from the camera can still cast shadows on the visible ones, so they are only culled after the
+        // shadow maps
+        if (window.getOptions().frustumCulling && window.getOptions().occlusionCulling && scene.getBoard() != null) {
+            occlusionCuller.cull(window.getProjectionMatrix(), camera.getViewMatrix(), scene.getBoard());
         }
 
         glViewport(0, 0, window.getWidth(), window.getHeight());
@@ -115,26 +196,28 @@ public class Renderer {
         // Update projection matrix once per render cycle
         window.updateProjectionMatrix();
 
+        frameUniforms.update(camera.getViewMatrix(), window.getProjectionMatrix(), shadowRenderer.getShadowCascades(),
+                scene.getSceneLight(), gBuffer.getWidth(), gBuffer.getHeight());
+
         renderGBuffer(window, camera, scene, mouseInput);
 
         initLightRendering();
         renderPointLights(window, camera, scene);
-        renderDirectionalLight(window, camera, scene);
+        renderDirectionalLight();
         endLightRendering();
 
-        renderFog(window, camera, scene);
+        renderFog(scene);
         renderSkyBox(window, camera, scene);
         renderParticles(window, camera, scene);
     }
 
     private void setupParticlesShader() throws Exception {
         particlesShaderProgram = new ShaderProgram();
-        particlesShaderProgram.createVertexShader(Utils.loadResource("/shaders/particles_vertex.vs"));
+        particlesShaderProgram.createVertexShader(loadFrameShader("/shaders/particles_vertex.vs"));
         particlesShaderProgram.createFragmentShader(Utils.loadResource("/shaders/particles_fragment.fs"));
         particlesShaderProgram.link();
 
-        particlesShaderProgram.createUniform("viewMatrix");
-        particlesShaderProgram.createUniform("projectionMatrix");
+        particlesShaderProgram.createUniformBlock(FrameUniforms.BLOCK_NAME, FrameUniforms.BINDING, FrameUniforms.SIZE);
         particlesShaderProgram.createUniform("texture_sampler");
 
         particlesShaderProgram.createUniform("numCols");
@@ -143,35 +226,39 @@ public class Renderer {
 
     private void setupSkyBoxShader() throws Exception {
         skyBoxShaderProgram = new ShaderProgram();
-        skyBoxShaderProgram.createVertexShader(Utils.loadResource("/shaders/sb_vertex.vs"));
-        skyBoxShaderProgram.createFragmentShader(Utils.loadResource("/shaders/sb_fragment.fs"));
+        skyBoxShaderProgram.createVertexShader(loadFrameShader("/shaders/sb_vertex.vs"));
+        skyBoxShaderProgram.createFragmentShader(loadFrameShader("/shaders/sb_fragment.fs"));
         skyBoxShaderProgram.link();
 
-        // Create uniforms for projection matrix
-        skyBoxShaderProgram.createUniform("projectionMatrix");
+        // The projection matrix and the screen size are in the frame uniforms
+        skyBoxShaderProgram.createUniformBlock(FrameUniforms.BLOCK_NAME, FrameUniforms.BINDING, FrameUniforms.SIZE);
         skyBoxShaderProgram.createUniform("modelViewMatrix");
         skyBoxShaderProgram.createUniform("texture_sampler");
-        skyBoxShaderProgram.createUniform("ambientLight");
+        skyBoxShaderProgram.createUniform("skyBoxLight");
         skyBoxShaderProgram.createUniform("colour");
         skyBoxShaderProgram.createUniform("hasTexture");
 
         skyBoxShaderProgram.createUniform("depthsText");
-        skyBoxShaderProgram.createUniform("screenSize");
     }
 
     private void setupGBufferShader() throws Exception {
         gBufferShaderProgram = new ShaderProgram();
-        gBufferShaderProgram.createVertexShader(Utils.loadResource("/shaders/gbuffer_vertex.vs"));
-        gBufferShaderProgram.createFragmentShader(Utils.loadResource("/shaders/gbuffer_fragment.fs"));
+        gBufferShaderProgram.createVertexShader(loadFrameShader("/shaders/gbuffer_vertex.vs"));
+        String fragmentShader = loadGBufferShader("/shaders/gbuffer_fragment.fs");
+        if (shadowRenderer.isLayered()) {
+            fragmentShader = ShaderProgram.withDefines(fragmentShader, "LAYERED_SHADOWS");
+        }
+        gBufferShaderProgram.createFragmentShader(fragmentShader);
         gBufferShaderProgram.link();
 
-        gBufferShaderProgram.createUniform("viewMatrix");
-        gBufferShaderProgram.createUniform("projectionMatrix");
+        gBufferShaderProgram.createUniformBlock(FrameUniforms.BLOCK_NAME, FrameUniforms.BINDING, FrameUniforms.SIZE);
         gBufferShaderProgram.createUniform("texture_sampler");
         gBufferShaderProgram.createUniform("texture_border");
         gBufferShaderProgram.createUniform("normalMap");
         gBufferShaderProgram.createMaterialUniform("material");
         gBufferShaderProgram.createUniform("isInstanced");
+        gBufferShaderProgram.createUniform("isPacked");
+        gBufferShaderProgram.createUniform("isVoxel");
         gBufferShaderProgram.createUniform("modelNonInstancedMatrix");
         gBufferShaderProgram.createUniform("hoveredNonInstanced");
         gBufferShaderProgram.createUniform("selectedNonInstanced");
@@ -181,12 +268,13 @@ public class Renderer {
         gBufferShaderProgram.createUniform("numRows");
 
         // Create uniforms for shadow mapping
-        for (int i = 0; i < ShadowRenderer.NUM_CASCADES; i++) {
-            gBufferShaderProgram.createUniform("shadowMap_" + i);
+        if (shadowRenderer.isLayered()) {
+            gBufferShaderProgram.createUniform("shadowMaps");
+        } else {
+            for (int i = 0; i < ShadowRenderer.NUM_CASCADES; i++) {
+                gBufferShaderProgram.createUniform(SHADOW_MAP_UNIFORMS[i]);
+            }
         }
-        gBufferShaderProgram.createUniform("orthoProjectionMatrix", ShadowRenderer.NUM_CASCADES);
-        gBufferShaderProgram.createUniform("lightViewMatrix", ShadowRenderer.NUM_CASCADES);
-        gBufferShaderProgram.createUniform("cascadeFarPlanes", ShadowRenderer.NUM_CASCADES);
         
         gBufferShaderProgram.createUniform("tileSize");
         
@@ -194,71 +282,148 @@ public class Renderer {
         gBufferShaderProgram.createUniform("renderBorder");
         gBufferShaderProgram.createUniform("renderTile");
         gBufferShaderProgram.createUniform("renderAmbiantOcclusion");
-        
+
+        isInstancedUniform = gBufferShaderProgram.getUniform("isInstanced");
+        isPackedUniform = gBufferShaderProgram.getUniform("isPacked");
+        isVoxelUniform = gBufferShaderProgram.getUniform("isVoxel");
+        numColsUniform = gBufferShaderProgram.getUniform("numCols");
+        numRowsUniform = gBufferShaderProgram.getUniform("numRows");
+        hoveredUniform = gBufferShaderProgram.getUniform("hoveredNonInstanced");
+        selectedUniform = gBufferShaderProgram.getUniform("selectedNonInstanced");
+        highlightedUniform = gBufferShaderProgram.getUniform("highlightedNonInstanced");
+        modelMatrixUniform = gBufferShaderProgram.getUniform("modelNonInstancedMatrix");
+        jointsMatrixUniform = gBufferShaderProgram.getUniform("jointsMatrix");
+        materialUniform = gBufferShaderProgram.getMaterialUniform("material");
     }
 
     private void setupDirLightShader() throws Exception {
         dirLightShaderProgram = new ShaderProgram();
-        dirLightShaderProgram.createVertexShader(Utils.loadResource("/shaders/light_vertex.vs"));
-        dirLightShaderProgram.createFragmentShader(Utils.loadResource("/shaders/dir_light_fragment.fs"));
+        dirLightShaderProgram.createVertexShader(loadFrameShader("/shaders/light_vertex.vs"));
+        dirLightShaderProgram.createFragmentShader(loadGBufferShader("/shaders/dir_light_fragment.fs"));
         dirLightShaderProgram.link();
 
+        dirLightShaderProgram.createUniformBlock(FrameUniforms.BLOCK_NAME, FrameUniforms.BINDING, FrameUniforms.SIZE);
         dirLightShaderProgram.createUniform("modelMatrix");
-        dirLightShaderProgram.createUniform("viewMatrix");
-        dirLightShaderProgram.createUniform("projectionMatrix");
 
-        dirLightShaderProgram.createUniform("screenSize");
-        dirLightShaderProgram.createUniform("positionsText");
         dirLightShaderProgram.createUniform("diffuseText");
         dirLightShaderProgram.createUniform("specularText");
         dirLightShaderProgram.createUniform("normalsText");
-        dirLightShaderProgram.createUniform("shadowText");
+        dirLightShaderProgram.createUniform("depthText");
+        if (!gBuffer.isCompact()) {
+            dirLightShaderProgram.createUniform("positionsText");
+            dirLightShaderProgram.createUniform("shadowText");
+        }
 
         dirLightShaderProgram.createUniform("specularPower");
-        dirLightShaderProgram.createUniform("ambientLight");
-        dirLightShaderProgram.createDirectionalLightUniform("directionalLight");
     }
 
     private void setupPointLightShader() throws Exception {
         pointLightShaderProgram = new ShaderProgram();
-        pointLightShaderProgram.createVertexShader(Utils.loadResource("/shaders/light_vertex.vs"));
-        pointLightShaderProgram.createFragmentShader(Utils.loadResource("/shaders/point_light_fragment.fs"));
+        pointLightShaderProgram.createVertexShader(loadFrameShader("/shaders/light_vertex.vs"));
+        String fragmentShader = loadGBufferShader("/shaders/point_light_fragment.fs");
+        if (lightClusters != null) {
+            fragmentShader = ShaderProgram.withDefines(fragmentShader, "CLUSTERED_LIGHTS");
+        }
+        pointLightShaderProgram.createFragmentShader(fragmentShader);
         pointLightShaderProgram.link();
 
+        pointLightShaderProgram.createUniformBlock(FrameUniforms.BLOCK_NAME, FrameUniforms.BINDING, FrameUniforms.SIZE);
         pointLightShaderProgram.createUniform("modelMatrix");
-        pointLightShaderProgram.createUniform("viewMatrix");
-        pointLightShaderProgram.createUniform("projectionMatrix");
 
-        pointLightShaderProgram.createUniform("screenSize");
-        pointLightShaderProgram.createUniform("positionsText");
         pointLightShaderProgram.createUniform("diffuseText");
         pointLightShaderProgram.createUniform("specularText");
         pointLightShaderProgram.createUniform("normalsText");
-        pointLightShaderProgram.createUniform("shadowText");
+        pointLightShaderProgram.createUniform("depthText");
+        if (!gBuffer.isCompact()) {
+            pointLightShaderProgram.createUniform("positionsText");
+            pointLightShaderProgram.createUniform("shadowText");
+        }
 
         pointLightShaderProgram.createUniform("specularPower");
-        pointLightShaderProgram.createPointLightUniform("pointLight");
+        if (lightClusters != null) {
+            pointLightShaderProgram.createUniform("lightsData");
+            pointLightShaderProgram.createUniform("clustersData");
+            pointLightShaderProgram.createUniform("lightIndices");
+            pointLightShaderProgram.createUniform("sliceScale");
+        } else {
+            pointLightShaderProgram.createPointLightUniform("pointLight");
+        }
+    }
+
+    private void setupLightVolumeShader() throws Exception {
+        lightVolumeShaderProgram = new ShaderProgram();
+        lightVolumeShaderProgram.createVertexShader(loadFrameShader("/shaders/light_vertex.vs"));
+        lightVolumeShaderProgram.createFragmentShader(Utils.loadResource("/shaders/light_volume_fragment.fs"));
+        lightVolumeShaderProgram.link();
+
+        lightVolumeShaderProgram.createUniformBlock(FrameUniforms.BLOCK_NAME, FrameUniforms.BINDING, FrameUniforms.SIZE);
+        lightVolumeShaderProgram.createUniform("modelMatrix");
+    }
+
+    /**
+     * Unit cube around the origin, its faces wound counter clockwise seen from outside
+     */
+    private static Mesh createLightVolumeMesh() {
+        float[] positions = {
+                -1, -1, -1, 1, -1, -1, 1, 1, -1, -1, 1, -1,
+                -1, -1, 1, 1, -1, 1, 1, 1, 1, -1, 1, 1};
+        int[] indices = {
+                4, 5, 6, 6, 7, 4, 1, 0, 3, 3, 2, 1,
+                5, 1, 2, 2, 6, 5, 0, 4, 7, 7, 3, 0,
+                7, 6, 2, 2, 3, 7, 0, 1, 5, 5, 4, 0};
+        return new Mesh(positions, new float[8 * 2], new float[8 * 3], indices);
     }
 
     private void setupFogShader() throws Exception {
         fogShaderProgram = new ShaderProgram();
-        fogShaderProgram.createVertexShader(Utils.loadResource("/shaders/light_vertex.vs"));
-        fogShaderProgram.createFragmentShader(Utils.loadResource("/shaders/fog_fragment.fs"));
+        fogShaderProgram.createVertexShader(loadFrameShader("/shaders/light_vertex.vs"));
+        fogShaderProgram.createFragmentShader(loadGBufferShader("/shaders/fog_fragment.fs"));
         fogShaderProgram.link();
 
+        fogShaderProgram.createUniformBlock(FrameUniforms.BLOCK_NAME, FrameUniforms.BINDING, FrameUniforms.SIZE);
         fogShaderProgram.createUniform("modelMatrix");
-        fogShaderProgram.createUniform("viewMatrix");
-        fogShaderProgram.createUniform("projectionMatrix");
 
-        fogShaderProgram.createUniform("screenSize");
-        fogShaderProgram.createUniform("positionsText");
+        if (!gBuffer.isCompact()) {
+            fogShaderProgram.createUniform("positionsText");
+        }
         fogShaderProgram.createUniform("depthText");
         fogShaderProgram.createUniform("sceneText");
 
         fogShaderProgram.createFogUniform("fog");
-        fogShaderProgram.createUniform("ambientLight");
-        fogShaderProgram.createUniform("lightColour");
-        fogShaderProgram.createUniform("lightIntensity");
+    }
+
+    /**
+     * Loads a shader reading the uniforms of the frame
+     */
+    private String loadFrameShader(String fileName) throws Exception {
+        return ShaderProgram.withHeader(Utils.loadResource(fileName), frameUniformsCode);
+    }
+
+    /**
+     * Loads a shader reading or writing the G-Buffer, for the layout in use
+     */
+    private String loadGBufferShader(String fileName) throws Exception {
+        String shaderCode = loadFrameShader(fileName);
+        return gBuffer.isCompact() ? ShaderProgram.withDefines(shaderCode, "COMPACT_GBUFFER") : shaderCode;
+    }
+
+    /**
+     * Sets the samplers of the G-Buffer textures bound to the first units, in the order of the layout
+     */
+    private void setupGBufferTextures(ShaderProgram shaderProgram) {
+        if (gBuffer.isCompact()) {
+            shaderProgram.setUniform("diffuseText", 0);
+            shaderProgram.setUniform("specularText", 1);
+            shaderProgram.setUniform("normalsText", 2);
+            shaderProgram.setUniform("depthText", 3);
+        } else {
+            shaderProgram.setUniform("positionsText", 0);
+            shaderProgram.setUniform("diffuseText", 1);
+            shaderProgram.setUniform("specularText", 2);
+            shaderProgram.setUniform("normalsText", 3);
+            shaderProgram.setUniform("shadowText", 4);
+            shaderProgram.setUniform("depthText", 5);
+        }
     }
 
     public void clear() {
@@ -275,26 +440,18 @@ public class Renderer {
 
         gBufferShaderProgram.bind();
 
-        Matrix4f viewMatrix = camera.getViewMatrix();
-        Matrix4f projectionMatrix = window.getProjectionMatrix();
-        gBufferShaderProgram.setUniform("viewMatrix", viewMatrix);
-        gBufferShaderProgram.setUniform("projectionMatrix", projectionMatrix);
-
         gBufferShaderProgram.setUniform("texture_sampler", 0);
         gBufferShaderProgram.setUniform("normalMap", 1);
         gBufferShaderProgram.setUniform("texture_border", 10);
 
-        List<ShadowCascade> shadowCascades = shadowRenderer.getShadowCascades();
-        for (int i = 0; i < ShadowRenderer.NUM_CASCADES; i++) {
-            ShadowCascade shadowCascade = shadowCascades.get(i);
-            gBufferShaderProgram.setUniform("orthoProjectionMatrix", shadowCascade.getOrthoProjMatrix(), i);
-            gBufferShaderProgram.setUniform("cascadeFarPlanes", ShadowRenderer.CASCADE_SPLITS[i], i);
-            gBufferShaderProgram.setUniform("lightViewMatrix", shadowCascade.getLightViewMatrix(), i);
-        }
         shadowRenderer.bindTextures(GL_TEXTURE2);
         int start = 2;
-        for (int i = 0; i < ShadowRenderer.NUM_CASCADES; i++) {
-            gBufferShaderProgram.setUniform("shadowMap_" + i, start + i);
+        if (shadowRenderer.isLayered()) {
+            gBufferShaderProgram.setUniform("shadowMaps", start);
+        } else {
+            for (int i = 0; i < ShadowRenderer.NUM_CASCADES; i++) {
+                gBufferShaderProgram.setUniform(SHADOW_MAP_UNIFORMS[i], start + i);
+            }
         }
         
         gBufferShaderProgram.setUniform("tileSize", scene.getBoard() != null ? scene.getBoard().getTileSize() : 0);
@@ -307,7 +464,7 @@ public class Renderer {
 
         renderNonInstancedMeshes(scene);
 
-        renderInstancedMeshes(scene, viewMatrix);
+        renderInstancedMeshes(scene, camera.getViewMatrix());
 
         gBufferShaderProgram.unbind();
 
@@ -330,6 +487,12 @@ public class Renderer {
 
         // Bind GBuffer for reading
         glBindFramebuffer(GL_READ_FRAMEBUFFER, gBuffer.getGBufferId());
+
+        if (lightVolumeMesh != null) {
+            // The light volumes are depth tested against the scene
+            glBlitFramebuffer(0, 0, gBuffer.getWidth(), gBuffer.getHeight(), 0, 0, gBuffer.getWidth(), gBuffer.getHeight(),
+                    GL_DEPTH_BUFFER_BIT, GL_NEAREST);
+        }
     }
 
     private void endLightRendering() {
@@ -345,8 +508,6 @@ public class Renderer {
         Matrix4f viewMatrix = camera.getViewMatrix();
         Matrix4f projectionMatrix = window.getProjectionMatrix();
         pointLightShaderProgram.setUniform("modelMatrix", bufferPassModelMatrix);
-        pointLightShaderProgram.setUniform("viewMatrix", viewMatrix);
-        pointLightShaderProgram.setUniform("projectionMatrix", projectionMatrix);
 
         // Specular factor
         pointLightShaderProgram.setUniform("specularPower", specularPower);
@@ -355,46 +516,108 @@ public class Renderer {
         int[] textureIds = this.gBuffer.getTextureIds();
         int numTextures = textureIds != null ? textureIds.length : 0;
         for (int i=0; i<numTextures; i++) {
-            glActiveTexture(GL_TEXTURE0 + i);
-            glBindTexture(GL_TEXTURE_2D, textureIds[i]);
+            GLState.bindTexture(GL_TEXTURE0 + i, GL_TEXTURE_2D, textureIds[i]);
         }
-
-        pointLightShaderProgram.setUniform("positionsText", 0);
-        pointLightShaderProgram.setUniform("diffuseText", 1);
-        pointLightShaderProgram.setUniform("specularText", 2);
-        pointLightShaderProgram.setUniform("normalsText", 3);
-        pointLightShaderProgram.setUniform("shadowText", 4);
-
-        pointLightShaderProgram.setUniform("screenSize", (float) gBuffer.getWidth(), (float)gBuffer.getHeight());
+        setupGBufferTextures(pointLightShaderProgram);
 
         SceneLight sceneLight = scene.getSceneLight();
         PointLight[] pointLights = sceneLight.getPointLightList();
+        if (lightClusters != null) {
+            // All the lights in one pass, each pixel shaded by the ones of its cluster
+            lightClusters.update(pointLights, projectionMatrix, viewMatrix);
+            if (lightClusters.getLightCount() > 0) {
+                lightClusters.bindTextures(numTextures);
+                pointLightShaderProgram.setUniform("lightsData", numTextures);
+                pointLightShaderProgram.setUniform("clustersData", numTextures + 1);
+                pointLightShaderProgram.setUniform("lightIndices", numTextures + 2);
+                pointLightShaderProgram.setUniform("sliceScale", lightClusters.getSliceScale());
+
+                bufferPassMesh.render();
+            }
+            pointLightShaderProgram.unbind();
+            return;
+        }
+        if (lightVolumeMesh != null) {
+            // Only the pixels marked in the stencil by the volume of the light are shaded, from the back faces of the
+            // volume so that they are still drawn with the camera inside it. Shading a pixel resets its mark, the
+            // stencil cleared with the scene buffer is left clear for the next light without clearing the screen again
+            glEnable(GL_DEPTH_CLAMP);
+            glEnable(GL_CULL_FACE);
+            glCullFace(GL_FRONT);
+            glStencilOp(GL_KEEP, GL_KEEP, GL_ZERO);
+            glStencilFunc(GL_NOTEQUAL, 0, 0xFF);
+        }
         int numPointLights = pointLights != null ? pointLights.length : 0;
         for(int i=0; i<numPointLights; i++) {
-            // Get a copy of the point light object and transform its position to view coordinates
-            PointLight currPointLight = new PointLight(pointLights[i]);
-            Vector3f lightPos = currPointLight.getPosition();
-            Vector4f aux = new Vector4f(lightPos, 1);
-            aux.mul(viewMatrix);
-            lightPos.x = aux.x;
-            lightPos.y = aux.y;
-            lightPos.z = aux.z;
-            pointLightShaderProgram.setUniform("pointLight", currPointLight);
-
-            bufferPassMesh.render();
+            if (lightVolumeMesh != null) {
+                float radius = Math.min(pointLights[i].getRadius(), Window.Z_FAR);
+                if (radius <= 0 || !frustumFilter.insideFrustum(pointLights[i].getPosition(), radius)) {
+                    continue;
+                }
+                lightVolumeMatrix.set(viewMatrix).translate(pointLights[i].getPosition()).scale(radius);
+                markLightVolume();
+                pointLightShaderProgram.setUniform("modelMatrix", lightVolumeMatrix);
+            }
+            // Copy the point light and transform its position to view coordinates
+            PointLight pointLight = pointLights[i];
+            viewPointLight.getColor().set(pointLight.getColor());
+            viewPointLight.getPosition().set(pointLight.getPosition()).mulPosition(viewMatrix);
+            viewPointLight.setIntensity(pointLight.getIntensity());
+            viewPointLight.setAttenuation(pointLight.getAttenuation());
+            pointLightShaderProgram.setUniform("pointLight", viewPointLight);
+
+            if (lightVolumeMesh != null) {
+                lightVolumeMesh.render();
+            } else {
+                bufferPassMesh.render();
+            }
+        }
+        if (lightVolumeMesh != null) {
+            glStencilOp(GL_KEEP, GL_KEEP, GL_KEEP);
+            glStencilFunc(GL_ALWAYS, 0, 0xFF);
+            glCullFace(GL_BACK);
+            if (!window.getOptions().cullFace) {
+                glDisable(GL_CULL_FACE);
+            }
+            glDisable(GL_DEPTH_CLAMP);
         }
 
         pointLightShaderProgram.unbind();
     }
 
-    private void renderDirectionalLight(Window window, Camera camera, Scene scene) {
+    /**
+     * Counts in the stencil the faces of the light volume behind the scene, back faces up and front faces down, so that
+     * only the pixels whose depth is inside the volume are left marked. The stencil must be clear, the shading of the
+     * previous light reset the pixels it marked. Leaves the point light shader bound.
+     */
+    private void markLightVolume() {
+        lightVolumeShaderProgram.bind();
+        lightVolumeShaderProgram.setUniform("modelMatrix", lightVolumeMatrix);
+
+        glEnable(GL_DEPTH_TEST);
+        glDepthMask(false);
+        glDisable(GL_CULL_FACE);
+        glColorMask(false, false, false, false);
+        glStencilFunc(GL_ALWAYS, 0, 0);
+        glStencilOpSeparate(GL_BACK, GL_KEEP, GL_INCR_WRAP, GL_KEEP);
+        glStencilOpSeparate(GL_FRONT, GL_KEEP, GL_DECR_WRAP, GL_KEEP);
+
+        lightVolumeMesh.render();
+
+        glStencilOp(GL_KEEP, GL_KEEP, GL_ZERO);
+        glStencilFunc(GL_NOTEQUAL, 0, 0xFF);
+        glColorMask(true, true, true, true);
+        glEnable(GL_CULL_FACE);
+        glDepthMask(true);
+        glDisable(GL_DEPTH_TEST);
+
+        pointLightShaderProgram.bind();
+    }
+
+    private void renderDirectionalLight() {
         dirLightShaderProgram.bind();
 
-        Matrix4f viewMatrix = camera.getViewMatrix();
-        Matrix4f projectionMatrix = window.getProjectionMatrix();
         dirLightShaderProgram.setUniform("modelMatrix", bufferPassModelMatrix);
-        dirLightShaderProgram.setUniform("viewMatrix", viewMatrix);
-        dirLightShaderProgram.setUniform("projectionMatrix", projectionMatrix);
 
         // Specular factor
         dirLightShaderProgram.setUniform("specularPower", specularPower);
@@ -403,64 +626,34 @@ public class Renderer {
         int[] textureIds = this.gBuffer.getTextureIds();
         int numTextures = textureIds != null ? textureIds.length : 0;
         for (int i=0; i<numTextures; i++) {
-            glActiveTexture(GL_TEXTURE0 + i);
-            glBindTexture(GL_TEXTURE_2D, textureIds[i]);
+            GLState.bindTexture(GL_TEXTURE0 + i, GL_TEXTURE_2D, textureIds[i]);
         }
 
-        dirLightShaderProgram.setUniform("positionsText", 0);
-        dirLightShaderProgram.setUniform("diffuseText", 1);
-        dirLightShaderProgram.setUniform("specularText", 2);
-        dirLightShaderProgram.setUniform("normalsText", 3);
-        dirLightShaderProgram.setUniform("shadowText", 4);
-
-        dirLightShaderProgram.setUniform("screenSize", (float) gBuffer.getWidth(), (float)gBuffer.getHeight());
-
-        // Ambient light
-        SceneLight sceneLight = scene.getSceneLight();
-        dirLightShaderProgram.setUniform("ambientLight", sceneLight.getAmbientLight());
-
-        // Directional light
-        // Get a copy of the directional light object and transform its position to view coordinates
-        DirectionalLight currDirLight = new DirectionalLight(sceneLight.getDirectionalLight());
-        Vector4f dir = new Vector4f(currDirLight.getDirection(), 0);
-        dir.mul(viewMatrix);
-        currDirLight.setDirection(new Vector3f(dir.x, dir.y, dir.z));
-        dirLightShaderProgram.setUniform("directionalLight", currDirLight);
+        // The ambient and directional lights are in the frame uniforms
+        setupGBufferTextures(dirLightShaderProgram);
 
         bufferPassMesh.render();
 
         dirLightShaderProgram.unbind();
     }
 
-    private void renderFog(Window window, Camera camera, Scene scene) {
+    private void renderFog(Scene scene) {
         fogShaderProgram.bind();
 
-        Matrix4f viewMatrix = camera.getViewMatrix();
-        Matrix4f projectionMatrix = window.getProjectionMatrix();
         fogShaderProgram.setUniform("modelMatrix", bufferPassModelMatrix);
-        fogShaderProgram.setUniform("viewMatrix", viewMatrix);
-        fogShaderProgram.setUniform("projectionMatrix", projectionMatrix);
 
         // Bind the scene buffer texture and the the depth texture of the G-Buffer
-        glActiveTexture(GL_TEXTURE0);
-        glBindTexture(GL_TEXTURE_2D, gBuffer.getPositionTexture());
-        glActiveTexture(GL_TEXTURE1);
-        glBindTexture(GL_TEXTURE_2D, gBuffer.getDepthTexture());
-        glActiveTexture(GL_TEXTURE2);
-        glBindTexture(GL_TEXTURE_2D, sceneBuffer.getTextureId());
-
-        fogShaderProgram.setUniform("positionsText", 0);
+        if (!gBuffer.isCompact()) {
+            GLState.bindTexture(GL_TEXTURE0, GL_TEXTURE_2D, gBuffer.getPositionTexture());
+            fogShaderProgram.setUniform("positionsText", 0);
+        }
+        GLState.bindTexture(GL_TEXTURE1, GL_TEXTURE_2D, gBuffer.getDepthTexture());
+        GLState.bindTexture(GL_TEXTURE2, GL_TEXTURE_2D, sceneBuffer.getTextureId());
+
         fogShaderProgram.setUniform("depthText", 1);
         fogShaderProgram.setUniform("sceneText", 2);
 
-        fogShaderProgram.setUniform("screenSize", (float) gBuffer.getWidth(), (float)gBuffer.getHeight());
-
         fogShaderProgram.setUniform("fog", scene.getFog());
-        SceneLight sceneLight = scene.getSceneLight();
-        fogShaderProgram.setUniform("ambientLight", sceneLight.getAmbientLight());
-        DirectionalLight dirLight = sceneLight.getDirectionalLight();
-        fogShaderProgram.setUniform("lightColour", dirLight.getColor());
-        fogShaderProgram.setUniform("lightIntensity", dirLight.getIntensity());
 
         bufferPassMesh.render();
 
@@ -475,10 +668,7 @@ public class Renderer {
         particlesShaderProgram.bind();
 
         Matrix4f viewMatrix = camera.getViewMatrix();
-        particlesShaderProgram.setUniform("viewMatrix", viewMatrix);
         particlesShaderProgram.setUniform("texture_sampler", 0);
-        Matrix4f projectionMatrix = window.getProjectionMatrix();
-        particlesShaderProgram.setUniform("projectionMatrix", projectionMatrix);
 
         IParticleEmitter[] emitters = scene.getParticleEmitters();
         int numEmitters = emitters != null ? emitters.length : 0;
@@ -510,8 +700,6 @@ public class Renderer {
 
             skyBoxShaderProgram.setUniform("texture_sampler", 0);
 
-            Matrix4f projectionMatrix = window.getProjectionMatrix();
-            skyBoxShaderProgram.setUniform("projectionMatrix", projectionMatrix);
             Matrix4f viewMatrix = camera.getViewMatrix();
             float m30 = viewMatrix.m30();
             viewMatrix.m30(0);
@@ -523,13 +711,11 @@ public class Renderer {
             Mesh mesh = skyBox.getMesh();
             Matrix4f modelViewMatrix = transformation.buildModelViewMatrix(skyBox, viewMatrix);
             skyBoxShaderProgram.setUniform("modelViewMatrix", modelViewMatrix);
-            skyBoxShaderProgram.setUniform("ambientLight", scene.getSceneLight().getSkyBoxLight());
+            skyBoxShaderProgram.setUniform("skyBoxLight", scene.getSceneLight().getSkyBoxLight());
             skyBoxShaderProgram.setUniform("colour", mesh.getMaterial().getDiffuseColour());
             skyBoxShaderProgram.setUniform("hasTexture", mesh.getMaterial().isTextured() ? 1 : 0);
 
-            glActiveTexture(GL_TEXTURE1);
-            glBindTexture(GL_TEXTURE_2D, gBuffer.getDepthTexture());
-            skyBoxShaderProgram.setUniform("screenSize", (float)window.getWidth(), (float)window.getHeight());
+            GLState.bindTexture(GL_TEXTURE1, GL_TEXTURE_2D, gBuffer.getDepthTexture());
             skyBoxShaderProgram.setUniform("depthsText", 1);
 
             mesh.render();
@@ -542,64 +728,67 @@ public class Renderer {
     }
 
     private void renderNonInstancedMeshes(Scene scene) {
-        gBufferShaderProgram.setUniform("isInstanced", 0);
+        gBufferShaderProgram.setUniform(isInstancedUniform, 0);
 
-        // Render each mesh with the associated game Items
-        Map<Mesh, List<GameItem>> mapMeshes = new HashMap<>(scene.getGameMeshes());
-        if(scene.getBoard() != null) {
-	        for(GameItem tile : scene.getBoard().getTiles()) {
-	        	mapMeshes.put(tile.getMesh(), Arrays.asList(tile));
-	        }
-	        mapMeshes.put(scene.getPlayer().getMesh(), Arrays.asList(scene.getPlayer()));
-        }
-        for (Mesh mesh : mapMeshes.keySet()) {
-            gBufferShaderProgram.setUniform("material", mesh.getMaterial());
+        // Render each batch of draws sharing a mesh
+        RenderQueue renderQueue = scene.getRenderQueue();
+        for (int batch = 0; batch < renderQueue.getBatchCount(); batch++) {
+            Mesh mesh = renderQueue.getBatchMesh(batch);
+            gBufferShaderProgram.setUniform(isPackedUniform, mesh.isPacked() ? 1 : 0);
+            gBufferShaderProgram.setUniform(isVoxelUniform, mesh.isVoxel() ? 1 : 0);
+            gBufferShaderProgram.setUniform(materialUniform, mesh.getMaterial());
 
             Texture text = mesh.getMaterial().getTexture();
             if (text != null) {
-                gBufferShaderProgram.setUniform("numCols", text.getNumCols());
-                gBufferShaderProgram.setUniform("numRows", text.getNumRows());
+                gBufferShaderProgram.setUniform(numColsUniform, text.getNumCols());
+                gBufferShaderProgram.setUniform(numRowsUniform, text.getNumRows());
             }
 
-            mesh.renderList(mapMeshes.get(mesh), (GameItem gameItem) -> {
-                gBufferShaderProgram.setUniform("hoveredNonInstanced", gameItem.isHovered() ? 1.0f : 0.0f);
-                gBufferShaderProgram.setUniform("selectedNonInstanced", gameItem.isSelected() ? 1.0f : 0.0f);
-                gBufferShaderProgram.setUniform("highlightedNonInstanced", gameItem.isHighlighted() ? 1.0f : 0.0f);
-                Matrix4f modelMatrix = transformation.buildModelMatrix(gameItem);
-                gBufferShaderProgram.setUniform("modelNonInstancedMatrix", modelMatrix);
-                if (gameItem instanceof AnimGameItem) {
-                    AnimGameItem animGameItem = (AnimGameItem) gameItem;
-                    AnimatedFrame frame = animGameItem.getCurrentAnimation().getCurrentFrame();
-                    gBufferShaderProgram.setUniform("jointsMatrix", frame.getJointMatrices());
-                }
-            }
-            );
+            mesh.renderBatch(renderQueue, renderQueue.getBatchStart(batch), renderQueue.getBatchEnd(batch), gBufferItemSetup);
+        }
+    }
+
+    private void setupGBufferItem(GameItem gameItem) {
+        gBufferShaderProgram.setUniform(hoveredUniform, gameItem.isHovered() ? 1.0f : 0.0f);
+        gBufferShaderProgram.setUniform(selectedUniform, gameItem.isSelected() ? 1.0f : 0.0f);
+        gBufferShaderProgram.setUniform(highlightedUniform, gameItem.isHighlighted() ? 1.0f : 0.0f);
+        Matrix4f modelMatrix = transformation.buildModelMatrix(gameItem);
+        gBufferShaderProgram.setUniform(modelMatrixUniform, modelMatrix);
+        if (gameItem instanceof AnimGameItem) {
+            AnimGameItem animGameItem = (AnimGameItem) gameItem;
+            AnimatedFrame frame = animGameItem.getCurrentAnimation().getCurrentFrame();
+            gBufferShaderProgram.setUniform(jointsMatrixUniform, frame.getJointMatrices());
         }
     }
 
     private void renderInstancedMeshes(Scene scene, Matrix4f viewMatrix) {
-        gBufferShaderProgram.setUniform("isInstanced", 1);
+        gBufferShaderProgram.setUniform(isInstancedUniform, 1);
+        gBufferShaderProgram.setUniform(isPackedUniform, 0);
+        gBufferShaderProgram.setUniform(isVoxelUniform, 0);
 
         // Render each mesh with the associated game Items
-        Map<InstancedMesh, List<GameItem>> mapMeshes = scene.getGameInstancedMeshes();
-        for (InstancedMesh mesh : mapMeshes.keySet()) {
-            Texture text = mesh.getMaterial().getTexture();
-            if (text != null) {
-                gBufferShaderProgram.setUniform("numCols", text.getNumCols());
-                gBufferShaderProgram.setUniform("numRows", text.getNumRows());
-            }
+        instancedViewMatrix = viewMatrix;
+        scene.getGameInstancedMeshes().forEach(gBufferInstancedRender);
+    }
 
-            gBufferShaderProgram.setUniform("material", mesh.getMaterial());
+    private void renderInstancedMesh(InstancedMesh mesh, List<GameItem> gameItems) {
+        Texture text = mesh.getMaterial().getTexture();
+        if (text != null) {
+            gBufferShaderProgram.setUniform(numColsUniform, text.getNumCols());
+            gBufferShaderProgram.setUniform(numRowsUniform, text.getNumRows());
+        }
 
-            filteredItems.clear();
-            for (GameItem gameItem : mapMeshes.get(mesh)) {
-                if (gameItem.isInsideFrustum()) {
-                    filteredItems.add(gameItem);
-                }
-            }
+        gBufferShaderProgram.setUniform(materialUniform, mesh.getMaterial());
 
-            mesh.renderListInstanced(filteredItems, transformation, viewMatrix);
+        filteredItems.clear();
+        for (int i = 0; i < gameItems.size(); i++) {
+            GameItem gameItem = gameItems.get(i);
+            if (gameItem.isInsideFrustum()) {
+                filteredItems.add(gameItem);
+            }
         }
+
+        mesh.renderListInstanced(filteredItems, transformation, instancedViewMatrix);
     }
 
     public void cleanup() {
@@ -621,9 +810,21 @@ public class Renderer {
         if (pointLightShaderProgram != null) {
             pointLightShaderProgram.cleanup();
         }
+        if (lightVolumeShaderProgram != null) {
+            lightVolumeShaderProgram.cleanup();
+        }
+        if (lightVolumeMesh != null) {
+            lightVolumeMesh.cleanUp();
+        }
         if (gBuffer != null) {
             gBuffer.cleanUp();
         }
+        if (lightClusters != null) {
+            lightClusters.cleanUp();
+        }
+        if (frameUniforms != null) {
+            frameUniforms.cleanUp();
+        }
         if (bufferPassMesh != null) {
             bufferPassMesh.cleanUp();
         }
@@ -13,6 +13,8 @@ public class SceneBuffer {
 
     private int textureId;
 
+    private int depthStencilId;
+
     public SceneBuffer(Window window) throws Exception {
         // Create the buffer
         bufferId = glGenFramebuffers();
@@ -22,7 +24,7 @@ public class SceneBuffer {
         int[] textureIds = new int[1];
         glGenTextures(textureIds);
         textureId = textureIds[0];
-        glBindTexture(GL_TEXTURE_2D, textureId);
+        GLState.bindTexture(GL_TEXTURE_2D, textureId);
         glTexImage2D(GL_TEXTURE_2D, 0, GL_RGB32F, window.getWidth(), window.getHeight(), 0, GL_RGB, GL_FLOAT, (ByteBuffer) null);
 
         // For sampling
@@ -32,6 +34,15 @@ public class SceneBuffer {
         // Attach the the texture to the G-Buffer
         glFramebufferTexture2D(GL_FRAMEBUFFER, GL_COLOR_ATTACHMENT0, GL_TEXTURE_2D, textureId, 0);
 
+        if (window.getOptions().lightVolumes) {
+            // Receives the depth of the G-Buffer, the stencil marks the pixels inside a light volume
+            depthStencilId = glGenRenderbuffers();
+            glBindRenderbuffer(GL_RENDERBUFFER, depthStencilId);
+            glRenderbufferStorage(GL_RENDERBUFFER, GL_DEPTH32F_STENCIL8, window.getWidth(), window.getHeight());
+            glFramebufferRenderbuffer(GL_FRAMEBUFFER, GL_DEPTH_STENCIL_ATTACHMENT, GL_RENDERBUFFER, depthStencilId);
+            glBindRenderbuffer(GL_RENDERBUFFER, 0);
+        }
+
         // Unbind
         glBindFramebuffer(GL_FRAMEBUFFER, 0);
     }
@@ -47,6 +58,9 @@ public class SceneBuffer {
     public void cleanup() {
         glDeleteFramebuffers(bufferId);
 
-        glDeleteTextures(textureId);
+        GLState.deleteTexture(textureId);
+        if (depthStencilId != 0) {
+            glDeleteRenderbuffers(depthStencilId);
+        }
     }
 }
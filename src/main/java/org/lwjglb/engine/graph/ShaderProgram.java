@@ -5,15 +5,27 @@ import org.lwjglb.engine.graph.lights.SpotLight;
 import org.lwjglb.engine.graph.lights.PointLight;
 import org.lwjglb.engine.graph.lights.DirectionalLight;
 import java.nio.FloatBuffer;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
 import org.joml.Matrix4f;
 import org.joml.Vector3f;
 import org.joml.Vector4f;
 import static org.lwjgl.opengl.GL20.*;
+import static org.lwjgl.opengl.GL31.GL_INVALID_INDEX;
+import static org.lwjgl.opengl.GL31.GL_UNIFORM_BLOCK_DATA_SIZE;
+import static org.lwjgl.opengl.GL31.glGetActiveUniformBlocki;
+import static org.lwjgl.opengl.GL31.glGetUniformBlockIndex;
+import static org.lwjgl.opengl.GL31.glUniformBlockBinding;
+import static org.lwjgl.opengl.GL32.GL_GEOMETRY_SHADER;
 import org.lwjgl.system.MemoryStack;
 import org.lwjglb.engine.graph.weather.Fog;
 
+/**
+ * Linked program and its uniforms. A uniform created at setup gets a handle, an index into the locations and the last
+ * values uploaded, so the frame loop can set it without looking its name up. The calls that would upload the value the
+ * uniform already holds are skipped, the program keeping its uniforms while other programs are in use.
+ */
 public class ShaderProgram {
 
     private final int programId;
@@ -24,14 +36,69 @@ public class ShaderProgram {
 
     private int geometryShaderId;
 
+    /**
+     * Handle of every uniform by name
+     */
     private final Map<String, Integer> uniforms;
 
+    private int uniformCount;
+
+    private int[] locations = new int[16];
+
+    /**
+     * Last values uploaded to the float, vector and matrix uniforms, null until the first one
+     */
+    private float[][] floatValues = new float[16][];
+
+    private int[] intValues = new int[16];
+
+    private boolean[] intUploaded = new boolean[16];
+
+    /**
+     * Names of the members and elements of the struct and array uniforms, concatenated once instead of every frame
+     */
+    private final Map<String, Map<String, String>> memberNames;
+
+    private final Map<String, String[]> elementNames;
+
     public ShaderProgram() throws Exception {
         programId = glCreateProgram();
         if (programId == 0) {
             throw new Exception("Could not create Shader");
         }
         uniforms = new HashMap<>();
+        memberNames = new HashMap<>();
+        elementNames = new HashMap<>();
+    }
+
+    private String member(String uniformName, String member) {
+        Map<String, String> names = memberNames.get(uniformName);
+        if (names == null) {
+            names = new HashMap<>();
+            memberNames.put(uniformName, names);
+        }
+        String name = names.get(member);
+        if (name == null) {
+            name = uniformName + member;
+            names.put(member, name);
+        }
+        return name;
+    }
+
+    private String element(String uniformName, int index) {
+        String[] names = elementNames.get(uniformName);
+        if (names == null || names.length <= index) {
+            String[] grown = new String[index + 1];
+            if (names != null) {
+                System.arraycopy(names, 0, grown, 0, names.length);
+            }
+            names = grown;
+            elementNames.put(uniformName, names);
+        }
+        if (names[index] == null) {
+            names[index] = uniformName + "[" + index + "]";
+        }
+        return names[index];
     }
 
     public void createUniform(String uniformName) throws Exception {
@@ -39,7 +106,61 @@ public class ShaderProgram {
         if (uniformLocation < 0) {
             throw new Exception("Could not find uniform:" + uniformName);
         }
-        uniforms.put(uniformName, uniformLocation);
+        if (uniforms.containsKey(uniformName)) {
+            return;
+        }
+        if (uniformCount == locations.length) {
+            int capacity = 2 * uniformCount;
+            locations = Arrays.copyOf(locations, capacity);
+            floatValues = Arrays.copyOf(floatValues, capacity);
+            intValues = Arrays.copyOf(intValues, capacity);
+            intUploaded = Arrays.copyOf(intUploaded, capacity);
+        }
+        locations[uniformCount] = uniformLocation;
+        uniforms.put(uniformName, uniformCount++);
+    }
+
+    /**
+     * Binds a uniform block of the program to the uniform buffer binding point
+     */
+    public void createUniformBlock(String blockName, int binding) throws Exception {
+        int blockIndex = glGetUniformBlockIndex(programId, blockName);
+        if (blockIndex == GL_INVALID_INDEX) {
+            throw new Exception("Could not find uniform block:" + blockName);
+        }
+        glUniformBlockBinding(programId, blockIndex, binding);
+    }
+
+    /**
+     * Binds a std140 uniform block of the program and checks that it has the size of the buffer written for it, which
+     * may have padding up to a vec4 after the last member
+     */
+    public void createUniformBlock(String blockName, int binding, int bufferSize) throws Exception {
+        createUniformBlock(blockName, binding);
+        int blockSize = glGetActiveUniformBlocki(programId, glGetUniformBlockIndex(programId, blockName), GL_UNIFORM_BLOCK_DATA_SIZE);
+        if (blockSize > bufferSize || blockSize <= bufferSize - 16) {
+            throw new Exception("Uniform block " + blockName + " has " + blockSize + " bytes, the buffer " + bufferSize);
+        }
+    }
+
+    /**
+     * @return the handle of a created uniform, to be resolved once at setup
+     */
+    public int getUniform(String uniformName) {
+        Integer uniform = uniforms.get(uniformName);
+        if (uniform == null) {
+            throw new IllegalArgumentException("Uniform not created: " + uniformName);
+        }
+        return uniform;
+    }
+
+    /**
+     * @return the handles of the members of a created material uniform, to be resolved once at setup
+     */
+    public int[] getMaterialUniform(String uniformName) {
+        return new int[] { getUniform(uniformName + ".diffuse"), getUniform(uniformName + ".specular"),
+                getUniform(uniformName + ".hasTexture"), getUniform(uniformName + ".hasNormalMap"),
+                getUniform(uniformName + ".reflectance") };
     }
 
     public void createUniform(String uniformName, int size) throws Exception {
@@ -95,67 +216,164 @@ public class ShaderProgram {
         createUniform(uniformName + ".density");
     }
 
-    public void setUniform(String uniformName, Matrix4f value) {
+    private boolean changed(int uniform, int value) {
+        if (intUploaded[uniform] && intValues[uniform] == value) {
+            return false;
+        }
+        intValues[uniform] = value;
+        intUploaded[uniform] = true;
+        return true;
+    }
+
+    private boolean changed(int uniform, float x, float y, float z, float w) {
+        float[] values = floatValues[uniform];
+        if (values == null) {
+            values = new float[4];
+            floatValues[uniform] = values;
+        } else if (same(values[0], x) && same(values[1], y) && same(values[2], z) && same(values[3], w)) {
+            return false;
+        }
+        values[0] = x;
+        values[1] = y;
+        values[2] = z;
+        values[3] = w;
+        return true;
+    }
+
+    private boolean changed(int uniform, FloatBuffer data) {
+        float[] values = floatValues[uniform];
+        int size = data.remaining();
+        if (values == null || values.length != size) {
+            values = new float[size];
+            floatValues[uniform] = values;
+        } else {
+            int i = 0;
+            while (i < size && same(values[i], data.get(i))) {
+                i++;
+            }
+            if (i == size) {
+                return false;
+            }
+        }
+        for (int i = 0; i < size; i++) {
+            values[i] = data.get(i);
+        }
+        return true;
+    }
+
+    private static boolean same(float a, float b) {
+        return Float.floatToRawIntBits(a) == Float.floatToRawIntBits(b);
+    }
+
+    public void setUniform(int uniform, Matrix4f value) {
         try (MemoryStack stack = MemoryStack.stackPush()) {
             // Dump the matrix into a float buffer
             FloatBuffer fb = stack.mallocFloat(16);
             value.get(fb);
-            glUniformMatrix4fv(uniforms.get(uniformName), false, fb);
+            if (changed(uniform, fb)) {
+                glUniformMatrix4fv(locations[uniform], false, fb);
+            }
         }
     }
 
-    public void setUniform(String uniformName, Matrix4f value, int index) {
-        setUniform(uniformName + "[" + index  + "]", value);
-    }
-
-    public void setUniform(String uniformName, Matrix4f[] matrices) {
+    public void setUniform(int uniform, Matrix4f[] matrices) {
         try (MemoryStack stack = MemoryStack.stackPush()) {
             int length = matrices != null ? matrices.length : 0;
             FloatBuffer fb = stack.mallocFloat(16 * length);
             for (int i = 0; i < length; i++) {
                 matrices[i].get(16 * i, fb);
             }
-            glUniformMatrix4fv(uniforms.get(uniformName), false, fb);
+            if (changed(uniform, fb)) {
+                glUniformMatrix4fv(locations[uniform], false, fb);
+            }
+        }
+    }
+
+    public void setUniform(int uniform, int value) {
+        if (changed(uniform, value)) {
+            glUniform1i(locations[uniform], value);
         }
     }
 
+    public void setUniform(int uniform, float value) {
+        if (changed(uniform, value, 0, 0, 0)) {
+            glUniform1f(locations[uniform], value);
+        }
+    }
+
+    public void setUniform(int uniform, float x, float y) {
+        if (changed(uniform, x, y, 0, 0)) {
+            glUniform2f(locations[uniform], x, y);
+        }
+    }
+
+    public void setUniform(int uniform, Vector3f value) {
+        if (changed(uniform, value.x, value.y, value.z, 0)) {
+            glUniform3f(locations[uniform], value.x, value.y, value.z);
+        }
+    }
+
+    public void setUniform(int uniform, Vector3f[] values) {
+        try (MemoryStack stack = MemoryStack.stackPush()) {
+            int length = values != null ? values.length : 0;
+            FloatBuffer fb = stack.mallocFloat(3 * length);
+            for (int i = 0; i < length; i++) {
+            	values[i].get(3 * i, fb);
+            }
+            if (changed(uniform, fb)) {
+                glUniform3fv(locations[uniform], fb);
+            }
+        }
+    }
+
+    public void setUniform(int uniform, Vector4f value) {
+        if (changed(uniform, value.x, value.y, value.z, value.w)) {
+            glUniform4f(locations[uniform], value.x, value.y, value.z, value.w);
+        }
+    }
+
+    public void setUniform(String uniformName, Matrix4f value) {
+        setUniform(getUniform(uniformName), value);
+    }
+
+    public void setUniform(String uniformName, Matrix4f value, int index) {
+        setUniform(element(uniformName, index), value);
+    }
+
+    public void setUniform(String uniformName, Matrix4f[] matrices) {
+        setUniform(getUniform(uniformName), matrices);
+    }
+
     public void setUniform(String uniformName, int value) {
-        glUniform1i(uniforms.get(uniformName), value);
+        setUniform(getUniform(uniformName), value);
     }
 
     public void setUniform(String uniformName, float value) {
-        glUniform1f(uniforms.get(uniformName), value);
+        setUniform(getUniform(uniformName), value);
     }
 
     public void setUniform(String uniformName, float value, int index) {
-        setUniform(uniformName + "[" + index  + "]", value);
+        setUniform(element(uniformName, index), value);
     }
 
     public void setUniform(String uniformName, float x, float y) {
-        glUniform2f(uniforms.get(uniformName), x, y);
+        setUniform(getUniform(uniformName), x, y);
     }
 
     public void setUniform(String uniformName, Vector2f value) {
-        glUniform2f(uniforms.get(uniformName), value.x, value.y);
+        setUniform(getUniform(uniformName), value.x, value.y);
     }
 
     public void setUniform(String uniformName, Vector3f value) {
-        glUniform3f(uniforms.get(uniformName), value.x, value.y, value.z);
+        setUniform(getUniform(uniformName), value);
     }
     
     public void setUniform(String uniformName, Vector3f[] values) {
-        try (MemoryStack stack = MemoryStack.stackPush()) {
-            int length = values != null ? values.length : 0;
-            FloatBuffer fb = stack.mallocFloat(3 * length);
-            for (int i = 0; i < length; i++) {
-            	values[i].get(3 * i, fb);
-            }
-            glUniform3fv(uniforms.get(uniformName), fb);
-        }
+        setUniform(getUniform(uniformName), values);
     }
 
     public void setUniform(String uniformName, Vector4f value) {
-        glUniform4f(uniforms.get(uniformName), value.x, value.y, value.z, value.w);
+        setUniform(getUniform(uniformName), value);
     }
 
     public void setUniform(String uniformName, PointLight[] pointLights) {
@@ -166,17 +384,17 @@ public class ShaderProgram {
     }
 
     public void setUniform(String uniformName, PointLight pointLight, int pos) {
-        setUniform(uniformName + "[" + pos + "]", pointLight);
+        setUniform(element(uniformName, pos), pointLight);
     }
 
     public void setUniform(String uniformName, PointLight pointLight) {
-        setUniform(uniformName + ".colour", pointLight.getColor());
-        setUniform(uniformName + ".position", pointLight.getPosition());
-        setUniform(uniformName + ".intensity", pointLight.getIntensity());
+        setUniform(member(uniformName, ".colour"), pointLight.getColor());
+        setUniform(member(uniformName, ".position"), pointLight.getPosition());
+        setUniform(member(uniformName, ".intensity"), pointLight.getIntensity());
         PointLight.Attenuation att = pointLight.getAttenuation();
-        setUniform(uniformName + ".att.constant", att.getConstant());
-        setUniform(uniformName + ".att.linear", att.getLinear());
-        setUniform(uniformName + ".att.exponent", att.getExponent());
+        setUniform(member(uniformName, ".att.constant"), att.getConstant());
+        setUniform(member(uniformName, ".att.linear"), att.getLinear());
+        setUniform(member(uniformName, ".att.exponent"), att.getExponent());
     }
 
     public void setUniform(String uniformName, SpotLight[] spotLights) {
@@ -187,43 +405,75 @@ public class ShaderProgram {
     }
 
     public void setUniform(String uniformName, SpotLight spotLight, int pos) {
-        setUniform(uniformName + "[" + pos + "]", spotLight);
+        setUniform(element(uniformName, pos), spotLight);
     }
 
     public void setUniform(String uniformName, SpotLight spotLight) {
-        setUniform(uniformName + ".pl", spotLight.getPointLight());
-        setUniform(uniformName + ".conedir", spotLight.getConeDirection());
-        setUniform(uniformName + ".cutoff", spotLight.getCutOff());
+        setUniform(member(uniformName, ".pl"), spotLight.getPointLight());
+        setUniform(member(uniformName, ".conedir"), spotLight.getConeDirection());
+        setUniform(member(uniformName, ".cutoff"), spotLight.getCutOff());
     }
 
     public void setUniform(String uniformName, DirectionalLight dirLight) {
-        setUniform(uniformName + ".colour", dirLight.getColor());
-        setUniform(uniformName + ".direction", dirLight.getDirection());
-        setUniform(uniformName + ".intensity", dirLight.getIntensity());
+        setUniform(member(uniformName, ".colour"), dirLight.getColor());
+        setUniform(member(uniformName, ".direction"), dirLight.getDirection());
+        setUniform(member(uniformName, ".intensity"), dirLight.getIntensity());
+    }
+
+    public void setUniform(int[] materialUniform, Material material) {
+        setUniform(materialUniform[0], material.getDiffuseColour());
+        setUniform(materialUniform[1], material.getSpecularColour());
+        setUniform(materialUniform[2], material.isTextured() ? 1 : 0);
+        setUniform(materialUniform[3], material.hasNormalMap() ? 1 : 0);
+        setUniform(materialUniform[4], material.getReflectance());
     }
 
     public void setUniform(String uniformName, Material material) {
-        setUniform(uniformName + ".diffuse", material.getDiffuseColour());
-        setUniform(uniformName + ".specular", material.getSpecularColour());
-        setUniform(uniformName + ".hasTexture", material.isTextured() ? 1 : 0);
-        setUniform(uniformName + ".hasNormalMap", material.hasNormalMap() ? 1 : 0);
-        setUniform(uniformName + ".reflectance", material.getReflectance());
+        setUniform(member(uniformName, ".diffuse"), material.getDiffuseColour());
+        setUniform(member(uniformName, ".specular"), material.getSpecularColour());
+        setUniform(member(uniformName, ".hasTexture"), material.isTextured() ? 1 : 0);
+        setUniform(member(uniformName, ".hasNormalMap"), material.hasNormalMap() ? 1 : 0);
+        setUniform(member(uniformName, ".reflectance"), material.getReflectance());
     }
 
     public void setUniform(String uniformName, Fog fog) {
-        setUniform(uniformName + ".activeFog", fog.isActive() ? 1 : 0);
-        setUniform(uniformName + ".colour", fog.getColour());
-        setUniform(uniformName + ".density", fog.getDensity());
+        setUniform(member(uniformName, ".activeFog"), fog.isActive() ? 1 : 0);
+        setUniform(member(uniformName, ".colour"), fog.getColour());
+        setUniform(member(uniformName, ".density"), fog.getDensity());
     }
 
     public void createVertexShader(String shaderCode) throws Exception {
         vertexShaderId = createShader(shaderCode, GL_VERTEX_SHADER);
     }
 
+    public void createGeometryShader(String shaderCode) throws Exception {
+        geometryShaderId = createShader(shaderCode, GL_GEOMETRY_SHADER);
+    }
+
     public void createFragmentShader(String shaderCode) throws Exception {
         fragmentShaderId = createShader(shaderCode, GL_FRAGMENT_SHADER);
     }
 
+    /**
+     * Inserts a #define of every name after the #version line of the shader code
+     */
+    public static String withDefines(String shaderCode, String... defines) {
+        StringBuilder header = new StringBuilder();
+        for (String define : defines) {
+            header.append("#define ").append(define).append('\n');
+        }
+        return withHeader(shaderCode, header.toString());
+    }
+
+    /**
+     * Inserts code shared by several shaders, such as uniform blocks, after the #version line of the shader code
+     */
+    public static String withHeader(String shaderCode, String header) {
+        int line = shaderCode.startsWith("#version") ? shaderCode.indexOf('\n') + 1 : 0;
+        String separator = header.endsWith("\n") ? "" : "\n";
+        return shaderCode.substring(0, line) + header + separator + shaderCode.substring(line);
+    }
+
     protected int createShader(String shaderCode, int shaderType) throws Exception {
         int shaderId = glCreateShader(shaderType);
         if (shaderId == 0) {
@@ -265,11 +515,11 @@ public class ShaderProgram {
     }
 
     public void bind() {
-        glUseProgram(programId);
+        GLState.useProgram(programId);
     }
 
     public void unbind() {
-        glUseProgram(0);
+        GLState.useProgram(0);
     }
 
     public void cleanup() {
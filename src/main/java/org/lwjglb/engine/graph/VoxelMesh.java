@@ -0,0 +1,102 @@
+package org.lwjglb.engine.graph;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.ShortBuffer;
+import static org.lwjgl.opengl.GL11.*;
+import static org.lwjgl.opengl.GL15.*;
+import static org.lwjgl.opengl.GL20.*;
+import static org.lwjgl.opengl.GL30.*;
+
+import org.joml.AABBf;
+import org.lwjgl.system.MemoryUtil;
+
+/**
+ * Static voxel mesh stored in a single interleaved buffer of {@link #VERTEX_SIZE_BYTES} bytes per vertex:
+ * <ul>
+ * <li>unsigned short x, y, z and padding, converted to floats at location 0 like the position of the other meshes</li>
+ * <li>unsigned byte normal index, palette index, surroundings (low 4 bits) and diagonal surroundings (high 4 bits),
+ * corner of the quad, read at location 14</li>
+ * </ul>
+ * The shaders decode it when the <code>isPacked</code> uniform is set. Normals are indexed in the order right, left,
+ * top, bottom, front, back.
+ */
+public class VoxelMesh extends Mesh {
+
+    public static final int VERTEX_SIZE_BYTES = 12;
+
+    public static final int POSITION_LOCATION = 0;
+
+    public static final int ATTRIBUTES_LOCATION = 14;
+
+    private static final int MAX_SHORT_INDEX = 0xffff;
+
+    private final int indexType;
+
+    /**
+     * @param vertices packed vertices, from the position to the limit of the buffer
+     * @param indices indices of the triangles, from the position to the limit of the buffer, stored as unsigned shorts
+     * when the vertices allow it
+     */
+    public VoxelMesh(ByteBuffer vertices, IntBuffer indices, AABBf boundaryBox) {
+        super(indices.remaining(), boundaryBox);
+        int numVertices = vertices.remaining() / VERTEX_SIZE_BYTES;
+        indexType = numVertices <= MAX_SHORT_INDEX + 1 ? GL_UNSIGNED_SHORT : GL_UNSIGNED_INT;
+
+        GLState.bindVertexArray(vaoId);
+
+        int vboId = glGenBuffers();
+        vboIdList.add(vboId);
+        glBindBuffer(GL_ARRAY_BUFFER, vboId);
+        glBufferData(GL_ARRAY_BUFFER, vertices, GL_STATIC_DRAW);
+        glVertexAttribPointer(POSITION_LOCATION, 3, GL_UNSIGNED_SHORT, false, VERTEX_SIZE_BYTES, 0);
+        glVertexAttribIPointer(ATTRIBUTES_LOCATION, 4, GL_UNSIGNED_BYTE, VERTEX_SIZE_BYTES, 8);
+
+        // Index VBO
+        vboId = glGenBuffers();
+        vboIdList.add(vboId);
+        glBindBuffer(GL_ELEMENT_ARRAY_BUFFER, vboId);
+        if (indexType == GL_UNSIGNED_SHORT) {
+            ShortBuffer indicesBuffer = MemoryUtil.memAllocShort(indices.remaining());
+            try {
+                for (int i = indices.position(); i < indices.limit(); i++) {
+                    indicesBuffer.put((short) indices.get(i));
+                }
+                indicesBuffer.flip();
+                glBufferData(GL_ELEMENT_ARRAY_BUFFER, indicesBuffer, GL_STATIC_DRAW);
+            } finally {
+                MemoryUtil.memFree(indicesBuffer);
+            }
+        } else if (indices.isDirect() && indices.order() == ByteOrder.nativeOrder()) {
+            glBufferData(GL_ELEMENT_ARRAY_BUFFER, indices, GL_STATIC_DRAW);
+        } else {
+            IntBuffer indicesBuffer = MemoryUtil.memAllocInt(indices.remaining());
+            try {
+                indicesBuffer.put(indices.duplicate()).flip();
+                glBufferData(GL_ELEMENT_ARRAY_BUFFER, indicesBuffer, GL_STATIC_DRAW);
+            } finally {
+                MemoryUtil.memFree(indicesBuffer);
+            }
+        }
+
+        glBindBuffer(GL_ARRAY_BUFFER, 0);
+        GLState.bindVertexArray(0);
+    }
+
+    @Override
+    protected void enableVertexAttribArrays() {
+        GLState.enableVertexAttribArray(POSITION_LOCATION);
+        GLState.enableVertexAttribArray(ATTRIBUTES_LOCATION);
+    }
+
+    @Override
+    protected int getIndexType() {
+        return indexType;
+    }
+
+    @Override
+    public boolean isPacked() {
+        return true;
+    }
+}
@@ -4,6 +4,11 @@ import org.joml.Vector3f;
 
 public class PointLight {
 
+    /**
+     * Brightness under which a light is considered out of reach
+     */
+    public static final float MIN_LIGHT_LEVEL = 1.0f / 256;
+
     private Vector3f color;
 
     private Vector3f position;
@@ -61,6 +66,23 @@ public class PointLight {
         this.attenuation = attenuation;
     }
 
+    /**
+     * Distance at which the light gets darker than {@link #MIN_LIGHT_LEVEL}, infinite without attenuation
+     */
+    public float getRadius() {
+        float brightness = intensity * Math.max(color.x, Math.max(color.y, color.z));
+        float c = attenuation.getConstant() - brightness / MIN_LIGHT_LEVEL;
+        float l = attenuation.getLinear();
+        float e = attenuation.getExponent();
+        if (c >= 0) {
+            return 0;
+        }
+        if (e > 0) {
+            return (-l + (float) Math.sqrt(l * l - 4 * e * c)) / (2 * e);
+        }
+        return l > 0 ? -c / l : Float.POSITIVE_INFINITY;
+    }
+
     public static class Attenuation {
 
         private float constant;
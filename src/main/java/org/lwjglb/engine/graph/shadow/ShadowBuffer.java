@@ -1,9 +1,10 @@
 package org.lwjglb.engine.graph.shadow;
 
 import org.lwjglb.engine.graph.ArrTexture;
+import org.lwjglb.engine.graph.GLState;
 import static org.lwjgl.opengl.GL11.*;
-import static org.lwjgl.opengl.GL13.glActiveTexture;
 import static org.lwjgl.opengl.GL30.*;
+import static org.lwjgl.opengl.GL32.glFramebufferTexture;
 
 public class ShadowBuffer {
 
@@ -15,16 +16,30 @@ public class ShadowBuffer {
 
     private final ArrTexture depthMap;
 
+    private final int cacheFBO;
+
+    /**
+     * Depth of the static casters of every cascade, copied to the depth maps before drawing the dynamic casters
+     */
+    private final ArrTexture cacheMap;
+
     public ShadowBuffer() throws Exception {
+        this(false);
+    }
+
+    /**
+     * @param layered true to store the cascades as the layers of one array texture, rendered all at once
+     */
+    public ShadowBuffer(boolean layered) throws Exception {
         // Create a FBO to render the depth map
         depthMapFBO = glGenFramebuffers();
 
         // Create the depth map textures
-        depthMap = new ArrTexture(ShadowRenderer.NUM_CASCADES, SHADOW_MAP_WIDTH, SHADOW_MAP_HEIGHT, GL_DEPTH_COMPONENT);
+        depthMap = new ArrTexture(ShadowRenderer.NUM_CASCADES, SHADOW_MAP_WIDTH, SHADOW_MAP_HEIGHT, GL_DEPTH_COMPONENT, layered);
 
         // Attach the the depth map texture to the FBO
         glBindFramebuffer(GL_FRAMEBUFFER, depthMapFBO);
-        glFramebufferTexture2D(GL_FRAMEBUFFER, GL_DEPTH_ATTACHMENT, GL_TEXTURE_2D, depthMap.getIds()[0], 0);
+        attachDepthMap(0);
         
         // Set only depth
         glDrawBuffer(GL_NONE);
@@ -34,10 +49,76 @@ public class ShadowBuffer {
             throw new Exception("Could not create FrameBuffer");
         }
 
+        // Create the static depth cache, read from its own FBO when copied
+        cacheMap = new ArrTexture(ShadowRenderer.NUM_CASCADES, SHADOW_MAP_WIDTH, SHADOW_MAP_HEIGHT, GL_DEPTH_COMPONENT, layered);
+        cacheFBO = glGenFramebuffers();
+        glBindFramebuffer(GL_FRAMEBUFFER, cacheFBO);
+        attach(GL_FRAMEBUFFER, cacheMap, 0);
+        glDrawBuffer(GL_NONE);
+        glReadBuffer(GL_NONE);
+
+        if (glCheckFramebufferStatus(GL_FRAMEBUFFER) != GL_FRAMEBUFFER_COMPLETE) {
+            throw new Exception("Could not create FrameBuffer");
+        }
+
         // Unbind
         glBindFramebuffer(GL_FRAMEBUFFER, 0);
     }
 
+    public ArrTexture getCacheMapTexture() {
+        return cacheMap;
+    }
+
+    public boolean isLayered() {
+        return depthMap.isLayered();
+    }
+
+    /**
+     * Attaches the depth map of the cascade to the depth map FBO, which must be bound
+     */
+    public void attachDepthMap(int cascade) {
+        attach(GL_FRAMEBUFFER, depthMap, cascade);
+    }
+
+    /**
+     * Attaches the static depth of the cascade to the depth map FBO, which must be bound
+     */
+    public void attachCacheMap(int cascade) {
+        attach(GL_FRAMEBUFFER, cacheMap, cascade);
+    }
+
+    /**
+     * Attaches all the layers of the depth maps to the depth map FBO, layered mode only
+     */
+    public void attachDepthMapLayers() {
+        glFramebufferTexture(GL_FRAMEBUFFER, GL_DEPTH_ATTACHMENT, depthMap.getIds()[0], 0);
+    }
+
+    public void attachCacheMapLayers() {
+        glFramebufferTexture(GL_FRAMEBUFFER, GL_DEPTH_ATTACHMENT, cacheMap.getIds()[0], 0);
+    }
+
+    private void attach(int target, ArrTexture texture, int cascade) {
+        if (texture.isLayered()) {
+            glFramebufferTextureLayer(target, GL_DEPTH_ATTACHMENT, texture.getIds()[0], 0, cascade);
+        } else {
+            glFramebufferTexture2D(target, GL_DEPTH_ATTACHMENT, GL_TEXTURE_2D, texture.getIds()[cascade], 0);
+        }
+    }
+
+    /**
+     * Copies the static depth of the cascade to its depth map, the depth map FBO is left bound with the depth map of
+     * the cascade attached
+     */
+    public void copyFromCache(int cascade) {
+        glBindFramebuffer(GL_READ_FRAMEBUFFER, cacheFBO);
+        attach(GL_READ_FRAMEBUFFER, cacheMap, cascade);
+        glBindFramebuffer(GL_DRAW_FRAMEBUFFER, depthMapFBO);
+        attach(GL_DRAW_FRAMEBUFFER, depthMap, cascade);
+        glBlitFramebuffer(0, 0, SHADOW_MAP_WIDTH, SHADOW_MAP_HEIGHT, 0, 0, SHADOW_MAP_WIDTH, SHADOW_MAP_HEIGHT, GL_DEPTH_BUFFER_BIT, GL_NEAREST);
+        glBindFramebuffer(GL_FRAMEBUFFER, depthMapFBO);
+    }
+
     public ArrTexture getDepthMapTexture() {
         return depthMap;
     }
@@ -47,15 +128,20 @@ public class ShadowBuffer {
     }
 
     public void bindTextures(int start) {
+        if (isLayered()) {
+            GLState.bindTexture(start, GL_TEXTURE_2D_ARRAY, depthMap.getIds()[0]);
+            return;
+        }
         for (int i = 0; i < ShadowRenderer.NUM_CASCADES; i++) {
-            glActiveTexture(start + i);
-            glBindTexture(GL_TEXTURE_2D, depthMap.getIds()[i]);
+            GLState.bindTexture(start + i, GL_TEXTURE_2D, depthMap.getIds()[i]);
         }
     }
     
     public void cleanup() {
         glDeleteFramebuffers(depthMapFBO);
+        glDeleteFramebuffers(cacheFBO);
         depthMap.cleanup();
+        cacheMap.cleanup();
     }
     
 }
@@ -1,5 +1,6 @@
 package org.lwjglb.engine.graph.shadow;
 
+import org.joml.FrustumIntersection;
 import org.joml.Matrix4f;
 import org.joml.Vector3f;
 import org.joml.Vector4f;
@@ -11,12 +12,21 @@ public class ShadowCascade {
 
     private static final int FRUSTUM_CORNERS = 8;
 
+    /**
+     * Part of the light space size of the view added on each side of the depth map
+     */
+    private static final float BOUNDS_MARGIN = 0.1f;
+
     private final Matrix4f projViewMatrix;
 
     private final Matrix4f orthoProjMatrix;
 
     private final Matrix4f lightViewMatrix;
 
+    private final Matrix4f lightProjViewMatrix;
+
+    private final FrustumIntersection lightFrustum;
+
     /**
      * Center of the view cuboid un world space coordinates.
      */
@@ -29,6 +39,26 @@ public class ShadowCascade {
     private final float zFar;
 
     private final Vector4f tmpVec;
+
+    private final Vector3f lightPosition;
+
+    private final Vector3f lightAngles;
+
+    private final Vector3f cachedLightDirection;
+
+    private float boundsMinX;
+
+    private float boundsMaxX;
+
+    private float boundsMinY;
+
+    private float boundsMaxY;
+
+    private float boundsMinZ;
+
+    private float boundsMaxZ;
+
+    private boolean moved;
     
     public ShadowCascade(float zNear, float zFar) {
         this.zNear = zNear;
@@ -37,11 +67,16 @@ public class ShadowCascade {
         this.orthoProjMatrix = new Matrix4f();
         this.centroid = new Vector3f();
         this.lightViewMatrix = new Matrix4f();
+        this.lightProjViewMatrix = new Matrix4f();
+        this.lightFrustum = new FrustumIntersection();
         this.frustumCorners = new Vector3f[FRUSTUM_CORNERS];
         for (int i = 0; i < FRUSTUM_CORNERS; i++) {
             frustumCorners[i] = new Vector3f();
         }
         tmpVec = new Vector4f();
+        lightPosition = new Vector3f();
+        lightAngles = new Vector3f();
+        cachedLightDirection = new Vector3f(Float.NaN, Float.NaN, Float.NaN);
     }
 
     public Matrix4f getLightViewMatrix() {
@@ -52,6 +87,21 @@ public class ShadowCascade {
         return orthoProjMatrix;
     }
 
+    /**
+     * @return the box covered by the depth map of the cascade, in world space
+     */
+    public FrustumIntersection getLightFrustum() {
+        return lightFrustum;
+    }
+
+    /**
+     * @return true if the light matrices changed in the last update, the static depth of the cascade must be rendered
+     * again
+     */
+    public boolean isMoved() {
+        return moved;
+    }
+
     public void update(Window window, Matrix4f viewMatrix, DirectionalLight light) {
         // Build projection view matrix for this cascade
         float aspectRatio = (float) window.getWidth() / (float) window.getHeight();
@@ -59,47 +109,59 @@ public class ShadowCascade {
         projViewMatrix.mul(viewMatrix);
 
         // Calculate frustum corners in world space
-        float maxZ = Float.MIN_VALUE;
+        float maxZ = -Float.MAX_VALUE;
         float minZ = Float.MAX_VALUE;
+        centroid.set(0, 0, 0);
         for (int i = 0; i < FRUSTUM_CORNERS; i++) {
             Vector3f corner = frustumCorners[i];
             corner.set(0, 0, 0);
             projViewMatrix.frustumCorner(i, corner);
             centroid.add(corner);
-            centroid.div(8.0f);
             minZ = Math.min(minZ, corner.z);
             maxZ = Math.max(maxZ, corner.z);
         }
+        centroid.div(8.0f);
 
-        // Go back from the centroid up to max.z - min.z in the direction of light
+        // The matrices are kept while the light does not turn and the view stays in the margin of the depth map
         Vector3f lightDirection = light.getDirection();
-        Vector3f lightPosInc = new Vector3f().set(lightDirection);
+        moved = !lightDirection.equals(cachedLightDirection) || !fitsLightBounds();
+        if (!moved) {
+            return;
+        }
+        cachedLightDirection.set(lightDirection);
+
+        // Go back from the centroid up to max.z - min.z in the direction of light
         float distance = maxZ - minZ;
-        lightPosInc.mul(distance);
-        Vector3f lightPosition = new Vector3f();
-        lightPosition.set(centroid);
-        lightPosition.add(lightPosInc);
+        lightPosition.set(lightDirection).mul(distance).add(centroid);
 
         updateLightViewMatrix(lightDirection, lightPosition);
 
         updateLightProjectionMatrix();
+
+        lightProjViewMatrix.set(orthoProjMatrix).mul(lightViewMatrix);
+        lightFrustum.set(lightProjViewMatrix);
     }
 
     private void updateLightViewMatrix(Vector3f lightDirection, Vector3f lightPosition) {
         float lightAngleX = (float) Math.toDegrees(Math.acos(lightDirection.z));
         float lightAngleY = (float) Math.toDegrees(Math.asin(lightDirection.x));
         float lightAngleZ = 0;
-        Transformation.updateGenericViewMatrix(lightPosition, new Vector3f(lightAngleX, lightAngleY, lightAngleZ), lightViewMatrix);
+        lightAngles.set(lightAngleX, lightAngleY, lightAngleZ);
+        Transformation.updateGenericViewMatrix(lightPosition, lightAngles, lightViewMatrix);
     }
 
+    /**
+     * Fits the projection to the frustum corners in light space, with a margin so that small moves of the view keep
+     * the same matrices. The bounds are snapped to the texels of the depth map.
+     */
     private void updateLightProjectionMatrix() {
         // Now calculate frustum dimensions in light space
         float minX =  Float.MAX_VALUE;
-        float maxX = -Float.MIN_VALUE;
+        float maxX = -Float.MAX_VALUE;
         float minY =  Float.MAX_VALUE;
-        float maxY = -Float.MIN_VALUE;
+        float maxY = -Float.MAX_VALUE;
         float minZ =  Float.MAX_VALUE;
-        float maxZ = -Float.MIN_VALUE;
+        float maxZ = -Float.MAX_VALUE;
         for (int i = 0; i < FRUSTUM_CORNERS; i++) {
             Vector3f corner = frustumCorners[i];
             tmpVec.set(corner, 1);
@@ -111,9 +173,32 @@ public class ShadowCascade {
             minZ = Math.min(tmpVec.z, minZ);
             maxZ = Math.max(tmpVec.z, maxZ);
         }
-        float distz = maxZ - minZ;
+        float marginX = (maxX - minX) * BOUNDS_MARGIN;
+        float marginY = (maxY - minY) * BOUNDS_MARGIN;
+        float marginZ = (maxZ - minZ) * BOUNDS_MARGIN;
+        float texelX = (maxX - minX + 2 * marginX) / ShadowBuffer.SHADOW_MAP_WIDTH;
+        float texelY = (maxY - minY + 2 * marginY) / ShadowBuffer.SHADOW_MAP_HEIGHT;
+        boundsMinX = (float) Math.floor((minX - marginX) / texelX) * texelX;
+        boundsMaxX = (float) Math.ceil((maxX + marginX) / texelX) * texelX;
+        boundsMinY = (float) Math.floor((minY - marginY) / texelY) * texelY;
+        boundsMaxY = (float) Math.ceil((maxY + marginY) / texelY) * texelY;
+        boundsMinZ = minZ - marginZ;
+        boundsMaxZ = maxZ + marginZ;
+
+        // The light looks down the negative z axis, the casters nearer than the near plane are clamped to it
+        orthoProjMatrix.setOrtho(boundsMinX, boundsMaxX, boundsMinY, boundsMaxY, -boundsMaxZ, -boundsMinZ);
+    }
 
-        orthoProjMatrix.setOrtho(minX, maxX, minY, maxY, 0, distz);
+    private boolean fitsLightBounds() {
+        for (int i = 0; i < FRUSTUM_CORNERS; i++) {
+            tmpVec.set(frustumCorners[i], 1);
+            tmpVec.mul(lightViewMatrix);
+            if (tmpVec.x < boundsMinX || tmpVec.x > boundsMaxX || tmpVec.y < boundsMinY || tmpVec.y > boundsMaxY
+                    || tmpVec.z < boundsMinZ || tmpVec.z > boundsMaxZ) {
+                return false;
+            }
+        }
+        return true;
     }
 
 }
@@ -2,20 +2,24 @@ package org.lwjglb.engine.graph.shadow;
 
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
 import org.joml.Matrix4f;
 import static org.lwjgl.opengl.GL11.*;
 import static org.lwjgl.opengl.GL13.GL_TEXTURE2;
 import static org.lwjgl.opengl.GL30.*;
+import static org.lwjgl.opengl.GL32.GL_DEPTH_CLAMP;
 import org.lwjglb.engine.Scene;
 import org.lwjglb.engine.SceneLight;
 import org.lwjglb.engine.Utils;
 import org.lwjglb.engine.Window;
 import org.lwjglb.engine.graph.Camera;
+import org.lwjglb.engine.graph.FrustumCullingFilter;
 import org.lwjglb.engine.graph.InstancedMesh;
 import org.lwjglb.engine.graph.Mesh;
+import org.lwjglb.engine.graph.RenderQueue;
 import org.lwjglb.engine.graph.Renderer;
 import org.lwjglb.engine.graph.ShaderProgram;
 import org.lwjglb.engine.graph.Transformation;
@@ -28,6 +32,8 @@ public class ShadowRenderer {
 
     public static final int NUM_CASCADES = 3;
 
+    private static final int ALL_CASCADES = (1 << NUM_CASCADES) - 1;
+
     public static final float[] CASCADE_SPLITS = new float[]{Window.Z_FAR / 10.0f, Window.Z_FAR / 5.0f, Window.Z_FAR};
 
     private ShaderProgram depthShaderProgram;
@@ -38,15 +44,71 @@ public class ShadowRenderer {
 
     private final List<GameItem> filteredItems;
 
+    private final Consumer<GameItem> depthItemSetup;
+
+    private final Predicate<GameItem> casterFilter;
+
+    private final BiConsumer<InstancedMesh, List<GameItem>> depthInstancedRender;
+
+    private Transformation transformation;
+
+    private int isInstancedUniform;
+
+    private int isPackedUniform;
+
+    private int modelMatrixUniform;
+
+    private int jointsMatrixUniform;
+
+    /**
+     * Handles of the matrices of every cascade, the same handle for all of them when the cascades are rendered one by
+     * one
+     */
+    private final int[] orthoProjectionMatrixUniforms;
+
+    private final int[] lightViewMatrixUniforms;
+
+    private int cascadeMaskUniform;
+
+    private boolean cullCasters;
+
+    /**
+     * Cascades rendered by the current pass
+     */
+    private int cascadeMask;
+
+    /**
+     * Static depth of the cascades in the cache that is still valid
+     */
+    private final boolean[] staticValid;
+
+    private int staticVersion = -1;
+
+    private boolean staticPass;
+
     public ShadowRenderer() {
+        staticValid = new boolean[NUM_CASCADES];
+        orthoProjectionMatrixUniforms = new int[NUM_CASCADES];
+        lightViewMatrixUniforms = new int[NUM_CASCADES];
         filteredItems = new ArrayList<>();
+        depthItemSetup = this::setupDepthItem;
+        casterFilter = this::castsShadow;
+        depthInstancedRender = this::renderInstancedMesh;
     }
 
     public void init(Window window) throws Exception {
-        shadowBuffer = new ShadowBuffer();
+        shadowBuffer = new ShadowBuffer(window.getOptions().layeredShadows);
         shadowCascades = new ArrayList<>();
 
-        setupDepthShader();
+        if (shadowBuffer.isLayered()) {
+            setupLayeredDepthShader();
+        } else {
+            setupDepthShader();
+        }
+        isInstancedUniform = depthShaderProgram.getUniform("isInstanced");
+        isPackedUniform = depthShaderProgram.getUniform("isPacked");
+        modelMatrixUniform = depthShaderProgram.getUniform("modelNonInstancedMatrix");
+        jointsMatrixUniform = depthShaderProgram.getUniform("jointsMatrix");
 
         float zNear = Window.Z_NEAR;
         for (int i = 0; i < NUM_CASCADES; i++) {
@@ -64,6 +126,13 @@ public class ShadowRenderer {
         this.shadowBuffer.bindTextures(start);
     }
 
+    /**
+     * @return true if the cascades are the layers of one array texture
+     */
+    public boolean isLayered() {
+        return shadowBuffer.isLayered();
+    }
+
     private void setupDepthShader() throws Exception {
         depthShaderProgram = new ShaderProgram();
         depthShaderProgram.createVertexShader(Utils.loadResource("/shaders/depth_vertex.vs"));
@@ -71,10 +140,36 @@ public class ShadowRenderer {
         depthShaderProgram.link();
 
         depthShaderProgram.createUniform("isInstanced");
+        depthShaderProgram.createUniform("isPacked");
         depthShaderProgram.createUniform("modelNonInstancedMatrix");
         depthShaderProgram.createUniform("lightViewMatrix");
         depthShaderProgram.createUniform("jointsMatrix");
         depthShaderProgram.createUniform("orthoProjectionMatrix");
+
+        Arrays.fill(orthoProjectionMatrixUniforms, depthShaderProgram.getUniform("orthoProjectionMatrix"));
+        Arrays.fill(lightViewMatrixUniforms, depthShaderProgram.getUniform("lightViewMatrix"));
+    }
+
+    private void setupLayeredDepthShader() throws Exception {
+        depthShaderProgram = new ShaderProgram();
+        depthShaderProgram.createVertexShader(ShaderProgram.withDefines(Utils.loadResource("/shaders/depth_vertex.vs"), "LAYERED"));
+        depthShaderProgram.createGeometryShader(Utils.loadResource("/shaders/depth_geometry.gs"));
+        depthShaderProgram.createFragmentShader(Utils.loadResource("/shaders/depth_fragment.fs"));
+        depthShaderProgram.link();
+
+        depthShaderProgram.createUniform("isInstanced");
+        depthShaderProgram.createUniform("isPacked");
+        depthShaderProgram.createUniform("modelNonInstancedMatrix");
+        depthShaderProgram.createUniform("jointsMatrix");
+        depthShaderProgram.createUniform("lightViewMatrix", NUM_CASCADES);
+        depthShaderProgram.createUniform("orthoProjectionMatrix", NUM_CASCADES);
+        depthShaderProgram.createUniform("cascadeMask");
+
+        for (int i = 0; i < NUM_CASCADES; i++) {
+            orthoProjectionMatrixUniforms[i] = depthShaderProgram.getUniform("orthoProjectionMatrix[" + i + "]");
+            lightViewMatrixUniforms[i] = depthShaderProgram.getUniform("lightViewMatrix[" + i + "]");
+        }
+        cascadeMaskUniform = depthShaderProgram.getUniform("cascadeMask");
     }
 
     private void update(Window window, Matrix4f viewMatrix, Scene scene) {
@@ -86,77 +181,172 @@ public class ShadowRenderer {
         }
     }
 
-    public void render(Window window, Scene scene, Camera camera, Transformation transformation, Renderer renderer) {
-        update(window, camera.getViewMatrix(), scene);
+    /**
+     * Forces the static depth of every cascade to be rendered again
+     */
+    public void invalidate() {
+        Arrays.fill(staticValid, false);
+    }
+
+    /**
+     * Renders the depth maps, the static casters only when the matrices of their cascade moved or the render queue
+     * changed, the dynamic ones every time over a copy of the static depth
+     *
+     * @param viewChanged false if neither the camera nor the light changed since the last call
+     */
+    public void render(Window window, Scene scene, Camera camera, Transformation transformation, Renderer renderer, boolean viewChanged) {
+        if (viewChanged) {
+            update(window, camera.getViewMatrix(), scene);
+            for (int i = 0; i < NUM_CASCADES; i++) {
+                if (shadowCascades.get(i).isMoved()) {
+                    staticValid[i] = false;
+                }
+            }
+        }
+        int queueVersion = scene.getRenderQueue().getVersion();
+        if (queueVersion != staticVersion) {
+            invalidate();
+            staticVersion = queueVersion;
+        }
+
+        // Each cascade only renders the casters inside its own light frustum
+        cullCasters = window.getOptions().frustumCulling;
+        if (cullCasters) {
+            FrustumCullingFilter frustumFilter = renderer.getFrustumFilter();
+            frustumFilter.filterCasters(scene.getRenderQueue(), shadowCascades);
+            frustumFilter.filterCasters(scene.getGameInstancedMeshes(), shadowCascades);
+        }
 
         // Setup view port to match the texture size
         glBindFramebuffer(GL_FRAMEBUFFER, shadowBuffer.getDepthMapFBO());
         glViewport(0, 0, ShadowBuffer.SHADOW_MAP_WIDTH, ShadowBuffer.SHADOW_MAP_HEIGHT);
-        glClear(GL_DEPTH_BUFFER_BIT);
 
         depthShaderProgram.bind();
 
-        // Render scene for each cascade map
+        // Casters between the light and the near plane of a cascade are not culled, they are clamped to it
+        glEnable(GL_DEPTH_CLAMP);
+
+        if (shadowBuffer.isLayered()) {
+            renderLayers(scene, transformation);
+        } else {
+            renderCascades(scene, transformation);
+        }
+
+        glDisable(GL_DEPTH_CLAMP);
+
+        // Unbind
+        depthShaderProgram.unbind();
+        glBindFramebuffer(GL_FRAMEBUFFER, 0);
+    }
+
+    /**
+     * Renders the scene once for each cascade map
+     */
+    private void renderCascades(Scene scene, Transformation transformation) {
         for (int i = 0; i < NUM_CASCADES; i++) {
             ShadowCascade shadowCascade = shadowCascades.get(i);
 
-            depthShaderProgram.setUniform("orthoProjectionMatrix", shadowCascade.getOrthoProjMatrix());
-            depthShaderProgram.setUniform("lightViewMatrix", shadowCascade.getLightViewMatrix());
+            depthShaderProgram.setUniform(orthoProjectionMatrixUniforms[i], shadowCascade.getOrthoProjMatrix());
+            depthShaderProgram.setUniform(lightViewMatrixUniforms[i], shadowCascade.getLightViewMatrix());
 
-            glFramebufferTexture2D(GL_FRAMEBUFFER, GL_DEPTH_ATTACHMENT, GL_TEXTURE_2D, shadowBuffer.getDepthMapTexture().getIds()[i], 0);
-            glClear(GL_DEPTH_BUFFER_BIT);
+            if (!staticValid[i]) {
+                shadowBuffer.attachCacheMap(i);
+                glClear(GL_DEPTH_BUFFER_BIT);
+                renderCasters(scene, transformation, true, 1 << i);
+                staticValid[i] = true;
+            }
 
-            renderNonInstancedMeshes(scene, transformation);
+            shadowBuffer.copyFromCache(i);
+            renderCasters(scene, transformation, false, 1 << i);
+        }
+    }
 
-            renderInstancedMeshes(scene, transformation);
+    /**
+     * Renders all the cascades with a single submission of the scene, the geometry shader sends every triangle to the
+     * layers of the cascades
+     */
+    private void renderLayers(Scene scene, Transformation transformation) {
+        int invalidCascades = 0;
+        for (int i = 0; i < NUM_CASCADES; i++) {
+            ShadowCascade shadowCascade = shadowCascades.get(i);
+            depthShaderProgram.setUniform(orthoProjectionMatrixUniforms[i], shadowCascade.getOrthoProjMatrix());
+            depthShaderProgram.setUniform(lightViewMatrixUniforms[i], shadowCascade.getLightViewMatrix());
+
+            if (!staticValid[i]) {
+                shadowBuffer.attachCacheMap(i);
+                glClear(GL_DEPTH_BUFFER_BIT);
+                invalidCascades |= 1 << i;
+                staticValid[i] = true;
+            }
+        }
+        if (invalidCascades != 0) {
+            shadowBuffer.attachCacheMapLayers();
+            renderCasters(scene, transformation, true, invalidCascades);
         }
 
-        // Unbind
-        depthShaderProgram.unbind();
-        glBindFramebuffer(GL_FRAMEBUFFER, 0);
+        for (int i = 0; i < NUM_CASCADES; i++) {
+            shadowBuffer.copyFromCache(i);
+        }
+        shadowBuffer.attachDepthMapLayers();
+        renderCasters(scene, transformation, false, ALL_CASCADES);
+    }
+
+    private void renderCasters(Scene scene, Transformation transformation, boolean staticPass, int cascadeMask) {
+        this.staticPass = staticPass;
+        this.cascadeMask = cascadeMask;
+        if (shadowBuffer.isLayered()) {
+            depthShaderProgram.setUniform(cascadeMaskUniform, cascadeMask);
+        }
+        renderNonInstancedMeshes(scene, transformation);
+        renderInstancedMeshes(scene);
     }
 
     private void renderNonInstancedMeshes(Scene scene, Transformation transformation) {
-        depthShaderProgram.setUniform("isInstanced", 0);
+        depthShaderProgram.setUniform(isInstancedUniform, 0);
+
+        // Render each batch of draws sharing a mesh
+        this.transformation = transformation;
+        RenderQueue renderQueue = scene.getRenderQueue();
+        for (int batch = 0; batch < renderQueue.getBatchCount(); batch++) {
+            Mesh mesh = renderQueue.getBatchMesh(batch);
+            depthShaderProgram.setUniform(isPackedUniform, mesh.isPacked() ? 1 : 0);
+            mesh.renderBatch(renderQueue, renderQueue.getBatchStart(batch), renderQueue.getBatchEnd(batch), casterFilter, depthItemSetup);
+        }
+    }
 
-        // Render each mesh with the associated game Items
-        Map<Mesh, List<GameItem>> mapMeshes = new HashMap<>(scene.getGameMeshes());
-        if(scene.getBoard() != null) {
-	        for(GameItem tile : scene.getBoard().getTiles()) {
-	        	mapMeshes.put(tile.getMesh(), Arrays.asList(tile));
-	        }
-	        mapMeshes.put(scene.getPlayer().getMesh(), Arrays.asList(scene.getPlayer()));
-        }
-        for (Mesh mesh : mapMeshes.keySet()) {
-            mesh.renderList(mapMeshes.get(mesh), (GameItem gameItem) -> {
-                Matrix4f modelMatrix = transformation.buildModelMatrix(gameItem);
-                depthShaderProgram.setUniform("modelNonInstancedMatrix", modelMatrix);
-                if (gameItem instanceof AnimGameItem) {
-                    AnimGameItem animGameItem = (AnimGameItem) gameItem;
-                    AnimatedFrame frame = animGameItem.getCurrentAnimation().getCurrentFrame();
-                    depthShaderProgram.setUniform("jointsMatrix", frame.getJointMatrices());
-                }
-            }
-            );
+    private boolean castsShadow(GameItem gameItem) {
+        return gameItem.isStatic() == staticPass && (!cullCasters || (gameItem.getShadowCascades() & cascadeMask) != 0);
+    }
+
+    private void setupDepthItem(GameItem gameItem) {
+        Matrix4f modelMatrix = transformation.buildModelMatrix(gameItem);
+        depthShaderProgram.setUniform(modelMatrixUniform, modelMatrix);
+        if (gameItem instanceof AnimGameItem) {
+            AnimGameItem animGameItem = (AnimGameItem) gameItem;
+            AnimatedFrame frame = animGameItem.getCurrentAnimation().getCurrentFrame();
+            depthShaderProgram.setUniform(jointsMatrixUniform, frame.getJointMatrices());
         }
     }
 
-    private void renderInstancedMeshes(Scene scene, Transformation transformation) {
-        depthShaderProgram.setUniform("isInstanced", 1);
+    private void renderInstancedMeshes(Scene scene) {
+        depthShaderProgram.setUniform(isInstancedUniform, 1);
+        depthShaderProgram.setUniform(isPackedUniform, 0);
 
         // Render each mesh with the associated game Items
-        Map<InstancedMesh, List<GameItem>> mapMeshes = scene.getGameInstancedMeshes();
-        for (InstancedMesh mesh : mapMeshes.keySet()) {
-            filteredItems.clear();
-            for (GameItem gameItem : mapMeshes.get(mesh)) {
-                if (gameItem.isInsideFrustum()) {
-                    filteredItems.add(gameItem);
-                }
-            }
-            bindTextures(GL_TEXTURE2);
+        scene.getGameInstancedMeshes().forEach(depthInstancedRender);
+    }
 
-            mesh.renderListInstanced(filteredItems, transformation, null);
+    private void renderInstancedMesh(InstancedMesh mesh, List<GameItem> gameItems) {
+        filteredItems.clear();
+        for (int i = 0; i < gameItems.size(); i++) {
+            GameItem gameItem = gameItems.get(i);
+            if (castsShadow(gameItem)) {
+                filteredItems.add(gameItem);
+            }
         }
+        bindTextures(GL_TEXTURE2);
+
+        mesh.renderListInstanced(filteredItems, transformation, null);
     }
 
     public void cleanup() {
@@ -4,6 +4,7 @@ import static org.lwjgl.opengl.GL11.*;
 import static org.lwjgl.opengl.GL13.*;
 import org.lwjglb.engine.Utils;
 import org.lwjglb.engine.Window;
+import org.lwjglb.engine.graph.GLState;
 import org.lwjglb.engine.graph.Mesh;
 import org.lwjglb.engine.graph.ShaderProgram;
 import org.lwjglb.engine.loaders.assimp.StaticMeshesLoader;
@@ -36,8 +37,7 @@ public class ShadowTestRenderer {
 
         testShaderProgram.setUniform("texture_sampler[0]", 0);
 
-        glActiveTexture(GL_TEXTURE0);
-        glBindTexture(GL_TEXTURE_2D, shadowMap.getDepthMapTexture().getIds()[0]);
+        GLState.bindTexture(GL_TEXTURE0, GL_TEXTURE_2D, shadowMap.getDepthMapTexture().getIds()[0]);
 
         quadMesh.render();
 
@@ -2,6 +2,12 @@ package org.lwjglb.engine.items;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.Callable;
+
+import org.joml.Vector3f;
+import org.lwjglb.engine.graph.MeshArena;
+import org.lwjglb.engine.loaders.vox.VoxelRayHit;
+import org.lwjglb.engine.loaders.vox.VoxelVolume;
 
 public class Board {
 
@@ -14,6 +20,21 @@ public class Board {
     private final int depth;
     
     private final int tileSize;
+
+    private final int columns;
+
+    private final int rows;
+
+    /**
+     * Tiles indexed by their x and z, x * rows + z, null where the board has no tile
+     */
+    private final Tile[] grid;
+
+    private VoxelVolume volume;
+
+    private Callable<VoxelVolume> volumeLoader;
+
+    private MeshArena arena;
     
     public Board(int width, int height, int depth, int tileSize) {
 		super();
@@ -21,12 +42,128 @@ public class Board {
 		this.height = height;
 		this.depth = depth;
 		this.tileSize = tileSize;
+		this.columns = (width + tileSize - 1) / tileSize;
+		this.rows = (depth + tileSize - 1) / tileSize;
+		this.grid = new Tile[columns * rows];
 	}
 
 	public List<Tile> getTiles() {
 		return tiles;
 	}
 
+	/**
+	 * Adds the tile to the board and indexes it by its x and z, replacing the tile previously at this place
+	 */
+	public void addTile(Tile tile) {
+		if (!isInside(tile.getX(), tile.getZ())) {
+			throw new IllegalArgumentException("Tile " + tile + " is outside of the board");
+		}
+		int index = tile.getX() * rows + tile.getZ();
+		if (grid[index] != null) {
+			tiles.remove(grid[index]);
+		}
+		grid[index] = tile;
+		tiles.add(tile);
+	}
+
+	public boolean isInside(int x, int z) {
+		return x >= 0 && x < columns && z >= 0 && z < rows;
+	}
+
+	/**
+	 * @return the tile at this x and z, null if there is none
+	 */
+	public Tile getTile(int x, int z) {
+		return isInside(x, z) ? grid[x * rows + z] : null;
+	}
+
+	/**
+	 * Adds to the result the tiles at a Manhattan distance of at most range from x and z, visiting only these places
+	 */
+	public List<Tile> getTilesInRange(int x, int z, int range, List<Tile> result) {
+		for (int dx = -range; dx <= range; dx++) {
+			int remaining = range - Math.abs(dx);
+			for (int dz = -remaining; dz <= remaining; dz++) {
+				Tile tile = getTile(x + dx, z + dz);
+				if (tile != null) {
+					result.add(tile);
+				}
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Casts the ray through the voxels of the board, in world coordinates
+	 *
+	 * @param hit filled with the voxel hit and the normal of its face
+	 * @return the tile owning the voxel hit, null if nothing is hit or the board has no voxels
+	 */
+	public Tile pick(Vector3f origin, Vector3f dir, float maxDistance, VoxelRayHit hit) {
+		VoxelVolume volume = getVolume();
+		if (volume == null || !volume.raycast(origin, dir, maxDistance, hit)) {
+			return null;
+		}
+		return getTile(hit.x / tileSize, hit.z / tileSize);
+	}
+
+	/**
+	 * @return true if no voxel of the board lies between the two world positions, or if the board has no voxels
+	 */
+	public boolean hasLineOfSight(Vector3f from, Vector3f to) {
+		VoxelVolume volume = getVolume();
+		return volume == null || volume.hasLineOfSight(from, to);
+	}
+
+	/**
+	 * @return the voxels of the board, built by the volume loader on the first call when there is one
+	 */
+	public VoxelVolume getVolume() {
+		if (volume == null && volumeLoader != null) {
+			Callable<VoxelVolume> loader = volumeLoader;
+			volumeLoader = null;
+			try {
+				volume = loader.call();
+			} catch (Exception e) {
+				throw new IllegalStateException("Unable to load the voxels of the board", e);
+			}
+		}
+		return volume;
+	}
+
+	public void setVolume(VoxelVolume volume) {
+		this.volume = volume;
+		this.volumeLoader = null;
+	}
+
+	/**
+	 * Defers building the voxels of the board until they are first queried
+	 */
+	public void setVolumeLoader(Callable<VoxelVolume> volumeLoader) {
+		this.volume = null;
+		this.volumeLoader = volumeLoader;
+	}
+
+	/**
+	 * @return the arena holding the geometry of the tiles, null when each tile has its own mesh
+	 */
+	public MeshArena getArena() {
+		return arena;
+	}
+
+	public void setArena(MeshArena arena) {
+		this.arena = arena;
+	}
+
+	public void cleanup() {
+		for (Tile tile : tiles) {
+			tile.getMesh().deleteBuffers();
+		}
+		if (arena != null) {
+			arena.cleanUp();
+		}
+	}
+
 	public int getWidth() {
 		return width;
 	}
@@ -42,4 +179,12 @@ public class Board {
 	public int getTileSize() {
 		return tileSize;
 	}
+
+	public int getColumns() {
+		return columns;
+	}
+
+	public int getRows() {
+		return rows;
+	}
 }
@@ -6,6 +6,8 @@ import org.lwjglb.engine.graph.Mesh;
 
 public class GameItem {
 
+    public static final int ALL_SHADOW_CASCADES = ~0;
+
     private boolean hovered;
     private boolean selected;
     private boolean highlighted;
@@ -24,6 +26,10 @@ public class GameItem {
 
     private boolean insideFrustum;
 
+    private boolean staticItem;
+
+    private int shadowCascades = ALL_SHADOW_CASCADES;
+
     public GameItem() {
     	selected = false;
         position = new Vector3f(0, 0, 0);
@@ -139,5 +145,27 @@ public class GameItem {
 
     public void setDisableFrustumCulling(boolean disableFrustumCulling) {
         this.disableFrustumCulling = disableFrustumCulling;
-    }    
+    }
+
+    /**
+     * Static items are not checked for moves by the frustum culling, they must be updated in the scene after moving
+     */
+    public boolean isStatic() {
+        return staticItem;
+    }
+
+    public void setStatic(boolean staticItem) {
+        this.staticItem = staticItem;
+    }
+
+    /**
+     * @return the bit set of the shadow cascades the item casts shadows in, bit i for cascade i
+     */
+    public int getShadowCascades() {
+        return shadowCascades;
+    }
+
+    public void setShadowCascades(int shadowCascades) {
+        this.shadowCascades = shadowCascades;
+    }
 }
@@ -7,9 +7,15 @@ public class Tile extends GameItem{
 	private int x;
 	private int y;
 	private int z;
+
+	/**
+	 * Height under which all the voxels of the tile are solid, 0 if the tile has a hole or is cut by the board edge
+	 */
+	private int solidHeight;
 	
 	public Tile(Mesh mesh, int x, int y, int z) {
 		super(mesh);
+		setStatic(true);
 		this.x = x;
 		this.y = y;
 		this.z = z;
@@ -38,6 +44,14 @@ public class Tile extends GameItem{
 	public void setZ(int z) {
 		this.z = z;
 	}
+
+	public int getSolidHeight() {
+		return solidHeight;
+	}
+
+	public void setSolidHeight(int solidHeight) {
+		this.solidHeight = solidHeight;
+	}
 	
 	@Override
 	public String toString() {
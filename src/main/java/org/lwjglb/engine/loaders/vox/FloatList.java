@@ -0,0 +1,75 @@
+package org.lwjglb.engine.loaders.vox;
+
+import java.nio.FloatBuffer;
+import java.util.Arrays;
+
+/**
+ * Growable list of primitive floats, used to build vertex streams without boxing.
+ */
+class FloatList {
+
+	private static final int DEFAULT_CAPACITY = 1024;
+
+	private float[] values;
+
+	private int size;
+
+	public FloatList() {
+		this(DEFAULT_CAPACITY);
+	}
+
+	public FloatList(int capacity) {
+		values = new float[Math.max(capacity, 1)];
+	}
+
+	public void add(float value) {
+		if (size == values.length) {
+			values = Arrays.copyOf(values, size * 2);
+		}
+		values[size++] = value;
+	}
+
+	public void add(float v0, float v1, float v2, float v3) {
+		ensureCapacity(size + 4);
+		values[size] = v0;
+		values[size + 1] = v1;
+		values[size + 2] = v2;
+		values[size + 3] = v3;
+		size += 4;
+	}
+
+	public void ensureCapacity(int capacity) {
+		if (capacity > values.length) {
+			values = Arrays.copyOf(values, Math.max(capacity, values.length * 2));
+		}
+	}
+
+	public float get(int index) {
+		return values[index];
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public void clear() {
+		size = 0;
+	}
+
+	/**
+	 * Appends the next count values of the buffer
+	 */
+	public void read(FloatBuffer buffer, int count) {
+		ensureCapacity(size + count);
+		buffer.get(values, size, count);
+		size += count;
+	}
+
+	public void write(FloatBuffer buffer) {
+		buffer.put(values, 0, size);
+	}
+
+	public float[] toArray() {
+		return Arrays.copyOf(values, size);
+	}
+}
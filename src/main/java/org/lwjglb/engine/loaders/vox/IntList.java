@@ -0,0 +1,77 @@
+package org.lwjglb.engine.loaders.vox;
+
+import java.nio.IntBuffer;
+import java.util.Arrays;
+
+import org.lwjgl.system.MemoryUtil;
+
+/**
+ * Growable list of primitive ints, used to build index streams without boxing.
+ */
+class IntList {
+
+	private static final int DEFAULT_CAPACITY = 1024;
+
+	private int[] values;
+
+	private int size;
+
+	public IntList() {
+		this(DEFAULT_CAPACITY);
+	}
+
+	public IntList(int capacity) {
+		values = new int[Math.max(capacity, 1)];
+	}
+
+	public void add(int value) {
+		if (size == values.length) {
+			values = Arrays.copyOf(values, size * 2);
+		}
+		values[size++] = value;
+	}
+
+	public void ensureCapacity(int capacity) {
+		if (capacity > values.length) {
+			values = Arrays.copyOf(values, Math.max(capacity, values.length * 2));
+		}
+	}
+
+	public int get(int index) {
+		return values[index];
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public void clear() {
+		size = 0;
+	}
+
+	/**
+	 * Appends the next count values of the buffer
+	 */
+	public void read(IntBuffer buffer, int count) {
+		ensureCapacity(size + count);
+		buffer.get(values, size, count);
+		size += count;
+	}
+
+	public void write(IntBuffer buffer) {
+		buffer.put(values, 0, size);
+	}
+
+	/**
+	 * @return the values, allocated with {@link MemoryUtil#memAllocInt(int)}
+	 */
+	public IntBuffer toBuffer() {
+		IntBuffer buffer = MemoryUtil.memAllocInt(size);
+		buffer.put(values, 0, size).flip();
+		return buffer;
+	}
+
+	public int[] toArray() {
+		return Arrays.copyOf(values, size);
+	}
+}
@@ -7,12 +7,43 @@ import org.lwjglb.engine.items.Board;
 public class VOXLoader {
 
     public static Mesh loadMesh(String fileName) throws Exception {
-    	SimpleVoxelFileReader vfr = new SimpleVoxelFileReader();
+    	return loadMesh(fileName, new VoxOptions());
+    }
+
+    public static Mesh loadMesh(String fileName, VoxOptions options) throws Exception {
+    	SimpleVoxelFileReader vfr = new SimpleVoxelFileReader(options);
     	return vfr.read(new File(fileName));
     }
     
     public static Board loadBoard(String fileName, int tileSize) throws Exception {
-    	BoardVoxelFileReader vfr = new BoardVoxelFileReader();
+    	return loadBoard(fileName, tileSize, new VoxOptions());
+    }
+    
+    public static Board loadBoard(String fileName, int tileSize, VoxOptions options) throws Exception {
+    	BoardVoxelFileReader vfr = new BoardVoxelFileReader(options);
     	return vfr.read(new File(fileName), tileSize);
     }
+    
+    public static class VoxOptions {
+
+        /*
+         * Merge coplanar faces with the same colour and surroundings into larger quads
+         */
+        public boolean greedyMeshing;
+
+        /*
+         * Mesh the tiles of a board on the common fork join pool, GL objects are still created on the calling thread
+         */
+        public boolean parallelMeshing = true;
+
+        /*
+         * Upload the voxels as VoxelMesh, 12 bytes per vertex instead of 104 for the float streams of Mesh
+         */
+        public boolean packedVertices;
+
+        /*
+         * Directory of the binary mesh cache, keyed by the content of the .vox files, null to always mesh the files
+         */
+        public File cacheDirectory;
+    }
 }
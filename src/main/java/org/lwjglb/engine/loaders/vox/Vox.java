@@ -21,7 +21,7 @@ public class Vox {
 			0xff880000, 0xff770000, 0xff550000, 0xff440000, 0xff220000, 0xff110000, 0xffeeeeee, 0xffdddddd, 0xffbbbbbb, 0xffaaaaaa, 0xff888888, 0xff777777, 0xff555555, 0xff444444, 0xff222222, 0xff111111
 	};
 
-	private Byte[][][] matrice;
+	private VoxelVolume volume;
 	
 	private int numVoxel;
 	
@@ -33,12 +33,12 @@ public class Vox {
     
     private int[] palette = DEFAULT_PALETTE;
 
-	public Byte[][][] getMatrice() {
-		return matrice;
+	public VoxelVolume getVolume() {
+		return volume;
 	}
 
-	public void setMatrice(Byte[][][] matrice) {
-		this.matrice = matrice;
+	public void setVolume(VoxelVolume volume) {
+		this.volume = volume;
 	}
 
 	public int getNumVoxel() {
@@ -0,0 +1,183 @@
+package org.lwjglb.engine.loaders.vox;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.lang.management.ManagementFactory;
+
+/**
+ * Measures the CPU side of the voxel loading pipeline (parsing and face extraction) for every .vox file
+ * of a directory, without any OpenGL context. Allocated bytes are read from the HotSpot thread MX bean.
+ * Board meshing is measured both sequentially and on the common fork join pool, parsing alone in MB and voxels per second,
+ * and board loading with an empty mesh cache against a cache hit.
+ * 
+ * Usage: VoxLoadBenchmark [directory] [iterations]
+ */
+public class VoxLoadBenchmark {
+
+	private static final int TILE_SIZE = 6;
+
+	public static void main(String[] args) throws Exception {
+		File directory = new File(args.length > 0 ? args[0] : "src/main/resources/models/untitled");
+		int iterations = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+
+		File[] files = directory.listFiles((dir, name) -> name.endsWith(".vox"));
+		if (files == null) {
+			throw new Exception("Not a directory: " + directory);
+		}
+
+		com.sun.management.ThreadMXBean threadBean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+		long threadId = Thread.currentThread().getId();
+		VOXLoader.VoxOptions greedyOptions = new VOXLoader.VoxOptions();
+		greedyOptions.greedyMeshing = true;
+		SimpleVoxelFileReader[] readers = {new SimpleVoxelFileReader(new VOXLoader.VoxOptions()), new SimpleVoxelFileReader(greedyOptions)};
+		VoxelMeshData meshData = new VoxelMeshData();
+
+		System.out.println(String.format("%-32s %-7s %10s %12s %12s %14s", "file", "mode", "vertices", "parse (ms)", "mesh (ms)", "mesh B/vertex"));
+		for (File file : files) {
+			for (SimpleVoxelFileReader reader : readers) {
+				benchmark(file, reader, meshData, iterations, threadBean, threadId);
+			}
+		}
+
+		System.out.println();
+		System.out.println(String.format("%-32s %10s %10s %12s %10s %14s", "file", "bytes", "voxels", "parse (ms)", "MB/s", "Mvoxels/s"));
+		for (File file : files) {
+			benchmarkParse(file, iterations);
+		}
+
+		VOXLoader.VoxOptions sequentialOptions = new VOXLoader.VoxOptions();
+		sequentialOptions.greedyMeshing = true;
+		sequentialOptions.parallelMeshing = false;
+		BoardVoxelFileReader[] boardReaders = {new BoardVoxelFileReader(sequentialOptions), new BoardVoxelFileReader(greedyOptions)};
+
+		System.out.println();
+		System.out.println(String.format("%-32s %-10s %10s %12s  (%d cores)", "file", "board", "tiles", "mesh (ms)", Runtime.getRuntime().availableProcessors()));
+		for (File file : files) {
+			for (BoardVoxelFileReader reader : boardReaders) {
+				benchmarkBoard(file, reader, iterations);
+			}
+		}
+
+		VOXLoader.VoxOptions cacheOptions = new VOXLoader.VoxOptions();
+		cacheOptions.greedyMeshing = true;
+		cacheOptions.cacheDirectory = Files.createTempDirectory("vox-cache").toFile();
+		VOXLoader.VoxOptions packedCacheOptions = new VOXLoader.VoxOptions();
+		packedCacheOptions.greedyMeshing = true;
+		packedCacheOptions.packedVertices = true;
+		packedCacheOptions.cacheDirectory = cacheOptions.cacheDirectory;
+		BoardVoxelFileReader[] cacheReaders = {new BoardVoxelFileReader(cacheOptions), new BoardVoxelFileReader(packedCacheOptions)};
+
+		System.out.println();
+		System.out.println(String.format("%-32s %-8s %14s %14s %12s", "file", "layout", "miss (ms)", "hit (ms)", "entry bytes"));
+		for (File file : files) {
+			for (BoardVoxelFileReader reader : cacheReaders) {
+				benchmarkCache(file, reader, iterations);
+			}
+		}
+		for (File entry : cacheOptions.cacheDirectory.listFiles()) {
+			Files.delete(entry.toPath());
+		}
+		Files.delete(cacheOptions.cacheDirectory.toPath());
+	}
+
+	/**
+	 * Times the CPU side of a board load: a miss parses, meshes and writes the entry, a hit only reads it back
+	 */
+	private static void benchmarkCache(File file, BoardVoxelFileReader reader, int iterations) throws Exception {
+		long missTime = 0;
+		long hitTime = 0;
+		for (int i = 0; i < 2 * iterations; i++) {
+			for (File entry : reader.options.cacheDirectory.listFiles()) {
+				Files.delete(entry.toPath());
+			}
+			long start = System.nanoTime();
+			loadTiles(file, reader);
+			long missed = System.nanoTime();
+			loadTiles(file, reader);
+			if (i >= iterations) {
+				missTime += missed - start;
+				hitTime += System.nanoTime() - missed;
+			}
+		}
+
+		long entryBytes = 0;
+		for (File entry : reader.options.cacheDirectory.listFiles()) {
+			entryBytes += entry.length();
+		}
+		System.out.println(String.format("%-32s %-8s %14.3f %14.3f %12d", file.getName(), reader.options.packedVertices ? "packed" : "streams", missTime / (iterations * 1e6),
+				hitTime / (iterations * 1e6), entryBytes));
+	}
+
+	private static void loadTiles(File file, BoardVoxelFileReader reader) throws Exception {
+		VoxelModelData model = reader.readModel(file, TILE_SIZE);
+		for (int t = 0; t < model.getTiles().size(); t++) {
+			model.getTiles().get(t).join();
+		}
+		reader.cacheModel(file, TILE_SIZE, model);
+	}
+
+	private static void benchmarkParse(File file, int iterations) throws Exception {
+		// Warm up
+		for (int i = 0; i < iterations; i++) {
+			new VoxParser().parse(file);
+		}
+
+		int voxels = 0;
+		long start = System.nanoTime();
+		for (int i = 0; i < iterations; i++) {
+			voxels = new VoxParser().parse(file).getNumVoxel();
+		}
+		double seconds = (System.nanoTime() - start) / (iterations * 1e9);
+
+		System.out.println(String.format("%-32s %10d %10d %12.3f %10.1f %14.1f", file.getName(), file.length(), voxels,
+				seconds * 1e3, file.length() / (seconds * 1e6), voxels / (seconds * 1e6)));
+	}
+
+	private static void benchmarkBoard(File file, BoardVoxelFileReader reader, int iterations) throws Exception {
+		Vox vox = reader.readVox(file);
+		// Warm up
+		for (int i = 0; i < iterations; i++) {
+			reader.buildTilesMeshData(vox, TILE_SIZE);
+		}
+
+		int tiles = 0;
+		long start = System.nanoTime();
+		for (int i = 0; i < iterations; i++) {
+			tiles = reader.buildTilesMeshData(vox, TILE_SIZE).size();
+		}
+		long meshTime = System.nanoTime() - start;
+
+		System.out.println(String.format("%-32s %-10s %10d %12.3f", file.getName(), reader.options.parallelMeshing ? "parallel" : "sequential",
+				tiles, meshTime / (iterations * 1e6)));
+	}
+
+	private static void benchmark(File file, SimpleVoxelFileReader reader, VoxelMeshData meshData, int iterations,
+		com.sun.management.ThreadMXBean threadBean, long threadId) throws Exception {
+		// Warm up
+		for (int i = 0; i < iterations; i++) {
+			Vox vox = reader.readVox(file);
+			meshData.clear();
+			reader.buildMeshData(vox, 0, 0, vox.getWidth(), vox.getDepth(), meshData);
+		}
+
+		long parseTime = 0;
+		long meshTime = 0;
+		long meshAllocated = 0;
+		for (int i = 0; i < iterations; i++) {
+			long start = System.nanoTime();
+			Vox vox = reader.readVox(file);
+			long parsed = System.nanoTime();
+			long allocatedBefore = threadBean.getThreadAllocatedBytes(threadId);
+			meshData.clear();
+			reader.buildMeshData(vox, 0, 0, vox.getWidth(), vox.getDepth(), meshData);
+			meshAllocated += threadBean.getThreadAllocatedBytes(threadId) - allocatedBefore;
+			meshTime += System.nanoTime() - parsed;
+			parseTime += parsed - start;
+		}
+
+		int vertices = meshData.getVertexCount();
+		System.out.println(String.format("%-32s %-7s %10d %12.3f %12.3f %14.2f", file.getName(), reader.options.greedyMeshing ? "greedy" : "faces", 
+				vertices, parseTime / (iterations * 1e6), meshTime / (iterations * 1e6),
+				vertices > 0 ? (double) meshAllocated / (iterations * (double) vertices) : 0));
+	}
+}
@@ -0,0 +1,341 @@
+package org.lwjglb.engine.loaders.vox;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reads a MagicaVoxel .vox file through a memory mapped, little-endian buffer.
+ *
+ * Every model of the file is placed with the transforms of the nTRN/nGRP/nSHP scene graph and merged into a single
+ * volume. Files without a scene graph keep each model at the origin. The voxel coordinates are swapped to the engine
+ * axes: the file x becomes the engine z, the file y becomes the engine x and the file z becomes the engine y.
+ */
+class VoxParser {
+
+	private static final int ID_VOX = magicValue('V', 'O', 'X', ' ');
+	private static final int ID_MAIN = magicValue('M', 'A', 'I', 'N');
+	private static final int ID_SIZE = magicValue('S', 'I', 'Z', 'E');
+	private static final int ID_XYZI = magicValue('X', 'Y', 'Z', 'I');
+	private static final int ID_RGBA = magicValue('R', 'G', 'B', 'A');
+	private static final int ID_NTRN = magicValue('n', 'T', 'R', 'N');
+	private static final int ID_NGRP = magicValue('n', 'G', 'R', 'P');
+	private static final int ID_NSHP = magicValue('n', 'S', 'H', 'P');
+
+	private static final int[] IDENTITY = {1, 0, 0, 0, 1, 0, 0, 0, 1};
+
+	private static class Model {
+		int sizeX;
+		int sizeY;
+		int sizeZ;
+		int voxelsOffset;
+		int numVoxel;
+	}
+
+	private static class Node {
+		int[] rotation = IDENTITY;
+		int[] translation = {0, 0, 0};
+		boolean hidden;
+		int[] children = {};
+		int[] models = {};
+	}
+
+	/**
+	 * A model placed in the file coordinates: position = rotation * (voxel - size / 2) + translation
+	 */
+	private static class Instance {
+		Model model;
+		int[] rotation;
+		int[] translation;
+	}
+
+	private final List<Model> models = new ArrayList<>();
+
+	private final Map<Integer, Node> nodes = new HashMap<>();
+
+	private int[] palette = Vox.DEFAULT_PALETTE;
+
+	public Vox parse(File file) throws Exception {
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			return parse(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+		}
+	}
+
+	public Vox parse(ByteBuffer content) throws Exception {
+		ByteBuffer buffer = content.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+		if (buffer.remaining() < 20 || buffer.getInt() != ID_VOX) {
+			throw new Exception("Not a valid .vox file.");
+		}
+		if (buffer.getInt() < 150) {
+			throw new Exception("Unsupported version.");
+		}
+		if (buffer.getInt() != ID_MAIN) {
+			throw new Exception("Main chunk expected.");
+		}
+		int mainContentSize = buffer.getInt();
+		int mainChildrenSize = buffer.getInt();
+		buffer.position(buffer.position() + mainContentSize);
+		int end = Math.min(buffer.limit(), buffer.position() + mainChildrenSize);
+
+		Model model = null;
+		while (buffer.position() + 12 <= end) {
+			int id = buffer.getInt();
+			int contentSize = buffer.getInt();
+			int childrenSize = buffer.getInt();
+			int next = buffer.position() + contentSize + childrenSize;
+			if (next > end) {
+				throw new Exception("Unexpected EOF.");
+			}
+
+			if (id == ID_SIZE) {
+				model = new Model();
+				model.sizeX = buffer.getInt();
+				model.sizeY = buffer.getInt();
+				model.sizeZ = buffer.getInt();
+			} else if (id == ID_XYZI) {
+				if (model == null) {
+					throw new Exception("XYZI chunk without SIZE chunk.");
+				}
+				model.numVoxel = buffer.getInt();
+				model.voxelsOffset = buffer.position();
+				if (model.voxelsOffset + model.numVoxel * 4 > next) {
+					throw new Exception("Unexpected EOF.");
+				}
+				models.add(model);
+				model = null;
+			} else if (id == ID_RGBA) {
+				readPalette(buffer);
+			} else if (id == ID_NTRN) {
+				readTransform(buffer);
+			} else if (id == ID_NGRP) {
+				readGroup(buffer);
+			} else if (id == ID_NSHP) {
+				readShape(buffer);
+			}
+			buffer.position(next);
+		}
+
+		if (models.isEmpty()) {
+			throw new Exception("No model found.");
+		}
+		return merge(buffer, getInstances());
+	}
+
+	private void readPalette(ByteBuffer buffer) {
+		palette = new int[256];
+		for (int p = 1; p < 256; p++) {
+			palette[p - 1] = patchColor(buffer.getInt());
+		}
+	}
+
+	private void readTransform(ByteBuffer buffer) {
+		Node node = new Node();
+		nodes.put(buffer.getInt(), node);
+		node.hidden = "1".equals(readDict(buffer).get("_hidden"));
+		node.children = new int[] {buffer.getInt()};
+		buffer.getInt(); // reserved
+		buffer.getInt(); // layer
+		int numFrames = buffer.getInt();
+		if (numFrames > 0) {
+			// only the first frame of an animation is used
+			Map<String, String> frame = readDict(buffer);
+			String rotation = frame.get("_r");
+			if (rotation != null) {
+				node.rotation = decodeRotation(Integer.parseInt(rotation.trim()));
+			}
+			String translation = frame.get("_t");
+			if (translation != null) {
+				String[] values = translation.trim().split("\\s+");
+				for (int i = 0; i < 3; i++) {
+					node.translation[i] = Integer.parseInt(values[i]);
+				}
+			}
+		}
+	}
+
+	private void readGroup(ByteBuffer buffer) {
+		Node node = new Node();
+		nodes.put(buffer.getInt(), node);
+		readDict(buffer);
+		node.children = new int[buffer.getInt()];
+		for (int i = 0; i < node.children.length; i++) {
+			node.children[i] = buffer.getInt();
+		}
+	}
+
+	private void readShape(ByteBuffer buffer) {
+		Node node = new Node();
+		nodes.put(buffer.getInt(), node);
+		readDict(buffer);
+		node.models = new int[buffer.getInt()];
+		for (int i = 0; i < node.models.length; i++) {
+			node.models[i] = buffer.getInt();
+			readDict(buffer);
+		}
+	}
+
+	private Map<String, String> readDict(ByteBuffer buffer) {
+		int size = buffer.getInt();
+		Map<String, String> dict = new HashMap<>();
+		for (int i = 0; i < size; i++) {
+			dict.put(readString(buffer), readString(buffer));
+		}
+		return dict;
+	}
+
+	private String readString(ByteBuffer buffer) {
+		byte[] bytes = new byte[buffer.getInt()];
+		buffer.get(bytes);
+		return new String(bytes, StandardCharsets.US_ASCII);
+	}
+
+	/**
+	 * The rotation is stored as a byte: bits 0-1 and 2-3 are the column of the non zero entry of the first and the
+	 * second rows, bits 4, 5 and 6 are the signs of the three rows.
+	 */
+	private int[] decodeRotation(int bits) {
+		int[] rotation = new int[9];
+		int column0 = bits & 3;
+		int column1 = (bits >> 2) & 3;
+		int column2 = 3 - column0 - column1;
+		rotation[column0] = (bits & 16) == 0 ? 1 : -1;
+		rotation[3 + column1] = (bits & 32) == 0 ? 1 : -1;
+		rotation[6 + column2] = (bits & 64) == 0 ? 1 : -1;
+		return rotation;
+	}
+
+	private List<Instance> getInstances() throws Exception {
+		List<Instance> instances = new ArrayList<>();
+		if (nodes.containsKey(0)) {
+			collectInstances(nodes.get(0), IDENTITY, new int[] {0, 0, 0}, instances, 0);
+		} else {
+			for (Model model : models) {
+				Instance instance = new Instance();
+				instance.model = model;
+				instance.rotation = IDENTITY;
+				instance.translation = new int[] {model.sizeX / 2, model.sizeY / 2, model.sizeZ / 2};
+				instances.add(instance);
+			}
+		}
+		if (instances.isEmpty()) {
+			throw new Exception("No visible model found.");
+		}
+		return instances;
+	}
+
+	private void collectInstances(Node node, int[] rotation, int[] translation, List<Instance> instances, int depth) throws Exception {
+		if (node.hidden) {
+			return;
+		}
+		if (depth > nodes.size()) {
+			throw new Exception("Cycle in the scene graph.");
+		}
+		// world = parent rotation * (rotation * p + translation) + parent translation
+		int[] worldRotation = multiply(rotation, node.rotation);
+		int[] worldTranslation = transform(rotation, node.translation, translation);
+		for (int modelId : node.models) {
+			if (modelId < 0 || modelId >= models.size()) {
+				throw new Exception("Invalid model reference " + modelId + ".");
+			}
+			Instance instance = new Instance();
+			instance.model = models.get(modelId);
+			instance.rotation = worldRotation;
+			instance.translation = worldTranslation;
+			instances.add(instance);
+		}
+		for (int child : node.children) {
+			Node childNode = nodes.get(child);
+			if (childNode != null) {
+				collectInstances(childNode, worldRotation, worldTranslation, instances, depth + 1);
+			}
+		}
+	}
+
+	private Vox merge(ByteBuffer buffer, List<Instance> instances) {
+		int[] min = {Integer.MAX_VALUE, Integer.MAX_VALUE, Integer.MAX_VALUE};
+		int[] max = {Integer.MIN_VALUE, Integer.MIN_VALUE, Integer.MIN_VALUE};
+		int[] position = new int[3];
+		for (Instance instance : instances) {
+			Model model = instance.model;
+			// rotations only permute and flip the axes, the corners are enough to bound the model
+			place(instance, 0, 0, 0, position);
+			expand(min, max, position);
+			place(instance, model.sizeX - 1, model.sizeY - 1, model.sizeZ - 1, position);
+			expand(min, max, position);
+		}
+
+		Vox vox = new Vox();
+		vox.setDepth(max[0] - min[0] + 1);
+		vox.setWidth(max[1] - min[1] + 1);
+		vox.setHeight(max[2] - min[2] + 1);
+		vox.setPalette(palette);
+		VoxelVolume volume = new VoxelVolume(vox.getWidth(), vox.getHeight(), vox.getDepth());
+		for (Instance instance : instances) {
+			Model model = instance.model;
+			int end = model.voxelsOffset + model.numVoxel * 4;
+			for (int offset = model.voxelsOffset; offset < end; offset += 4) {
+				int voxel = buffer.getInt(offset);
+				place(instance, voxel & 0xff, (voxel >> 8) & 0xff, (voxel >> 16) & 0xff, position);
+				volume.set(position[1] - min[1], position[2] - min[2], position[0] - min[0], (byte) (voxel >>> 24));
+			}
+		}
+		vox.setVolume(volume);
+		vox.setNumVoxel(volume.getNumVoxel());
+		return vox;
+	}
+
+	private void place(Instance instance, int x, int y, int z, int[] position) {
+		int localX = x - instance.model.sizeX / 2;
+		int localY = y - instance.model.sizeY / 2;
+		int localZ = z - instance.model.sizeZ / 2;
+		int[] rotation = instance.rotation;
+		for (int row = 0; row < 3; row++) {
+			position[row] = rotation[row * 3] * localX + rotation[row * 3 + 1] * localY + rotation[row * 3 + 2] * localZ + instance.translation[row];
+		}
+	}
+
+	private static void expand(int[] min, int[] max, int[] position) {
+		for (int i = 0; i < 3; i++) {
+			min[i] = Math.min(min[i], position[i]);
+			max[i] = Math.max(max[i], position[i]);
+		}
+	}
+
+	private static int[] multiply(int[] a, int[] b) {
+		int[] result = new int[9];
+		for (int row = 0; row < 3; row++) {
+			for (int column = 0; column < 3; column++) {
+				for (int k = 0; k < 3; k++) {
+					result[row * 3 + column] += a[row * 3 + k] * b[k * 3 + column];
+				}
+			}
+		}
+		return result;
+	}
+
+	private static int[] transform(int[] rotation, int[] vector, int[] translation) {
+		int[] result = new int[3];
+		for (int row = 0; row < 3; row++) {
+			result[row] = rotation[row * 3] * vector[0] + rotation[row * 3 + 1] * vector[1] + rotation[row * 3 + 2] * vector[2] + translation[row];
+		}
+		return result;
+	}
+
+	private static int magicValue(char c0, char c1, char c2, char c3) {
+		return (c3 << 24) | (c2 << 16) | (c1 << 8) | c0;
+	}
+
+	private static int patchColor(int rgba) {
+		int b = (rgba & 0x00ff0000) >> 16;
+		int g = (rgba & 0x0000ff00) >> 8;
+		int r = rgba & 0x000000ff;
+		return (0xff<<24) | (r<<16) | (g<<8) | b; //pixel
+	}
+}
@@ -1,25 +1,32 @@
 package org.lwjglb.engine.loaders.vox;
 
 import java.awt.image.BufferedImage;
-import java.io.BufferedInputStream;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ForkJoinPool;
 
 import javax.imageio.ImageIO;
 
-import org.apache.commons.lang3.ArrayUtils;
-import org.apache.commons.lang3.RandomUtils;
 import org.joml.AABBf;
 import org.joml.Vector3f;
+import org.lwjgl.system.MemoryUtil;
 import org.lwjglb.engine.Utils;
+import org.lwjglb.engine.graph.ArenaMesh;
 import org.lwjglb.engine.graph.Mesh;
+import org.lwjglb.engine.graph.MeshArena;
 import org.lwjglb.engine.graph.Texture;
+import org.lwjglb.engine.graph.VoxelMesh;
+import org.lwjglb.engine.loaders.vox.VoxelModelData.TileMeshData;
 
 abstract class VoxelFileReader {
 	
@@ -30,96 +37,118 @@ abstract class VoxelFileReader {
 	protected final static float[][] POSITIONS_FRONT_FACE = {{1f,0f,1f},{1f,1f,1f},{0f,1f,1f},{0f,0f,1f}};
 	protected final static float[][] POSITIONS_BACK_FACE = {{0f,0f,0f},{0f,1f,0f},{1f,1f,0f},{1f,0f,0f}};
 	
-	protected static class Chunk {
-		long id;
-		int contentSize;
-		int childrenSize;
+	protected final static Vector3f NORMAL_RIGHT = new Vector3f(1,0,0);
+	protected final static Vector3f NORMAL_LEFT = new Vector3f(-1,0,0);
+	protected final static Vector3f NORMAL_TOP = new Vector3f(0,1,0);
+	protected final static Vector3f NORMAL_BOTTOM = new Vector3f(0,-1,0);
+	protected final static Vector3f NORMAL_FRONT = new Vector3f(0,0,1);
+	protected final static Vector3f NORMAL_BACK = new Vector3f(0,0,-1);
+	
+	protected final static float[][][] FACE_POSITIONS = {POSITIONS_RIGHT_FACE, POSITIONS_LEFT_FACE, POSITIONS_TOP_FACE, POSITIONS_BOTTOM_FACE, POSITIONS_FRONT_FACE, POSITIONS_BACK_FACE};
+	protected final static Vector3f[] FACE_NORMALS = {NORMAL_RIGHT, NORMAL_LEFT, NORMAL_TOP, NORMAL_BOTTOM, NORMAL_FRONT, NORMAL_BACK};
+	
+	protected final VOXLoader.VoxOptions options;
+	
+	protected VoxelFileReader(VOXLoader.VoxOptions options) {
+		this.options = options;
 	}
-
-	protected byte[] buf = new byte[4];
 	
 	protected Vox readVox(File file) throws Exception {
-		BufferedInputStream input = new BufferedInputStream(new FileInputStream(file));
-		Chunk chunk = new Chunk();
-
-		if (read32(input) != magicValue('V', 'O', 'X', ' ')) {
-			throw new Exception("Not a valid .vox file.");
-		}
-
-		if (read32(input) < 150) {
-			throw new Exception("Unsupported version.");
-		}
-
-		readChunk(input, chunk);
-		if (chunk.id != magicValue('M', 'A', 'I', 'N')) {
-			throw new Exception("Main chunk expected.");
-		}
-
-		if (input.skip(chunk.contentSize) != chunk.contentSize) {
-			throw new Exception("Invalid number of bytes skipped.");
+		return new VoxParser().parse(file);
+	}
+	
+	/**
+	 * Reads the model meshed in tiles of tileSize, or as a single tile when tileSize is 0. When the mesh cache is
+	 * enabled and holds an entry for the content of the file, the tiles are read from it instead of being meshed. An
+	 * entry that can not be read is meshed again, the rebuilt model replaces it.
+	 */
+	protected VoxelModelData readModel(File file, int tileSize) throws Exception {
+		ByteBuffer content;
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			content = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
 		}
-
-		Vox vox = new Vox();
-		while(true) {
+		
+		long hash = 0;
+		if (options.cacheDirectory != null) {
+			hash = VoxelMeshCache.hash(content);
+			VoxelModelData model = null;
 			try {
-				readChunk(input, chunk);
-			} catch (IOException ignored) {
-				break;
-			}
-			if (chunk.id == magicValue('n', 'T', 'R', 'N')) {
-				//System.out.println(read32(input));
+				model = new VoxelMeshCache(options.cacheDirectory).read(file, getCacheVariant(tileSize), hash, options.packedVertices);
+			} catch (Exception e) {
+				System.err.println("Warning reading the mesh cache entry of " + file + ": " + e);
 			}
-			if (chunk.id == magicValue('S', 'I', 'Z', 'E')) {
-				readVoxSize(input, vox);
-			} else if (chunk.id == magicValue('X', 'Y', 'Z', 'I')) {
-				readVoxContent(input, vox);
-			} else if (chunk.id == magicValue('R', 'G', 'B', 'A')) {
-				readVoxPalette(input, vox);
-			} else {
-				skip(input, chunk);
+			if (model != null) {
+				model.setContent(content);
+				return model;
 			}
-
 		}
-		input.close();
-		return vox;
+		
+		Vox vox = new VoxParser().parse(content);
+		VoxelModelData model = new VoxelModelData(vox.getWidth(), vox.getHeight(), vox.getDepth(), vox.getPalette(), hash, false);
+		model.setVolume(vox.getVolume());
+		model.getTiles().addAll(submitTiles(vox, tileSize));
+		return model;
 	}
 	
-	private void readVoxSize(BufferedInputStream input, Vox vox) throws IOException {
-		vox.setDepth((int) read32(input));
-		vox.setWidth((int) read32(input));
-		vox.setHeight((int) read32(input));
+	/**
+	 * Writes the model to the mesh cache if it is enabled and the model was not read from it, waiting for its tiles.
+	 * The cache is only an optimization, a failure to write it is reported and the model is kept.
+	 */
+	protected void cacheModel(File file, int tileSize, VoxelModelData model) {
+		if (options.cacheDirectory == null || model.isCached()) {
+			return;
+		}
+		try {
+			new VoxelMeshCache(options.cacheDirectory).write(file, getCacheVariant(tileSize), model, options.packedVertices);
+		} catch (IOException e) {
+			System.err.println("Warning writing the mesh cache entry of " + file + ": " + e);
+		}
 	}
 	
-	private void readVoxContent(BufferedInputStream input, Vox vox) throws IOException {
-		vox.setNumVoxel((int) read32(input));
-		Byte[][][] matrice= new Byte[vox.getWidth()][vox.getHeight()][vox.getDepth()];
-		for (int v = 0; v < vox.getNumVoxel() ; v++) {
-			int z = input.read();
-			int x = input.read();
-			int y = input.read();
-			matrice[x][y][z] = (byte) (input.read() & 0xff);
+	private String getCacheVariant(int tileSize) {
+		return (tileSize > 0 ? "board" + tileSize : "mesh") + (options.greedyMeshing ? "-greedy" : "-faces") + (options.packedVertices ? "-packed" : "");
+	}
+	
+	/**
+	 * Builds the CPU side mesh data of every tile, in the order the tiles are added to the board
+	 */
+	public List<TileMeshData> buildTilesMeshData(Vox vox, int tileSize) {
+		List<TileMeshData> tilesData = new ArrayList<>();
+		for (CompletableFuture<TileMeshData> future : submitTiles(vox, tileSize)) {
+			tilesData.add(future.join());
 		}
-		vox.setMatrice(matrice);
+		return tilesData;
 	}
 	
-	private void readVoxPalette(BufferedInputStream input, Vox vox) throws Exception {
-		int[] palette = new int[256];
-		for (int p = 1; p < 256; p++) {
-			int rgba = (int) read32(input);
-			palette[p-1] = patchColor(rgba);
+	private List<CompletableFuture<TileMeshData>> submitTiles(Vox vox, int tileSize) {
+		List<CompletableFuture<TileMeshData>> futures = new ArrayList<>();
+		if (tileSize <= 0) {
+			futures.add(CompletableFuture.completedFuture(buildTileMeshData(vox, 0, 0, Math.max(vox.getWidth(), vox.getDepth()))));
+			return futures;
 		}
-		vox.setPalette(palette);
-		if (input.skip(4) != 4) {
-			throw new Exception("Unexpected EOF.");
+		// On a single core the workers would only compete with the uploading thread
+		boolean parallel = options.parallelMeshing && ForkJoinPool.getCommonPoolParallelism() > 1;
+		for (int xx = 0 ; xx < vox.getWidth() ; xx = xx + tileSize) {
+			for (int zz = 0 ; zz < vox.getDepth() ; zz = zz + tileSize) {
+				int minX = xx;
+				int minZ = zz;
+				if (parallel) {
+					futures.add(CompletableFuture.supplyAsync(() -> buildTileMeshData(vox, minX, minZ, tileSize), ForkJoinPool.commonPool()));
+				} else {
+					futures.add(CompletableFuture.completedFuture(buildTileMeshData(vox, minX, minZ, tileSize)));
+				}
+			}
 		}
+		return futures;
 	}
 	
-	private void skip(BufferedInputStream input, Chunk chunk) throws Exception {
-		// unexpected chunk, ignore & skip
-		int bytesToSkip = chunk.contentSize + chunk.childrenSize;
-		if (input.skip(bytesToSkip) != bytesToSkip) {
-			throw new Exception("Invalid number of bytes skipped.");
-		}
+	private TileMeshData buildTileMeshData(Vox vox, int minX, int minZ, int tileSize) {
+		int maxX = Math.min(minX + tileSize, vox.getWidth());
+		int maxZ = Math.min(minZ + tileSize, vox.getDepth());
+		int solidHeight = maxX - minX == tileSize && maxZ - minZ == tileSize ? getSolidHeight(vox, minX, minZ, maxX, maxZ) : 0;
+		TileMeshData tileData = new TileMeshData(minX, minZ, getMaxHeight(vox, minX, minZ, maxX, maxZ), solidHeight);
+		buildMeshData(vox, minX, minZ, maxX, maxZ, tileData.meshData);
+		return tileData;
 	}
 	
 	public static ByteBuffer convertImageData(BufferedImage bi) {
@@ -134,52 +163,32 @@ abstract class VoxelFileReader {
 	    return null;
 	}
 
-	protected void readChunk(BufferedInputStream input, Chunk chunk) throws IOException {
-		chunk.id = read32(input);
-		chunk.contentSize = (int) read32(input);
-		chunk.childrenSize = (int) read32(input);
-	}
-
-	protected long read32(BufferedInputStream input) throws IOException {
-		if (input.read(buf) < 4) {
-			throw new IOException();
-		}
-		return (buf[0] & 0xff) | ((buf[1] & 0xff) << 8) | ((buf[2] & 0xff) << 16) | ((buf[3] & 0xff) << 24);
-	}
-
-	protected long magicValue(char c0, char c1, char c2, char c3) {
-		return ((c3 << 24) & 0xff000000) | ((c2 << 16) & 0x00ff0000) | ((c1 << 8) & 0x0000ff00) | (c0 & 0x000000ff);
-	}
-
-	protected int patchColor(int rgba) {
-		int b = (rgba & 0x00ff0000) >> 16;
-		int g = (rgba & 0x0000ff00) >> 8;
-		int r = rgba & 0x000000ff;
-		return (0xff<<24) | (r<<16) | (g<<8) | b; //pixel
+	protected float getColorCoord(Vox vox, int x, int y, int z) {
+		return getColorCoord(vox.getVolume().getColor(x, y, z));
 	}
 	
-	protected float getColorCoord(Vox vox, int x, int y, int z) {
-		byte color = vox.getMatrice()[x][y][z];
+	protected float getColorCoord(byte color) {
 		return (1.0f + ((1.0f/256.0f) * color) - (1.0f/512.0f)) % 1;
 	}
 	
-	protected void addTextCoord(List<Float> textCoords, float colorCoord) {
+	protected void addTextCoord(FloatList textCoords, float colorCoord) {
 		for(int i = 0 ; i < 4 ; i++) {
 			textCoords.add(colorCoord);
 			textCoords.add(0.5f);
 		}
 	}
 	
-	protected void addIndices(List<Integer> indices) {
-		indices.add(0 + (indices.size() / 6) * 4);
-		indices.add(1 + (indices.size() / 6) * 4);
-		indices.add(2 + (indices.size() / 6) * 4);
-		indices.add(0 + (indices.size() / 6) * 4);
-		indices.add(2 + (indices.size() / 6) * 4);
-		indices.add(3 + (indices.size() / 6) * 4);
+	protected void addIndices(IntList indices) {
+		int offset = (indices.size() / 6) * 4;
+		indices.add(0 + offset);
+		indices.add(1 + offset);
+		indices.add(2 + offset);
+		indices.add(0 + offset);
+		indices.add(2 + offset);
+		indices.add(3 + offset);
 	}
 	
-	protected void addNormals(List<Float> normals, Vector3f normal) {
+	protected void addNormals(FloatList normals, Vector3f normal) {
 		for(int i = 0 ; i < 4 ; i++) {
 			normals.add(normal.x);
 			normals.add(normal.y);
@@ -187,60 +196,57 @@ abstract class VoxelFileReader {
 		}
 	}
 	
-	protected void addSurroundings(List<Float> surroundings, Vox vox, int x, int y, int z, Vector3f normal) {
-		boolean inBoundary = isInBoundary(vox, x, y, z, normal);
+	protected void addSurroundings(FloatList surroundings, int surroundingsBits) {
+		float s0 = (surroundingsBits & 1) != 0 ? 1f : 0f;
+		float s1 = (surroundingsBits & 2) != 0 ? 1f : 0f;
+		float s2 = (surroundingsBits & 4) != 0 ? 1f : 0f;
+		float s3 = (surroundingsBits & 8) != 0 ? 1f : 0f;
 		for(int i = 0 ; i < 4 ; i++) {
-			if(normal.x != 0) {
-				surroundings.add(inBoundary && y > 0 && vox.getMatrice()[x + (int) normal.x][y - 1][z] != null ? 1f : 0f);
-				surroundings.add(inBoundary && z > 0 && vox.getMatrice()[x + (int) normal.x][y][z - 1] != null ? 1f : 0f);
-				surroundings.add(inBoundary && y < vox.getHeight() - 1 && vox.getMatrice()[x + (int) normal.x][y + 1][z] != null ? 1f : 0f);
-				surroundings.add(inBoundary && z < vox.getDepth() - 1 && vox.getMatrice()[x + (int) normal.x][y][z + 1] != null ? 1f : 0f);
-			} else if(normal.y != 0) {
-				surroundings.add(inBoundary && x > 0 && vox.getMatrice()[x - 1][y + (int) normal.y][z] != null ? 1f : 0f);
-				surroundings.add(inBoundary && z > 0 && vox.getMatrice()[x][y + (int) normal.y][z - 1] != null ? 1f : 0f);
-				surroundings.add(inBoundary && x < vox.getWidth() - 1 && vox.getMatrice()[x + 1][y + (int) normal.y][z] != null ? 1f : 0f);
-				surroundings.add(inBoundary && z < vox.getDepth() - 1 && vox.getMatrice()[x][y + (int) normal.y][z + 1] != null ? 1f : 0f);
-			} else if(normal.z != 0) {
-				surroundings.add(inBoundary && x > 0 && vox.getMatrice()[x - 1][y][z + (int) normal.z] != null ? 1f : 0f);
-				surroundings.add(inBoundary && y > 0 && vox.getMatrice()[x][y - 1][z + (int) normal.z] != null ? 1f : 0f);
-				surroundings.add(inBoundary && x < vox.getWidth() - 1 && vox.getMatrice()[x + 1][y][z + (int) normal.z] != null ? 1f : 0f);
-				surroundings.add(inBoundary && y < vox.getHeight() - 1 && vox.getMatrice()[x][y + 1][z + (int) normal.z] != null ? 1f : 0f);
-			}
+			surroundings.add(s0, s1, s2, s3);
 		}
 	}
 	
-	protected void addSurroundingsDiag(List<Float> surroundingsDiag, Vox vox, int x, int y, int z, Vector3f normal) {
-		boolean inBoundary = isInBoundary(vox, x, y, z, normal);
-		for(int i = 0 ; i < 4 ; i++) {
-			if(normal.x != 0) {
-				surroundingsDiag.add(inBoundary && y > 0 && z > 0 && vox.getMatrice()[x + (int) normal.x][y - 1][z - 1] != null ? 1f : 0f);
-				surroundingsDiag.add(inBoundary && y > 0 && z < vox.getDepth() - 1 && vox.getMatrice()[x + (int) normal.x][y - 1][z + 1] != null ? 1f : 0f);
-				surroundingsDiag.add(inBoundary && y < vox.getHeight() - 1 && z < vox.getDepth() - 1 && vox.getMatrice()[x + (int) normal.x][y + 1][z + 1] != null ? 1f : 0f);
-				surroundingsDiag.add(inBoundary && y < vox.getHeight() - 1 && z > 0 && vox.getMatrice()[x + (int) normal.x][y + 1][z - 1] != null ? 1f : 0f);
-			} else if(normal.y != 0) {
-				surroundingsDiag.add(inBoundary && x > 0 && z > 0 && vox.getMatrice()[x - 1][y + (int) normal.y][z - 1] != null ? 1f : 0f);
-				surroundingsDiag.add(inBoundary && x > 0 && z < vox.getDepth() - 1 && vox.getMatrice()[x - 1][y + (int) normal.y][z + 1] != null ? 1f : 0f);
-				surroundingsDiag.add(inBoundary && x < vox.getWidth() - 1 && z < vox.getDepth() - 1 && vox.getMatrice()[x + 1][y + (int) normal.y][z + 1] != null ? 1f : 0f);
-				surroundingsDiag.add(inBoundary && x < vox.getWidth() - 1 && z > 0 && vox.getMatrice()[x + 1][y + (int) normal.y][z - 1] != null ? 1f : 0f);
-			} else if(normal.z != 0) {
-				surroundingsDiag.add(inBoundary && x > 0 && y > 0 && vox.getMatrice()[x - 1][y - 1][z + (int) normal.z] != null ? 1f : 0f);
-				surroundingsDiag.add(inBoundary && x > 0 && y < vox.getHeight() - 1 && vox.getMatrice()[x - 1][y + 1][z + (int) normal.z] != null ? 1f : 0f);
-				surroundingsDiag.add(inBoundary && x < vox.getWidth() - 1 && y < vox.getHeight() - 1 && vox.getMatrice()[x + 1][y + 1][z + (int) normal.z] != null ? 1f : 0f);
-				surroundingsDiag.add(inBoundary && x < vox.getWidth() - 1 && y > 0 && vox.getMatrice()[x + 1][y - 1][z + (int) normal.z] != null ? 1f : 0f);
-			}
+	/**
+	 * Occupancy of the four voxels sharing an edge with the face, in front of it, as a 4 bits mask
+	 */
+	protected int getSurroundings(VoxelVolume volume, int x, int y, int z, Vector3f normal) {
+		int fx = x + (int) normal.x;
+		int fy = y + (int) normal.y;
+		int fz = z + (int) normal.z;
+		if(normal.x != 0) {
+			return bit(volume, fx, fy - 1, fz, 1) | bit(volume, fx, fy, fz - 1, 2) | bit(volume, fx, fy + 1, fz, 4) | bit(volume, fx, fy, fz + 1, 8);
+		} else if(normal.y != 0) {
+			return bit(volume, fx - 1, fy, fz, 1) | bit(volume, fx, fy, fz - 1, 2) | bit(volume, fx + 1, fy, fz, 4) | bit(volume, fx, fy, fz + 1, 8);
+		} else {
+			return bit(volume, fx - 1, fy, fz, 1) | bit(volume, fx, fy - 1, fz, 2) | bit(volume, fx + 1, fy, fz, 4) | bit(volume, fx, fy + 1, fz, 8);
+		}
+	}
+	
+	/**
+	 * Occupancy of the four voxels sharing a corner with the face, in front of it, as a 4 bits mask
+	 */
+	protected int getSurroundingsDiag(VoxelVolume volume, int x, int y, int z, Vector3f normal) {
+		int fx = x + (int) normal.x;
+		int fy = y + (int) normal.y;
+		int fz = z + (int) normal.z;
+		if(normal.x != 0) {
+			return bit(volume, fx, fy - 1, fz - 1, 1) | bit(volume, fx, fy - 1, fz + 1, 2) | bit(volume, fx, fy + 1, fz + 1, 4) | bit(volume, fx, fy + 1, fz - 1, 8);
+		} else if(normal.y != 0) {
+			return bit(volume, fx - 1, fy, fz - 1, 1) | bit(volume, fx - 1, fy, fz + 1, 2) | bit(volume, fx + 1, fy, fz + 1, 4) | bit(volume, fx + 1, fy, fz - 1, 8);
+		} else {
+			return bit(volume, fx - 1, fy - 1, fz, 1) | bit(volume, fx - 1, fy + 1, fz, 2) | bit(volume, fx + 1, fy + 1, fz, 4) | bit(volume, fx + 1, fy - 1, fz, 8);
 		}
 	}
 	
-	private boolean isInBoundary(Vox vox, int x, int y, int z, Vector3f normal) {
-		return x + normal.x < vox.getWidth() 
-				&& x + normal.x >= 0 
-				&& y + normal.y < vox.getHeight()
-				&& y + normal.y >= 0 
-				&& z + normal.z < vox.getDepth()
-				&& z + normal.z >= 0;
+	private int bit(VoxelVolume volume, int x, int y, int z, int bit) {
+		return volume.isSolid(x, y, z) ? bit : 0;
 	}
 	
-	protected void addPositions(List<Float> positions, int x, int y, int z, float[][] positionsFace){
+	private boolean isExposed(VoxelVolume volume, int x, int y, int z, Vector3f normal) {
+		return volume.isEmpty(x + (int) normal.x, y + (int) normal.y, z + (int) normal.z);
+	}
+	
+	protected void addPositions(FloatList positions, int x, int y, int z, float[][] positionsFace){
 		for(int i = 0 ; i < 4 ; i++) {
 			positions.add(positionsFace[i][0] + x);
 			positions.add(positionsFace[i][1] + y);
@@ -248,21 +254,229 @@ abstract class VoxelFileReader {
 		}
 	}
 	
-	protected Mesh createMesh(List<Float> positions, List<Float> surroundings, List<Float> surroundingsDiag, List<Float> textCoords, List<Float> normals, List<Integer> indices, AABBf boundaryBox){
-		float[] positionsArray = ArrayUtils.toPrimitive(positions.toArray(new Float[positions.size()]));
-		float[] surroundingsArray = ArrayUtils.toPrimitive(surroundings.toArray(new Float[surroundings.size()]));
-		float[] surroundingsDiagArray = ArrayUtils.toPrimitive(surroundingsDiag.toArray(new Float[surroundingsDiag.size()]));
-		float[] textCoordsArray = ArrayUtils.toPrimitive(textCoords.toArray(new Float[textCoords.size()]));
-		float[] normalsArray = ArrayUtils.toPrimitive(normals.toArray(new Float[normals.size()]));
-		int[] indicesArray = ArrayUtils.toPrimitive(indices.toArray(new Integer[indices.size()]));
-		return new Mesh(positionsArray, surroundingsArray, surroundingsDiagArray, textCoordsArray, normalsArray, indicesArray, boundaryBox);
+	/**
+	 * Adds the positions of a face template stretched to cover sizeU x sizeV voxels along the face axes
+	 */
+	protected void addPositions(FloatList positions, int x, int y, int z, float[][] positionsFace, int axisU, int sizeU, int axisV, int sizeV){
+		for(int i = 0 ; i < 4 ; i++) {
+			for(int axis = 0 ; axis < 3 ; axis++) {
+				float size = axis == axisU ? sizeU : axis == axisV ? sizeV : 1;
+				int origin = axis == 0 ? x : axis == 1 ? y : z;
+				positions.add(positionsFace[i][axis] * size + origin);
+			}
+		}
+	}
+	
+	protected void addFace(VoxelMeshData meshData, Vox vox, int x, int y, int z, int offsetX, int offsetZ, float[][] positionsFace, Vector3f normal, float colorCoord) {
+		addPositions(meshData.getPositions(), x - offsetX, y, z - offsetZ, positionsFace);
+		addSurroundings(meshData.getSurroundings(), getSurroundings(vox.getVolume(), x, y, z, normal));
+		addSurroundings(meshData.getSurroundingsDiag(), getSurroundingsDiag(vox.getVolume(), x, y, z, normal));
+		addNormals(meshData.getNormals(), normal);
+		addIndices(meshData.getIndices());
+		addTextCoord(meshData.getTextCoords(), colorCoord);
+	}
+	
+	/**
+	 * Extracts the visible faces of the voxels in [minX, maxX[ x [minZ, maxZ[, over the whole height of the model.
+	 * Positions are relative to (minX, 0, minZ).
+	 */
+	protected void buildMeshData(Vox vox, int minX, int minZ, int maxX, int maxZ, VoxelMeshData meshData) {
+		if(options.greedyMeshing) {
+			buildGreedyMeshData(vox, minX, minZ, maxX, maxZ, meshData);
+			return;
+		}
+		VoxelVolume volume = vox.getVolume();
+		for (int x = minX ; x < maxX ; x++) {
+			for (int y = 0 ; y < vox.getHeight() ; y++) {
+				for (int z = minZ ; z < maxZ ; z++) {
+					if(volume.isSolid(x, y, z)) {
+						
+						float colorCoord = getColorCoord(vox, x, y, z);
+						
+						for(int face = 0 ; face < FACE_NORMALS.length ; face++) {
+							if(isExposed(volume, x, y, z, FACE_NORMALS[face])) {
+								addFace(meshData, vox, x, y, z, minX, minZ, FACE_POSITIONS[face], FACE_NORMALS[face], colorCoord);
+							}
+						}
+					}
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Same as {@link #buildMeshData(Vox, int, int, int, int, VoxelMeshData)} but merges coplanar faces sharing the
+	 * same colour and the same surroundings into larger quads. The ambient occlusion and the borders of voxel meshes
+	 * are computed per voxel in the shader from the world position, not from the corners of the quads, so the merged
+	 * faces keep the shading and the border of every voxel.
+	 */
+	protected void buildGreedyMeshData(Vox vox, int minX, int minZ, int maxX, int maxZ, VoxelMeshData meshData) {
+		VoxelVolume volume = vox.getVolume();
+		int[] min = {minX, 0, minZ};
+		int[] max = {maxX, vox.getHeight(), maxZ};
+		int[] cell = new int[3];
+		int maxMaskSize = Math.max((max[0] - min[0]) * (max[1] - min[1]), Math.max((max[1] - min[1]) * (max[2] - min[2]), (max[2] - min[2]) * (max[0] - min[0])));
+		int[] mask = new int[maxMaskSize];
+		
+		for(int face = 0 ; face < FACE_NORMALS.length ; face++) {
+			Vector3f normal = FACE_NORMALS[face];
+			int axisN = normal.x != 0 ? 0 : normal.y != 0 ? 1 : 2;
+			int axisU = (axisN + 1) % 3;
+			int axisV = (axisN + 2) % 3;
+			int sizeU = max[axisU] - min[axisU];
+			int sizeV = max[axisV] - min[axisV];
+			
+			for(int n = min[axisN] ; n < max[axisN] ; n++) {
+				// Build the mask of visible faces of this slice, each face keyed by its colour and surroundings
+				cell[axisN] = n;
+				for(int v = 0 ; v < sizeV ; v++) {
+					cell[axisV] = min[axisV] + v;
+					for(int u = 0 ; u < sizeU ; u++) {
+						cell[axisU] = min[axisU] + u;
+						int key = 0;
+						if(volume.isSolid(cell[0], cell[1], cell[2]) && isExposed(volume, cell[0], cell[1], cell[2], normal)) {
+							key = ((volume.getColor(cell[0], cell[1], cell[2]) & 0xff) + 1) 
+									| getSurroundings(volume, cell[0], cell[1], cell[2], normal) << 9 
+									| getSurroundingsDiag(volume, cell[0], cell[1], cell[2], normal) << 13;
+						}
+						mask[v * sizeU + u] = key;
+					}
+				}
+				
+				// Merge the faces in rectangles, first along u then along v
+				for(int v = 0 ; v < sizeV ; v++) {
+					for(int u = 0 ; u < sizeU ; ) {
+						int key = mask[v * sizeU + u];
+						if(key == 0) {
+							u++;
+							continue;
+						}
+						int width = 1;
+						while(u + width < sizeU && mask[v * sizeU + u + width] == key) {
+							width++;
+						}
+						int height = 1;
+						extend:
+						while(v + height < sizeV) {
+							for(int k = 0 ; k < width ; k++) {
+								if(mask[(v + height) * sizeU + u + k] != key) {
+									break extend;
+								}
+							}
+							height++;
+						}
+						for(int h = 0 ; h < height ; h++) {
+							for(int k = 0 ; k < width ; k++) {
+								mask[(v + h) * sizeU + u + k] = 0;
+							}
+						}
+						
+						cell[axisU] = u;
+						cell[axisV] = v;
+						cell[axisN] = n - min[axisN];
+						addPositions(meshData.getPositions(), cell[0], cell[1], cell[2], FACE_POSITIONS[face], axisU, width, axisV, height);
+						addSurroundings(meshData.getSurroundings(), (key >> 9) & 0xf);
+						addSurroundings(meshData.getSurroundingsDiag(), (key >> 13) & 0xf);
+						addNormals(meshData.getNormals(), normal);
+						addIndices(meshData.getIndices());
+						addTextCoord(meshData.getTextCoords(), getColorCoord((byte) ((key & 0x1ff) - 1)));
+						
+						u += width;
+					}
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Highest voxel of the model in [minX, maxX[ x [minZ, maxZ[
+	 */
+	protected int getMaxHeight(Vox vox, int minX, int minZ, int maxX, int maxZ) {
+		int maxHeight = 0;
+		for (int x = minX ; x < maxX ; x++) {
+			for (int z = minZ ; z < maxZ ; z++) {
+				for (int y = vox.getHeight() - 1 ; y > maxHeight ; y--) {
+					if(vox.getVolume().isSolid(x, y, z)) {
+						maxHeight = y;
+						break;
+					}
+				}
+			}
+		}
+		return maxHeight;
+	}
+	
+	/**
+	 * Height under which every voxel of the model in [minX, maxX[ x [minZ, maxZ[ is solid
+	 */
+	protected int getSolidHeight(Vox vox, int minX, int minZ, int maxX, int maxZ) {
+		int solidHeight = vox.getHeight();
+		for (int x = minX ; x < maxX ; x++) {
+			for (int z = minZ ; z < maxZ ; z++) {
+				int y = 0;
+				while (y < solidHeight && vox.getVolume().isSolid(x, y, z)) {
+					y++;
+				}
+				solidHeight = y;
+			}
+		}
+		return solidHeight;
+	}
+	
+	protected Mesh createMesh(TileMeshData tileData, AABBf boundaryBox){
+		if (options.packedVertices) {
+			return createPackedMesh(tileData, boundaryBox);
+		}
+		VoxelMeshData meshData = tileData.meshData;
+		return new Mesh(meshData.getPositions().toArray(), meshData.getSurroundings().toArray(), meshData.getSurroundingsDiag().toArray(), 
+				meshData.getTextCoords().toArray(), meshData.getNormals().toArray(), meshData.getIndices().toArray(), boundaryBox);
+	}
+	
+	/**
+	 * Creates a {@link VoxelMesh} from the packed vertices of the tile read from the mesh cache, or packs its vertex
+	 * streams
+	 */
+	protected Mesh createPackedMesh(TileMeshData tileData, AABBf boundaryBox) {
+		if (tileData.vertices != null) {
+			return new VoxelMesh(tileData.vertices, tileData.indices, boundaryBox);
+		}
+		ByteBuffer vertices = tileData.meshData.pack(0, 0);
+		IntBuffer indices = tileData.meshData.getIndices().toBuffer();
+		try {
+			return new VoxelMesh(vertices, indices, boundaryBox);
+		} finally {
+			MemoryUtil.memFree(vertices);
+			MemoryUtil.memFree(indices);
+		}
+	}
+	
+	/**
+	 * Adds the tile to the arena, from the packed vertices read from the mesh cache or by packing its vertex streams
+	 * translated to the origin of the tile
+	 */
+	protected ArenaMesh createArenaMesh(MeshArena arena, TileMeshData tileData, AABBf boundaryBox) {
+		if (tileData.vertices != null) {
+			return arena.add(tileData.vertices, tileData.indices, boundaryBox);
+		}
+		ByteBuffer vertices = tileData.meshData.pack(tileData.minX, tileData.minZ);
+		IntBuffer indices = tileData.meshData.getIndices().toBuffer();
+		try {
+			return arena.add(vertices, indices, boundaryBox);
+		} finally {
+			MemoryUtil.memFree(vertices);
+			MemoryUtil.memFree(indices);
+		}
 	}
 	
 	protected Texture createTexture(Vox vox) {
+		return createTexture(vox.getPalette());
+	}
+	
+	protected Texture createTexture(int[] palette) {
 		BufferedImage img = new BufferedImage(256, 1, BufferedImage.TYPE_INT_ARGB);
 
-		for (int c = 0; c < vox.getPalette().length - 1 ; c++) {
-			img.setRGB(c, 0, vox.getPalette()[c]);
+		for (int c = 0; c < palette.length - 1 ; c++) {
+			img.setRGB(c, 0, palette[c]);
 		}
         return new Texture(convertImageData(img));
 	}
@@ -0,0 +1,221 @@
+package org.lwjglb.engine.loaders.vox;
+
+import static org.lwjgl.util.xxhash.XXHash.XXH64;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.CompletableFuture;
+
+import org.lwjgl.system.MemoryUtil;
+import org.lwjglb.engine.graph.VoxelMesh;
+import org.lwjglb.engine.loaders.vox.VoxelModelData.TileMeshData;
+
+/**
+ * On-disk cache of meshed voxel models, keyed by the XXH64 hash of the .vox file content.
+ *
+ * An entry is named after the source file, a hash of its canonical path, the meshing variant and the content hash.
+ * Writing an entry deletes the other entries of the same source and variant, so an edited .vox file replaces its stale
+ * entry on the next load, while sources of the same name in other directories keep theirs.
+ *
+ * Entry layout (little-endian): magic, version, hash, width, height, depth, 256 palette colors, tile count, then for
+ * every tile minX, minZ, maxHeight, solidHeight, vertex count, index count, the vertices and the indices. Packed entries
+ * hold the {@link VoxelMesh} vertices translated to the origin of their tile, as the arena draws them, which the loader
+ * uploads straight from the mapped file. The other entries hold the vertex streams: positions, texture coordinates,
+ * normals, surroundings and diagonal surroundings.
+ */
+class VoxelMeshCache {
+
+	private static final int MAGIC = 'V' | 'X' << 8 | 'M' << 16 | 'C' << 24;
+
+	private static final int VERSION = 3;
+
+	private static final String EXTENSION = ".vxm";
+
+	private static final int HEADER_SIZE = 4 * 2 + 8 + 4 * 3 + 4 * 256 + 4;
+
+	private static final int TILE_HEADER_SIZE = 4 * 6;
+
+	private static final int STREAMS_VERTEX_SIZE = 4 * 16;
+
+	private final File directory;
+
+	public VoxelMeshCache(File directory) {
+		this.directory = directory;
+	}
+
+	public static long hash(ByteBuffer content) {
+		return XXH64(content, 0);
+	}
+
+	/**
+	 * @return the cached model, or null if there is no valid entry for this content. Counts that do not fit the entry
+	 * are rejected as a missing entry, other failures of a damaged entry are thrown.
+	 *
+	 * @param packed true to read the packed layout, the tiles then map their vertices and indices from the entry
+	 */
+	public VoxelModelData read(File source, String variant, long hash, boolean packed) throws IOException {
+		File entry = getEntry(source, variant, hash);
+		if (!entry.isFile()) {
+			return null;
+		}
+		ByteBuffer buffer;
+		try (FileChannel channel = FileChannel.open(entry.toPath(), StandardOpenOption.READ)) {
+			buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()).order(ByteOrder.LITTLE_ENDIAN);
+		}
+		if (buffer.remaining() < HEADER_SIZE || buffer.getInt() != MAGIC || buffer.getInt() != VERSION || buffer.getLong() != hash) {
+			return null;
+		}
+
+		int width = buffer.getInt();
+		int height = buffer.getInt();
+		int depth = buffer.getInt();
+		if (width < 0 || height < 0 || depth < 0) {
+			return null;
+		}
+		int[] palette = new int[256];
+		buffer.asIntBuffer().get(palette);
+		buffer.position(buffer.position() + 4 * palette.length);
+		VoxelModelData model = new VoxelModelData(width, height, depth, palette, hash, true);
+
+		int tileCount = buffer.getInt();
+		if (tileCount < 0) {
+			return null;
+		}
+		for (int t = 0; t < tileCount; t++) {
+			if (buffer.remaining() < TILE_HEADER_SIZE) {
+				return null;
+			}
+			TileMeshData tile = new TileMeshData(buffer.getInt(), buffer.getInt(), buffer.getInt(), buffer.getInt());
+			int vertexCount = buffer.getInt();
+			int indexCount = buffer.getInt();
+			long vertexSize = packed ? VoxelMesh.VERTEX_SIZE_BYTES : STREAMS_VERTEX_SIZE;
+			if (vertexCount < 0 || indexCount < 0 || buffer.remaining() < vertexSize * vertexCount + 4L * indexCount) {
+				return null;
+			}
+			if (packed) {
+				tile.vertices = slice(buffer, VoxelMesh.VERTEX_SIZE_BYTES * vertexCount);
+				tile.indices = slice(buffer, 4 * indexCount).order(ByteOrder.LITTLE_ENDIAN).asIntBuffer();
+				model.getTiles().add(CompletableFuture.completedFuture(tile));
+				continue;
+			}
+			VoxelMeshData meshData = tile.meshData;
+			meshData.getPositions().read(buffer.asFloatBuffer(), 3 * vertexCount);
+			buffer.position(buffer.position() + 4 * 3 * vertexCount);
+			meshData.getTextCoords().read(buffer.asFloatBuffer(), 2 * vertexCount);
+			buffer.position(buffer.position() + 4 * 2 * vertexCount);
+			meshData.getNormals().read(buffer.asFloatBuffer(), 3 * vertexCount);
+			buffer.position(buffer.position() + 4 * 3 * vertexCount);
+			meshData.getSurroundings().read(buffer.asFloatBuffer(), 4 * vertexCount);
+			buffer.position(buffer.position() + 4 * 4 * vertexCount);
+			meshData.getSurroundingsDiag().read(buffer.asFloatBuffer(), 4 * vertexCount);
+			buffer.position(buffer.position() + 4 * 4 * vertexCount);
+			meshData.getIndices().read(buffer.asIntBuffer(), indexCount);
+			buffer.position(buffer.position() + 4 * indexCount);
+			model.getTiles().add(CompletableFuture.completedFuture(tile));
+		}
+		return model;
+	}
+
+	/**
+	 * Next length bytes of the buffer, which is moved past them
+	 */
+	private static ByteBuffer slice(ByteBuffer buffer, int length) {
+		ByteBuffer slice = buffer.slice();
+		slice.limit(length);
+		buffer.position(buffer.position() + length);
+		return slice;
+	}
+
+	/**
+	 * Writes the entry of the model, all its tiles must be done, and deletes the stale entries of the same source
+	 *
+	 * @param packed true to write the packed layout
+	 */
+	public void write(File source, String variant, VoxelModelData model, boolean packed) throws IOException {
+		long hash = model.getContentHash();
+		long size = HEADER_SIZE;
+		long vertexSize = packed ? VoxelMesh.VERTEX_SIZE_BYTES : STREAMS_VERTEX_SIZE;
+		for (CompletableFuture<TileMeshData> tile : model.getTiles()) {
+			VoxelMeshData meshData = tile.join().meshData;
+			size += TILE_HEADER_SIZE + vertexSize * meshData.getVertexCount() + 4L * meshData.getIndices().size();
+		}
+		if (size > Integer.MAX_VALUE) {
+			return;
+		}
+
+		ByteBuffer buffer = ByteBuffer.allocate((int) size).order(ByteOrder.LITTLE_ENDIAN);
+		buffer.putInt(MAGIC).putInt(VERSION).putLong(hash);
+		buffer.putInt(model.getWidth()).putInt(model.getHeight()).putInt(model.getDepth());
+		for (int i = 0; i < 256; i++) {
+			buffer.putInt(i < model.getPalette().length ? model.getPalette()[i] : 0);
+		}
+		buffer.putInt(model.getTiles().size());
+		for (CompletableFuture<TileMeshData> future : model.getTiles()) {
+			TileMeshData tile = future.join();
+			VoxelMeshData meshData = tile.meshData;
+			buffer.putInt(tile.minX).putInt(tile.minZ).putInt(tile.maxHeight).putInt(tile.solidHeight);
+			buffer.putInt(meshData.getVertexCount()).putInt(meshData.getIndices().size());
+			if (packed) {
+				ByteBuffer vertices = meshData.pack(tile.minX, tile.minZ);
+				buffer.put(vertices);
+				MemoryUtil.memFree(vertices);
+				meshData.getIndices().write(buffer.asIntBuffer());
+				buffer.position(buffer.position() + 4 * meshData.getIndices().size());
+				continue;
+			}
+			meshData.getPositions().write(buffer.asFloatBuffer());
+			buffer.position(buffer.position() + 4 * meshData.getPositions().size());
+			meshData.getTextCoords().write(buffer.asFloatBuffer());
+			buffer.position(buffer.position() + 4 * meshData.getTextCoords().size());
+			meshData.getNormals().write(buffer.asFloatBuffer());
+			buffer.position(buffer.position() + 4 * meshData.getNormals().size());
+			meshData.getSurroundings().write(buffer.asFloatBuffer());
+			buffer.position(buffer.position() + 4 * meshData.getSurroundings().size());
+			meshData.getSurroundingsDiag().write(buffer.asFloatBuffer());
+			buffer.position(buffer.position() + 4 * meshData.getSurroundingsDiag().size());
+			meshData.getIndices().write(buffer.asIntBuffer());
+			buffer.position(buffer.position() + 4 * meshData.getIndices().size());
+		}
+		buffer.flip();
+
+		if (!directory.isDirectory() && !directory.mkdirs()) {
+			throw new IOException("Unable to create the cache directory " + directory);
+		}
+		File entry = getEntry(source, variant, hash);
+		File temporary = new File(directory, entry.getName() + ".tmp");
+		try {
+			try (FileChannel channel = FileChannel.open(temporary.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+				while (buffer.hasRemaining()) {
+					channel.write(buffer);
+				}
+			}
+			Files.move(temporary.toPath(), entry.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		} catch (IOException e) {
+			Files.deleteIfExists(temporary.toPath());
+			throw e;
+		}
+
+		String prefix = getPrefix(source, variant);
+		File[] stale = directory.listFiles((dir, name) -> name.startsWith(prefix) && name.endsWith(EXTENSION) && !name.equals(entry.getName()));
+		if (stale != null) {
+			for (File file : stale) {
+				Files.deleteIfExists(file.toPath());
+			}
+		}
+	}
+
+	private File getEntry(File source, String variant, long hash) throws IOException {
+		return new File(directory, getPrefix(source, variant) + String.format("%016x", hash) + EXTENSION);
+	}
+
+	private String getPrefix(File source, String variant) throws IOException {
+		int pathHash = source.getCanonicalFile().getPath().hashCode();
+		return source.getName() + "-" + String.format("%08x", pathHash) + "-" + variant + "-";
+	}
+}
@@ -0,0 +1,118 @@
+package org.lwjglb.engine.loaders.vox;
+
+import java.nio.ByteBuffer;
+
+import org.joml.Vector3f;
+import org.lwjgl.system.MemoryUtil;
+import org.lwjglb.engine.graph.VoxelMesh;
+
+/**
+ * CPU side vertex streams of a voxel mesh, filled face by face by the {@link VoxelFileReader} helpers.
+ */
+class VoxelMeshData {
+
+	private final FloatList positions;
+
+	private final FloatList surroundings;
+
+	private final FloatList surroundingsDiag;
+
+	private final FloatList textCoords;
+
+	private final FloatList normals;
+
+	private final IntList indices;
+
+	public VoxelMeshData() {
+		positions = new FloatList();
+		surroundings = new FloatList();
+		surroundingsDiag = new FloatList();
+		textCoords = new FloatList();
+		normals = new FloatList();
+		indices = new IntList();
+	}
+
+	public FloatList getPositions() {
+		return positions;
+	}
+
+	public FloatList getSurroundings() {
+		return surroundings;
+	}
+
+	public FloatList getSurroundingsDiag() {
+		return surroundingsDiag;
+	}
+
+	public FloatList getTextCoords() {
+		return textCoords;
+	}
+
+	public FloatList getNormals() {
+		return normals;
+	}
+
+	public IntList getIndices() {
+		return indices;
+	}
+
+	public int getVertexCount() {
+		return positions.size() / 3;
+	}
+
+	public void clear() {
+		positions.clear();
+		surroundings.clear();
+		surroundingsDiag.clear();
+		textCoords.clear();
+		normals.clear();
+		indices.clear();
+	}
+
+	/**
+	 * Packs the vertex streams in the {@link VoxelMesh} layout, translated by offsetX and offsetZ
+	 *
+	 * @return the packed vertices, allocated with {@link MemoryUtil#memAlloc(int)}
+	 */
+	public ByteBuffer pack(int offsetX, int offsetZ) {
+		int vertexCount = getVertexCount();
+		ByteBuffer vertices = MemoryUtil.memAlloc(vertexCount * VoxelMesh.VERTEX_SIZE_BYTES);
+		for (int v = 0 ; v < vertexCount ; v++) {
+			vertices.putShort((short) (positions.get(3 * v) + offsetX));
+			vertices.putShort((short) positions.get(3 * v + 1));
+			vertices.putShort((short) (positions.get(3 * v + 2) + offsetZ));
+			vertices.putShort((short) 0);
+			vertices.put((byte) getNormalIndex(normals.get(3 * v), normals.get(3 * v + 1), normals.get(3 * v + 2)));
+			vertices.put((byte) getColor(textCoords.get(2 * v)));
+			vertices.put((byte) (getSurroundingsBits(surroundings, v) | getSurroundingsBits(surroundingsDiag, v) << 4));
+			vertices.put((byte) (v % 4));
+		}
+		vertices.flip();
+		return vertices;
+	}
+
+	private int getNormalIndex(float x, float y, float z) {
+		for (int face = 0 ; face < VoxelFileReader.FACE_NORMALS.length ; face++) {
+			Vector3f normal = VoxelFileReader.FACE_NORMALS[face];
+			if (normal.x == x && normal.y == y && normal.z == z) {
+				return face;
+			}
+		}
+		throw new IllegalArgumentException("Not a voxel face normal: " + x + " " + y + " " + z);
+	}
+
+	/**
+	 * Inverse of {@link VoxelFileReader#getColorCoord(byte)}
+	 */
+	private int getColor(float colorCoord) {
+		return Math.round((colorCoord + 1.0f/512.0f) * 256.0f) & 0xff;
+	}
+
+	private int getSurroundingsBits(FloatList surroundings, int vertex) {
+		int bits = 0;
+		for (int i = 0 ; i < 4 ; i++) {
+			bits |= surroundings.get(4 * vertex + i) > 0 ? 1 << i : 0;
+		}
+		return bits;
+	}
+}
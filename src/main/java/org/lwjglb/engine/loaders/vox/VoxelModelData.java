@@ -0,0 +1,125 @@
+package org.lwjglb.engine.loaders.vox;
+
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Dimensions, palette and tiles of a voxel model, either meshed from the .vox file or read from the mesh cache.
+ * Tiles are futures so that the caller can upload the first ones while the others are still being meshed.
+ */
+class VoxelModelData {
+
+	private final int width;
+
+	private final int height;
+
+	private final int depth;
+
+	private final int[] palette;
+
+	private final List<CompletableFuture<TileMeshData>> tiles = new ArrayList<>();
+
+	private final long contentHash;
+
+	private final boolean cached;
+
+	private ByteBuffer content;
+
+	private VoxelVolume volume;
+
+	public VoxelModelData(int width, int height, int depth, int[] palette, long contentHash, boolean cached) {
+		this.width = width;
+		this.height = height;
+		this.depth = depth;
+		this.palette = palette;
+		this.contentHash = contentHash;
+		this.cached = cached;
+	}
+
+	public int getWidth() {
+		return width;
+	}
+
+	public int getHeight() {
+		return height;
+	}
+
+	public int getDepth() {
+		return depth;
+	}
+
+	public int[] getPalette() {
+		return palette;
+	}
+
+	public List<CompletableFuture<TileMeshData>> getTiles() {
+		return tiles;
+	}
+
+	/**
+	 * @return the hash of the .vox file content, only computed when the mesh cache is enabled
+	 */
+	public long getContentHash() {
+		return contentHash;
+	}
+
+	/**
+	 * @return true if the tiles come from the mesh cache
+	 */
+	public boolean isCached() {
+		return cached;
+	}
+
+	/**
+	 * @return the voxels of the model, parsed from the .vox file content on first use when the tiles come from the cache
+	 */
+	public VoxelVolume getVolume() throws Exception {
+		if (volume == null && content != null) {
+			volume = new VoxParser().parse(content).getVolume();
+			content = null;
+		}
+		return volume;
+	}
+
+	public void setVolume(VoxelVolume volume) {
+		this.volume = volume;
+	}
+
+	public void setContent(ByteBuffer content) {
+		this.content = content;
+	}
+
+	/**
+	 * CPU side mesh data of the columns [minX, minX + tileSize[ x [minZ, minZ + tileSize[ of the model
+	 */
+	static class TileMeshData {
+
+		final int minX;
+
+		final int minZ;
+
+		final int maxHeight;
+
+		final int solidHeight;
+
+		final VoxelMeshData meshData = new VoxelMeshData();
+
+		/**
+		 * Packed vertices and indices mapped from a packed mesh cache entry, in which case the vertex streams of
+		 * {@link #meshData} are empty. Null when the tile was meshed.
+		 */
+		ByteBuffer vertices;
+
+		IntBuffer indices;
+
+		TileMeshData(int minX, int minZ, int maxHeight, int solidHeight) {
+			this.minX = minX;
+			this.minZ = minZ;
+			this.maxHeight = maxHeight;
+			this.solidHeight = solidHeight;
+		}
+	}
+}
@@ -0,0 +1,27 @@
+package org.lwjglb.engine.loaders.vox;
+
+/**
+ * Result of a ray cast through a {@link VoxelVolume}: the voxel hit, the normal of the face the ray entered it
+ * through, zero when the ray starts inside of it, and the distance along the ray.
+ */
+public class VoxelRayHit {
+
+	public int x;
+
+	public int y;
+
+	public int z;
+
+	public int normalX;
+
+	public int normalY;
+
+	public int normalZ;
+
+	public float distance;
+
+	@Override
+	public String toString() {
+		return "(" + x + "," + y + "," + z + ") normal (" + normalX + "," + normalY + "," + normalZ + ") at " + distance;
+	}
+}
@@ -0,0 +1,209 @@
+package org.lwjglb.engine.loaders.vox;
+
+import org.joml.Vector3f;
+
+/**
+ * Dense voxel grid stored in a flat array of palette indices, plus an occupancy bitset for fast emptiness tests.
+ * Voxels are laid out with z varying fastest, then y, then x.
+ */
+public class VoxelVolume {
+
+	private final int width;
+
+	private final int height;
+
+	private final int depth;
+
+	private final byte[] colors;
+
+	private final long[] occupancy;
+
+	private int numVoxel;
+
+	public VoxelVolume(int width, int height, int depth) {
+		this.width = width;
+		this.height = height;
+		this.depth = depth;
+		int size = width * height * depth;
+		this.colors = new byte[size];
+		this.occupancy = new long[(size + 63) >>> 6];
+	}
+
+	public int getWidth() {
+		return width;
+	}
+
+	public int getHeight() {
+		return height;
+	}
+
+	public int getDepth() {
+		return depth;
+	}
+
+	public int getNumVoxel() {
+		return numVoxel;
+	}
+
+	public boolean isInside(int x, int y, int z) {
+		return x >= 0 && y >= 0 && z >= 0 && x < width && y < height && z < depth;
+	}
+
+	public int index(int x, int y, int z) {
+		return (x * height + y) * depth + z;
+	}
+
+	/**
+	 * @return true if there is a voxel at this position, false if it is empty or outside of the volume
+	 */
+	public boolean isSolid(int x, int y, int z) {
+		return isInside(x, y, z) && isSolid(index(x, y, z));
+	}
+
+	public boolean isSolid(int index) {
+		return (occupancy[index >>> 6] & (1L << index)) != 0;
+	}
+
+	public boolean isEmpty(int x, int y, int z) {
+		return !isSolid(x, y, z);
+	}
+
+	public byte getColor(int x, int y, int z) {
+		return colors[index(x, y, z)];
+	}
+
+	public byte getColor(int index) {
+		return colors[index];
+	}
+
+	public void set(int x, int y, int z, byte color) {
+		int index = index(x, y, z);
+		if (!isSolid(index)) {
+			occupancy[index >>> 6] |= 1L << index;
+			numVoxel++;
+		}
+		colors[index] = color;
+	}
+
+	public void clear(int x, int y, int z) {
+		int index = index(x, y, z);
+		if (isSolid(index)) {
+			occupancy[index >>> 6] &= ~(1L << index);
+			numVoxel--;
+		}
+		colors[index] = 0;
+	}
+
+	/**
+	 * Walks the voxels crossed by the ray with the Amanatides-Woo traversal, the cost is proportional to the number of
+	 * cells crossed. Coordinates are in voxels, the voxel (x, y, z) spanning [x, x + 1[ on each axis.
+	 *
+	 * @param dir direction of the ray, the distances are expressed in multiples of its length
+	 * @param hit filled with the first solid voxel, if any
+	 * @return true if the ray hits a solid voxel before maxDistance
+	 */
+	public boolean raycast(Vector3f origin, Vector3f dir, float maxDistance, VoxelRayHit hit) {
+		return raycast(origin, dir, maxDistance, false, hit);
+	}
+
+	/**
+	 * @return true if no solid voxel lies between the voxels containing from and to, these two being ignored
+	 */
+	public boolean hasLineOfSight(Vector3f from, Vector3f to) {
+		Vector3f dir = new Vector3f(to).sub(from);
+		VoxelRayHit hit = new VoxelRayHit();
+		if (!raycast(from, dir, 1, true, hit)) {
+			return true;
+		}
+		return hit.x == (int) Math.floor(to.x) && hit.y == (int) Math.floor(to.y) && hit.z == (int) Math.floor(to.z);
+	}
+
+	private boolean raycast(Vector3f origin, Vector3f dir, float maxDistance, boolean skipOrigin, VoxelRayHit hit) {
+		// Clip the ray to the bounds of the volume, remembering the axis it enters through
+		float tEnter = 0;
+		float tExit = maxDistance;
+		int enterAxis = -1;
+		for (int axis = 0; axis < 3; axis++) {
+			float o = origin.get(axis);
+			float d = dir.get(axis);
+			int size = axis == 0 ? width : axis == 1 ? height : depth;
+			if (d == 0) {
+				if (o < 0 || o >= size) {
+					return false;
+				}
+				continue;
+			}
+			float t0 = (0 - o) / d;
+			float t1 = (size - o) / d;
+			if (t0 > t1) {
+				float tmp = t0;
+				t0 = t1;
+				t1 = tmp;
+			}
+			if (t0 > tEnter) {
+				tEnter = t0;
+				enterAxis = axis;
+			}
+			tExit = Math.min(tExit, t1);
+		}
+		if (tEnter > tExit) {
+			return false;
+		}
+
+		int x = clamp((int) Math.floor(origin.x + dir.x * tEnter), width);
+		int y = clamp((int) Math.floor(origin.y + dir.y * tEnter), height);
+		int z = clamp((int) Math.floor(origin.z + dir.z * tEnter), depth);
+		int stepX = dir.x > 0 ? 1 : -1;
+		int stepY = dir.y > 0 ? 1 : -1;
+		int stepZ = dir.z > 0 ? 1 : -1;
+		float tDeltaX = dir.x != 0 ? Math.abs(1 / dir.x) : Float.POSITIVE_INFINITY;
+		float tDeltaY = dir.y != 0 ? Math.abs(1 / dir.y) : Float.POSITIVE_INFINITY;
+		float tDeltaZ = dir.z != 0 ? Math.abs(1 / dir.z) : Float.POSITIVE_INFINITY;
+		float tMaxX = dir.x != 0 ? (x + (stepX > 0 ? 1 : 0) - origin.x) / dir.x : Float.POSITIVE_INFINITY;
+		float tMaxY = dir.y != 0 ? (y + (stepY > 0 ? 1 : 0) - origin.y) / dir.y : Float.POSITIVE_INFINITY;
+		float tMaxZ = dir.z != 0 ? (z + (stepZ > 0 ? 1 : 0) - origin.z) / dir.z : Float.POSITIVE_INFINITY;
+
+		float t = tEnter;
+		int normalX = enterAxis == 0 ? -stepX : 0;
+		int normalY = enterAxis == 1 ? -stepY : 0;
+		int normalZ = enterAxis == 2 ? -stepZ : 0;
+		boolean skip = skipOrigin && enterAxis < 0;
+		while (true) {
+			if (!skip && isSolid(index(x, y, z))) {
+				hit.x = x;
+				hit.y = y;
+				hit.z = z;
+				hit.normalX = normalX;
+				hit.normalY = normalY;
+				hit.normalZ = normalZ;
+				hit.distance = t;
+				return true;
+			}
+			skip = false;
+			normalX = normalY = normalZ = 0;
+			if (tMaxX < tMaxY && tMaxX < tMaxZ) {
+				t = tMaxX;
+				tMaxX += tDeltaX;
+				x += stepX;
+				normalX = -stepX;
+			} else if (tMaxY < tMaxZ) {
+				t = tMaxY;
+				tMaxY += tDeltaY;
+				y += stepY;
+				normalY = -stepY;
+			} else {
+				t = tMaxZ;
+				tMaxZ += tDeltaZ;
+				z += stepZ;
+				normalZ = -stepZ;
+			}
+			if (t > tExit || !isInside(x, y, z)) {
+				return false;
+			}
+		}
+	}
+
+	private static int clamp(int value, int size) {
+		return Math.min(Math.max(value, 0), size - 1);
+	}
+}
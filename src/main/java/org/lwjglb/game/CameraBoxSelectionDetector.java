@@ -8,9 +8,15 @@ import org.lwjglb.engine.graph.Camera;
 import org.lwjglb.engine.items.Board;
 import org.lwjglb.engine.items.GameItem;
 import org.lwjglb.engine.items.Tile;
+import org.lwjglb.engine.loaders.vox.VoxelRayHit;
 
 public class CameraBoxSelectionDetector {
 
+    /**
+     * Height of the box of a tile under its top, used for picking
+     */
+    private static final int TILE_PICK_DEPTH = 4;
+
     private final Vector3f max;
 
     private final Vector3f min;
@@ -19,11 +25,18 @@ public class CameraBoxSelectionDetector {
 
     private Vector3f dir;
 
+    private Tile hoveredTile;
+
+    private final VoxelRayHit voxelHit;
+
+    private boolean hasVoxelHit;
+
     public CameraBoxSelectionDetector() {
         dir = new Vector3f();
         min = new Vector3f();
         max = new Vector3f();
         nearFar = new Vector2f();
+        voxelHit = new VoxelRayHit();
     }
 
     public void selectGameItem(GameItem[] gameItems, Camera camera) {        
@@ -58,25 +71,86 @@ public class CameraBoxSelectionDetector {
         return hovered;
     }
     
+    /**
+     * Hovers the tile owning the voxel under the ray when the board has its voxels, the closest tile box otherwise
+     */
     protected Tile hoverGameItem(Board board, Vector3f center, Vector3f dir) {
-        Tile hoveredTile = null;
-        float closestDistance = Float.POSITIVE_INFINITY;
+        clearHoveredTile();
+        hasVoxelHit = false;
+        if (board.getVolume() == null) {
+            return hoverTileBox(board, center, dir);
+        }
+        hoveredTile = board.pick(center, dir, Float.POSITIVE_INFINITY, voxelHit);
+        if (hoveredTile != null) {
+            hasVoxelHit = true;
+            hoveredTile.setHovered(true);
+        }
+        return hoveredTile;
+    }
+
+    /**
+     * Steps through the board cells crossed by the ray, in the order the ray enters them, so the first tile hit is the
+     * closest one and the cost depends on the length of the ray over the board only
+     */
+    private Tile hoverTileBox(Board board, Vector3f center, Vector3f dir) {
+        int tileSize = board.getTileSize();
+        min.set(0, -TILE_PICK_DEPTH, 0);
+        max.set(board.getColumns() * tileSize, board.getHeight(), board.getRows() * tileSize);
+        if (!Intersectionf.intersectRayAab(center, dir, min, max, nearFar) || nearFar.y < 0) {
+            return null;
+        }
+        float t = Math.max(nearFar.x, 0);
+        float tEnd = nearFar.y;
+
+        // Start in the cell where the ray enters the board
+        int x = Math.min(Math.max((int) Math.floor((center.x + dir.x * t) / tileSize), 0), board.getColumns() - 1);
+        int z = Math.min(Math.max((int) Math.floor((center.z + dir.z * t) / tileSize), 0), board.getRows() - 1);
+        int stepX = dir.x > 0 ? 1 : -1;
+        int stepZ = dir.z > 0 ? 1 : -1;
+        float tDeltaX = dir.x != 0 ? tileSize / Math.abs(dir.x) : Float.POSITIVE_INFINITY;
+        float tDeltaZ = dir.z != 0 ? tileSize / Math.abs(dir.z) : Float.POSITIVE_INFINITY;
+        float tMaxX = dir.x != 0 ? ((x + (stepX > 0 ? 1 : 0)) * tileSize - center.x) / dir.x : Float.POSITIVE_INFINITY;
+        float tMaxZ = dir.z != 0 ? ((z + (stepZ > 0 ? 1 : 0)) * tileSize - center.z) / dir.z : Float.POSITIVE_INFINITY;
 
-        for (Tile tile : board.getTiles()) {
-        	tile.setHovered(false);
-        	tile.setHighlighted(false);
-        	Vector3f tilePosition = tile.getPosition();
-            min.set(tile.getX() * board.getTileSize(), tile.getY() - 4, tile.getZ() * board.getTileSize());
-            max.set((tile.getX() * board.getTileSize()) + board.getTileSize(), tile.getY(), (tile.getZ() * board.getTileSize()) + board.getTileSize());
-            if (Intersectionf.intersectRayAab(center, dir, min, max, nearFar) && nearFar.x < closestDistance) {
-                closestDistance = nearFar.x;
-                hoveredTile = tile;
+        while (board.isInside(x, z) && t <= tEnd) {
+            Tile tile = board.getTile(x, z);
+            if (tile != null) {
+                min.set(tile.getX() * tileSize, tile.getY() - TILE_PICK_DEPTH, tile.getZ() * tileSize);
+                max.set((tile.getX() * tileSize) + tileSize, tile.getY(), (tile.getZ() * tileSize) + tileSize);
+                if (Intersectionf.intersectRayAab(center, dir, min, max, nearFar)) {
+                    hoveredTile = tile;
+                    hoveredTile.setHovered(true);
+                    return hoveredTile;
+                }
+            }
+            if (tMaxX < tMaxZ) {
+                t = tMaxX;
+                tMaxX += tDeltaX;
+                x += stepX;
+            } else {
+                t = tMaxZ;
+                tMaxZ += tDeltaZ;
+                z += stepZ;
             }
         }
+        return null;
+	}
 
+    public void clearHoveredTile() {
         if (hoveredTile != null) {
-        	hoveredTile.setHovered(true);
+            hoveredTile.setHovered(false);
+            hoveredTile = null;
         }
+    }
+
+    public Tile getHoveredTile() {
         return hoveredTile;
-	}
+    }
+
+    /**
+     * @return the voxel under the hovered tile, null when the tile was picked by its box
+     */
+    public VoxelRayHit getVoxelHit() {
+        return hasVoxelHit ? voxelHit : null;
+    }
 }
@@ -4,6 +4,7 @@ import org.joml.Vector2f;
 import org.joml.Vector3f;
 import static org.lwjgl.glfw.GLFW.*;
 
+import java.io.File;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -21,6 +22,7 @@ import org.lwjglb.engine.items.Board;
 import org.lwjglb.engine.items.GameItem;
 import org.lwjglb.engine.items.Player;
 import org.lwjglb.engine.items.SkyBox;
+import org.lwjglb.engine.items.Tile;
 import org.lwjglb.engine.loaders.vox.VOXLoader;
 
 public class DummyGame implements IGameLogic {
@@ -49,6 +51,10 @@ public class DummyGame implements IGameLogic {
     
     private MouseBoxSelectionDetector mbsd = new MouseBoxSelectionDetector();
 
+    private final List<Tile> reachableTiles = new ArrayList<>();
+
+    private final GameItem[] playerItems = new GameItem[1];
+
     public DummyGame() {
         renderer = new Renderer();
         camera = new Camera();
@@ -59,6 +65,18 @@ public class DummyGame implements IGameLogic {
         firstTime = true;
     }
 
+    /**
+     * Updates the given scene instead of the one built by {@link #init(Window)}, which needs a GL context
+     */
+    DummyGame(Scene scene) {
+        this();
+        this.scene = scene;
+    }
+
+    Camera getCamera() {
+        return camera;
+    }
+
     @Override
     public void init(Window window) throws Exception {
         renderer.init(window);
@@ -67,7 +85,11 @@ public class DummyGame implements IGameLogic {
 
         Mesh deerMesh = VOXLoader.loadMesh("src/main/resources/models/untitled/deer.vox");
         
-        Board board = VOXLoader.loadBoard("src/main/resources/models/untitled/toto.vox", 6);
+        VOXLoader.VoxOptions boardOptions = new VOXLoader.VoxOptions();
+        boardOptions.greedyMeshing = true;
+        boardOptions.cacheDirectory = new File("cache");
+        boardOptions.packedVertices = true;
+        Board board = VOXLoader.loadBoard("src/main/resources/models/untitled/toto.vox", 6, boardOptions);
         scene.setBoard(board);
 
         
@@ -192,42 +214,41 @@ public class DummyGame implements IGameLogic {
         camera.updateViewMatrix();
         if(scene.getBoard() != null) {
         	if(window.getWindowOptions().activeTile) {
-		    	mbsd.hoverGameItem(new GameItem[] {scene.getPlayer()}, window, mouseInput.getCurrentPos(), camera);
-		    	if(scene.getPlayer() != null && (scene.getPlayer().isHovered() || scene.getPlayer().isSelected())) {
-		    		scene.getBoard().getTiles().forEach(t -> {
-		    			t.setHighlighted(false);
-		    			t.setHovered(false);
-		    			int diffX = Math.abs(scene.getPlayer().getX() - t.getX());
-		    			int diffY = Math.abs(scene.getPlayer().getY() - t.getY());
-		    			int diffZ = Math.abs(scene.getPlayer().getZ() - t.getZ());
-		    			if(diffX + diffZ <= scene.getPlayer().getMovementRange() && diffY <= 4) {
+        		Board board = scene.getBoard();
+        		Player player = scene.getPlayer();
+		    	playerItems[0] = player;
+		    	mbsd.hoverGameItem(playerItems, window, mouseInput.getCurrentPos(), camera);
+		    	hud.getHighlightedTiles().forEach(t -> t.setHighlighted(false));
+		    	hud.getHighlightedTiles().clear();
+		    	if(player != null && (player.isHovered() || player.isSelected())) {
+		    		mbsd.clearHoveredTile();
+		    		board.getTilesInRange(player.getX(), player.getZ(), player.getMovementRange(), reachableTiles);
+		    		for (int i = 0; i < reachableTiles.size(); i++) {
+		    			Tile t = reachableTiles.get(i);
+		    			if(Math.abs(player.getY() - t.getY()) <= 4) {
 		    				t.setHighlighted(true);
+		    				hud.getHighlightedTiles().add(t);
 		    			}
-		    		});
+		    		}
+		    		reachableTiles.clear();
 		    	} else {
-		    		mbsd.hoverGameItem(scene.getBoard(), window, mouseInput.getCurrentPos(), camera);
+		    		mbsd.hoverGameItem(board, window, mouseInput.getCurrentPos(), camera);
 		    	}
 		    	
 		    	hud.getHoveredTiles().clear();
-		        hud.getSelectedTiles().clear();
-		        hud.getHighlightedTiles().clear();
-		        scene.getBoard().getTiles().forEach(t -> {
-		        	if (mouseInput.isLeftButtonPressed() && t.isHighlighted()) {
-		        		
-		        	}
-		        	if(t.isHovered()) {
-		        		hud.getHoveredTiles().add(t);
-		        	}
-		        	if(t.isSelected()) {
-		        		hud.getSelectedTiles().add(t);
-		        	}
-		        	if(t.isHighlighted()) {
-		        		hud.getHighlightedTiles().add(t);
-		        	}
-		        });
+		    	if(mbsd.getHoveredTile() != null) {
+		    		hud.getHoveredTiles().add(mbsd.getHoveredTile());
+		    	}
 	        }
-        	hud.setFrustrumMax(scene.getBoard().getTiles().size());
-	    	hud.setFrustrumShown(scene.getBoard().getTiles().stream().filter(t -> t.isInsideFrustum()).count());
+        	List<Tile> tiles = scene.getBoard().getTiles();
+        	int shown = 0;
+        	for (int i = 0; i < tiles.size(); i++) {
+        		if (tiles.get(i).isInsideFrustum()) {
+        			shown++;
+        		}
+        	}
+        	hud.setFrustrumMax(tiles.size());
+	    	hud.setFrustrumShown(shown);
         }
     }
 
@@ -18,6 +18,7 @@ import org.lwjgl.system.MemoryUtil;
 import static org.lwjgl.system.MemoryUtil.NULL;
 import org.lwjglb.engine.Utils;
 import org.lwjglb.engine.Window;
+import org.lwjglb.engine.graph.GLState;
 import org.lwjglb.engine.items.Tile;
 
 public class Hud {
@@ -41,6 +42,11 @@ public class Hud {
 
     private final List<Tile> highlightedTiles = new ArrayList<>();
 
+    /**
+     * Reused for every line drawn, nanovg copies the characters
+     */
+    private final StringBuilder line = new StringBuilder();
+
 
     public void init(Window window) throws Exception {
         this.vg = window.getOptions().antialiasing ? nvgCreate(NVG_ANTIALIAS | NVG_STENCIL_STROKES) : nvgCreate(NVG_STENCIL_STROKES);
@@ -64,21 +70,20 @@ public class Hud {
         nvgFontFace(vg, FONT_NAME);
         nvgTextAlign(vg, NVG_ALIGN_LEFT | NVG_ALIGN_TOP);
         nvgFillColor(vg, rgba(0x23, 0xa1, 0xf1, 255, colour));
-        nvgText(vg, 50, 25, "Fustrum culling: " + frustrumShown + "/" + frustrumMax + " item shown");
+        line.setLength(0);
+        line.append("Fustrum culling: ").append(frustrumShown).append('/').append(frustrumMax).append(" item shown");
+        nvgText(vg, 50, 25, line);
+        line.setLength(0);
+        line.append("GL binds: ").append(GLState.getIssuedCalls()).append(" issued, ").append(GLState.getElidedCalls()).append(" elided");
+        nvgText(vg, 500, 25, line);
         nvgText(vg, 50, 50, "Hovered:");
-        for(int i = 0 ; i < hoveredTiles.size() ; i++) {
-            nvgText(vg, 50, 75 + i * 25, hoveredTiles.get(i).toString());
-        }
+        renderTiles(50, hoveredTiles);
 
         nvgText(vg, 150, 50, "Selected:");
-        for(int i = 0 ; i < selectedTiles.size() ; i++) {
-            nvgText(vg, 150, 75 + i * 25, selectedTiles.get(i).toString());
-        }
+        renderTiles(150, selectedTiles);
 
         nvgText(vg, 250, 50, "Highlighted");
-        for(int i = 0 ; i < highlightedTiles.size() ; i++) {
-            nvgText(vg, 250, 75 + i * 25, highlightedTiles.get(i).toString());
-        }
+        renderTiles(250, highlightedTiles);
 
 
         nvgEndFrame(vg);
@@ -87,6 +92,16 @@ public class Hud {
         window.restoreState();
     }
     
+    private void renderTiles(float x, List<Tile> tiles) {
+        for(int i = 0 ; i < tiles.size() ; i++) {
+            Tile tile = tiles.get(i);
+            // Same text as Tile.toString
+            line.setLength(0);
+            line.append('(').append(tile.getX()).append(',').append(tile.getY()).append(',').append(tile.getZ()).append(')');
+            nvgText(vg, x, 75 + i * 25, line);
+        }
+    }
+
     private NVGColor rgba(int r, int g, int b, int a, NVGColor colour) {
         colour.r(r / 255.0f);
         colour.g(g / 255.0f);
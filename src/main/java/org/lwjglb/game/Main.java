@@ -16,6 +16,9 @@ public class Main {
             opts.compatibleProfile = true;
             opts.antialiasing = true;
             opts.frustumCulling = true;
+            opts.occlusionCulling = true;
+            opts.compactGBuffer = true;
+            opts.clusteredLights = true;
             opts.activeAmbiantOcclusion = true;
             opts.activeBorder = true;
             opts.activeShadow = 2;
@@ -0,0 +1,30 @@
+#version 330
+
+const int NUM_CASCADES = 3;
+
+layout (triangles) in;
+layout (triangle_strip, max_vertices = 9) out;
+
+uniform mat4 lightViewMatrix[NUM_CASCADES];
+uniform mat4 orthoProjectionMatrix[NUM_CASCADES];
+uniform int cascadeMask;
+
+void main()
+{
+    // Broadcast the triangle, in world space, to the layer of every cascade rendered
+    for (int layer = 0; layer < NUM_CASCADES; layer++)
+    {
+        if ((cascadeMask & (1 << layer)) == 0)
+        {
+            continue;
+        }
+        mat4 projLightViewMatrix = orthoProjectionMatrix[layer] * lightViewMatrix[layer];
+        for (int i = 0; i < 3; i++)
+        {
+            gl_Layer = layer;
+            gl_Position = projLightViewMatrix * gl_in[i].gl_Position;
+            EmitVertex();
+        }
+        EndPrimitive();
+    }
+}
@@ -11,10 +11,13 @@ layout (location=4) in ivec4 jointIndices;
 layout (location=5) in mat4 modelInstancedMatrix;
 
 uniform int isInstanced;
+uniform int isPacked;
 uniform mat4 modelNonInstancedMatrix;
-uniform mat4 lightViewMatrix;
 uniform mat4 jointsMatrix[MAX_JOINTS];
+#ifndef LAYERED
+uniform mat4 lightViewMatrix;
 uniform mat4 orthoProjectionMatrix;
+#endif
 
 void main()
 {
@@ -30,7 +33,8 @@ void main()
         modelMatrix = modelNonInstancedMatrix;
 
         int count = 0;
-        for(int i = 0; i < MAX_WEIGHTS; i++)
+        // Packed voxel meshes have no skinning data
+        for(int i = 0; i < MAX_WEIGHTS && isPacked == 0; i++)
         {
             float weight = jointWeights[i];
             if(weight > 0) {
@@ -45,5 +49,10 @@ void main()
             initPos = vec4(position, 1.0);
         }
     }
+#ifdef LAYERED
+    // The geometry shader projects the world position for each cascade
+    gl_Position = modelMatrix * initPos;
+#else
     gl_Position = orthoProjectionMatrix * lightViewMatrix * modelMatrix * initPos;
+#endif
 }
@@ -2,32 +2,40 @@
 
 out vec4 fragColor;
 
-struct DirectionalLight
-{
-    vec3 colour;
-    vec3 direction;
-    float intensity;
-};
-
+#ifndef COMPACT_GBUFFER
 uniform sampler2D positionsText;
+uniform sampler2D shadowText;
+#endif
 uniform sampler2D diffuseText;
 uniform sampler2D specularText;
 uniform sampler2D normalsText;
-uniform sampler2D shadowText;
 uniform sampler2D depthText;
 
-uniform vec2 screenSize;
-
-uniform mat4 viewMatrix;
 uniform float specularPower;
-uniform vec3 ambientLight;
-uniform DirectionalLight directionalLight;
 
 vec2 getTextCoord()
 {
     return gl_FragCoord.xy / screenSize;
 }
 
+#ifdef COMPACT_GBUFFER
+vec3 getViewPosition(vec2 textCoord, float depth)
+{
+    vec4 pos = invProjectionMatrix * vec4(vec3(textCoord, depth) * 2.0 - 1.0, 1.0);
+    return pos.xyz / pos.w;
+}
+
+vec3 decodeNormal(vec2 e)
+{
+    vec3 n = vec3(e, 1.0 - abs(e.x) - abs(e.y));
+    if (n.z < 0)
+    {
+        n.xy = (1.0 - abs(n.yx)) * vec2(n.x >= 0 ? 1.0 : -1.0, n.y >= 0 ? 1.0 : -1.0);
+    }
+    return normalize(n);
+}
+#endif
+
 vec4 calcLightColour(vec4 diffuseC, vec4 speculrC, float reflectance, vec3 light_colour, float light_intensity, vec3 position, vec3 to_light_dir, vec3 normal)
 {
     vec4 diffuseColour = vec4(0, 0, 0, 1);
@@ -48,9 +56,9 @@ vec4 calcLightColour(vec4 diffuseC, vec4 speculrC, float reflectance, vec3 light
     return (diffuseColour + specColour);
 }
 
-vec4 calcDirectionalLight(vec4 diffuseC, vec4 speculrC, float reflectance, DirectionalLight light, vec3 position, vec3 normal)
+vec4 calcDirectionalLight(vec4 diffuseC, vec4 speculrC, float reflectance, vec3 position, vec3 normal)
 {
-    return calcLightColour(diffuseC, speculrC, reflectance, light.colour, light.intensity, position, normalize(light.direction), normal);
+    return calcLightColour(diffuseC, speculrC, reflectance, lightColour, lightIntensity, position, normalize(lightDirection), normal);
 }
 
 void main()
@@ -60,6 +68,17 @@ void main()
     if ( depth == 1 ) {
         discard;
     }
+#ifdef COMPACT_GBUFFER
+    vec4 diffuseC = texture(diffuseText, textCoord);
+    vec4 speculrC = texture(specularText, textCoord);
+    vec3 normal  = decodeNormal(texture(normalsText, textCoord).xy);
+    float shadowFactor = diffuseC.a;
+    float reflectance = speculrC.a;
+    diffuseC.a = 1;
+    speculrC.a = 1;
+
+    vec4 mvVertexPos = vec4(getViewPosition(textCoord, depth), 1);
+#else
     vec3 worldPos = texture(positionsText, textCoord).xyz;
     vec4 diffuseC = texture(diffuseText, textCoord);
     vec4 speculrC = texture(specularText, textCoord);
@@ -69,10 +88,11 @@ void main()
 
     // Light calculations are done in view space
     vec4 mvVertexPos = viewMatrix * vec4(worldPos, 1);
+#endif
     vec4 mvNormal = viewMatrix * vec4(normal, 0);
 
     // Directional Light
-    vec4 diffuseSpecularComp = calcDirectionalLight(diffuseC, speculrC, reflectance, directionalLight, mvVertexPos.xyz, mvNormal.xyz);
+    vec4 diffuseSpecularComp = calcDirectionalLight(diffuseC, speculrC, reflectance, mvVertexPos.xyz, mvNormal.xyz);
 
     fragColor = clamp(diffuseC * vec4(ambientLight, 1) + diffuseSpecularComp * shadowFactor, 0, 1);
 }
@@ -9,17 +9,13 @@ struct Fog
     float density;
 };
 
+#ifndef COMPACT_GBUFFER
 uniform sampler2D positionsText;
+#endif
 uniform sampler2D depthText;
 uniform sampler2D sceneText;
 
-uniform vec2 screenSize;
-
-uniform mat4 viewMatrix;
 uniform Fog fog;
-uniform vec3 ambientLight;
-uniform vec3 lightColour;
-uniform float lightIntensity;
 
 vec2 getTextCoord()
 {
@@ -40,13 +36,18 @@ vec4 calcFog(vec3 pos, vec4 colour, Fog fog, vec3 ambientLight, vec3 lightColour
 void main()
 {
     vec2 textCoord = getTextCoord();
-    vec3 worldPos = texture(positionsText, textCoord).xyz;
-    vec4 colour = vec4(texture(sceneText, textCoord).xyz, 1);
-    vec4 mvVertexPos = viewMatrix * vec4(worldPos, 1);
     float depth = texture(depthText, textCoord).r;
     if ( depth == 1 ) {
         discard;
     }
+    vec4 colour = vec4(texture(sceneText, textCoord).xyz, 1);
+#ifdef COMPACT_GBUFFER
+    vec4 mvVertexPos = invProjectionMatrix * vec4(vec3(textCoord, depth) * 2.0 - 1.0, 1.0);
+    mvVertexPos /= mvVertexPos.w;
+#else
+    vec3 worldPos = texture(positionsText, textCoord).xyz;
+    vec4 mvVertexPos = viewMatrix * vec4(worldPos, 1);
+#endif
     if ( fog.activeFog == 1 )
     {
     	fragColor = calcFog(mvVertexPos.xyz, colour, fog, ambientLight, lightColour, lightIntensity);
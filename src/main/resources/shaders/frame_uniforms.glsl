@@ -0,0 +1,17 @@
+// Uniforms shared by the programs drawing a frame, inserted after the version line of their shaders. The layout is
+// std140 so that FrameUniforms can write the buffer, the arrays have one element per shadow cascade. NUM_CASCADES is
+// defined by FrameUniforms when the file is loaded.
+layout (std140) uniform FrameUniforms
+{
+    mat4 viewMatrix;
+    mat4 projectionMatrix;
+    mat4 invProjectionMatrix;
+    mat4 orthoProjectionMatrix[NUM_CASCADES];
+    mat4 lightViewMatrix[NUM_CASCADES];
+    vec4 cascadeFarPlanes;
+    vec3 ambientLight;
+    vec3 lightColour;
+    float lightIntensity;
+    vec3 lightDirection;
+    vec2 screenSize;
+};
\ No newline at end of file
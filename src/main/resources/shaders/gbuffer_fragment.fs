@@ -1,7 +1,5 @@
 #version 330
 
-const int NUM_CASCADES = 3;
-
 in float vs_hovered;
 in float vs_selected;
 in float vs_highlighted;
@@ -15,11 +13,18 @@ in vec4  vs_mvVertexPos;
 in vec4  vs_surroundings;
 in vec4  vs_surroundingsDiag;
 
+#ifdef COMPACT_GBUFFER
+// Shadow factor in the alpha of the diffuse colour, reflectance in the one of the specular colour
+layout (location = 0) out vec4 fs_diffuse;
+layout (location = 1) out vec4 fs_specular;
+layout (location = 2) out vec2 fs_normal;
+#else
 layout (location = 0) out vec3 fs_worldpos;
 layout (location = 1) out vec3 fs_diffuse;
 layout (location = 2) out vec3 fs_specular;
 layout (location = 3) out vec3 fs_normal;
 layout (location = 4) out vec2 fs_shadow;
+#endif
 
 struct Material
 {
@@ -35,13 +40,16 @@ uniform sampler2D normalMap;
 uniform sampler2D texture_border;
 uniform Material  material;
 
+#ifdef LAYERED_SHADOWS
+uniform sampler2DArray shadowMaps;
+#else
 uniform sampler2D shadowMap_0;
 uniform sampler2D shadowMap_1;
 uniform sampler2D shadowMap_2;
-uniform float cascadeFarPlanes[NUM_CASCADES];
-uniform mat4 orthoProjectionMatrix[NUM_CASCADES];
+#endif
 
 uniform int tileSize;
+uniform int isVoxel;
 
 uniform int renderShadow;
 uniform int renderBorder;
@@ -60,6 +68,15 @@ float getEaseInDiag(float x, float y){
 	return p >= 1 ? 1 : getEaseIn(p);
 }
 
+vec2 getBorderCoord(){
+	if(isVoxel == 0) {
+		return vs_bordercoord;
+	}
+	// Merged voxel faces span several voxels, the border is drawn around each of them from the position on the face
+	vec2 facePos = vs_normal.x != 0 ? vs_worldpos.yz : vs_normal.y != 0 ? vs_worldpos.xz : vs_worldpos.xy;
+	return 0.1 + 0.8 * fract(facePos);
+}
+
 vec3 calcAmbiantOcclusion(vec3 diffuseC, float normal, float pos1, float pos2){
 	if(normal != 0) {
 		if(vs_surroundings.x > 0){
@@ -139,8 +156,9 @@ void getColour(Material material, vec2 textCoord)
 		diffuseC = calcAmbiantOcclusion(diffuseC, vs_normal.z, vs_worldpos.x, vs_worldpos.y);
 	}
 	if(renderBorder == 1){
-		diffuseC = diffuseC * texture(texture_border, vs_bordercoord).xyz;
-		speculrC = speculrC * texture(texture_border, vs_bordercoord).xyz;
+		vec3 border = texture(texture_border, getBorderCoord()).xyz;
+		diffuseC = diffuseC * border;
+		speculrC = speculrC * border;
 	}
 }
 
@@ -170,6 +188,9 @@ float calcShadow(vec4 position, int idx)
 
     float shadowFactor = 0.0;
     vec2 inc;
+#ifdef LAYERED_SHADOWS
+    inc = 1.0 / textureSize(shadowMaps, 0).xy;
+#else
     if (idx == 0)
     {
         inc = 1.0 / textureSize(shadowMap_0, 0);
@@ -182,11 +203,15 @@ float calcShadow(vec4 position, int idx)
     {
         inc = 1.0 / textureSize(shadowMap_2, 0);
     }
+#endif
     for(int row = -1; row <= 1; ++row)
     {
         for(int col = -1; col <= 1; ++col)
         {
             float textDepth;
+#ifdef LAYERED_SHADOWS
+            textDepth = texture(shadowMaps, vec3(projCoords.xy + vec2(row, col) * inc, idx)).r;
+#else
             if (idx == 0)
             {
                 textDepth = texture(shadowMap_0, projCoords.xy + vec2(row, col) * inc).r; 
@@ -199,6 +224,7 @@ float calcShadow(vec4 position, int idx)
             {
                 textDepth = texture(shadowMap_2, projCoords.xy + vec2(row, col) * inc).r; 
             }
+#endif
             shadowFactor += projCoords.z - bias > textDepth ? 1.0 : 0.0;        
         }    
     }
@@ -212,15 +238,25 @@ float calcShadow(vec4 position, int idx)
     return 1 - shadowFactor;
 } 
 
+#ifdef COMPACT_GBUFFER
+// Projects the unit normal on the octahedron, the lower half folded over the upper one
+vec2 encodeNormal(vec3 n)
+{
+    n /= abs(n.x) + abs(n.y) + abs(n.z);
+    vec2 e = n.xy;
+    if (n.z < 0)
+    {
+        e = (1.0 - abs(n.yx)) * vec2(n.x >= 0 ? 1.0 : -1.0, n.y >= 0 ? 1.0 : -1.0);
+    }
+    return e;
+}
+#endif
+
 void main()
 {
     getColour(material, vs_textcoord);
     
-    fs_worldpos   = vs_worldpos;
-    
-    fs_diffuse    = diffuseC;
-    fs_specular   = speculrC;
-    fs_normal     = normalize(calcNormal(material, vs_normal, vs_textcoord, vs_modelMatrix));
+    vec3 normal = normalize(calcNormal(material, vs_normal, vs_textcoord, vs_modelMatrix));
 
     int idx;
     for (int i=0; i<NUM_CASCADES; i++)
@@ -231,5 +267,17 @@ void main()
             break;
         }
     }
-	fs_shadow  = vec2(calcShadow(vs_mlightviewVertexPos[idx], idx), material.reflectance);
+    float shadowFactor = calcShadow(vs_mlightviewVertexPos[idx], idx);
+#ifdef COMPACT_GBUFFER
+    fs_diffuse    = vec4(diffuseC, shadowFactor);
+    fs_specular   = vec4(speculrC, material.reflectance);
+    fs_normal     = encodeNormal(normal);
+#else
+    fs_worldpos   = vs_worldpos;
+    
+    fs_diffuse    = diffuseC;
+    fs_specular   = speculrC;
+    fs_normal     = normal;
+	fs_shadow  = vec2(shadowFactor, material.reflectance);
+#endif
 }
\ No newline at end of file
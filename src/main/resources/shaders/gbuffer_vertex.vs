@@ -2,7 +2,6 @@
 
 const int MAX_WEIGHTS = 4;
 const int MAX_JOINTS = 150;
-const int NUM_CASCADES = 3;
 
 layout (location=0) in vec3 position;
 layout (location=1) in vec2 texCoord;
@@ -10,21 +9,18 @@ layout (location=2) in vec3 vertexNormal;
 layout (location=3) in vec4 jointWeights;
 layout (location=4) in ivec4 jointIndices;
 layout (location=5) in mat4 modelInstancedMatrix;
-layout (location=6) in vec2 borderCoord;
 layout (location=7) in vec4 surroundings;
 layout (location=15) in vec4 surroundingsDiag;
 layout (location=9) in vec2 texOffset;
 layout (location=10) in float hoveredInstanced;
 layout (location=11) in float selectedInstanced;
 layout (location=12) in float highlightedInstanced;
+layout (location=14) in uvec4 packedAttributes;
 
 uniform int isInstanced;
-uniform mat4 viewMatrix;
-uniform mat4 projectionMatrix;
+uniform int isPacked;
 uniform mat4 modelNonInstancedMatrix;
 uniform mat4 jointsMatrix[MAX_JOINTS];
-uniform mat4 lightViewMatrix[NUM_CASCADES];
-uniform mat4 orthoProjectionMatrix[NUM_CASCADES];
 uniform int numCols;
 uniform int numRows;
 uniform float hoveredNonInstanced;
@@ -44,8 +40,27 @@ out float vs_hovered;
 out float vs_selected;
 out float vs_highlighted;
 
+// Packed voxel vertices index their normal in this order
+const vec3 PACKED_NORMALS[6] = vec3[](vec3(1, 0, 0), vec3(-1, 0, 0), vec3(0, 1, 0), vec3(0, -1, 0), vec3(0, 0, 1), vec3(0, 0, -1));
+// Corners of a quad, in the order its four vertices are emitted
+const vec2 BORDER_COORDS[4] = vec2[](vec2(0.1, 0.1), vec2(0.1, 0.9), vec2(0.9, 0.9), vec2(0.9, 0.1));
+
 void main()
 {
+    vec3 normal = vertexNormal;
+    vec2 vertexTexCoord = texCoord;
+    vec2 vertexBorderCoord = BORDER_COORDS[gl_VertexID % 4];
+    vec4 vertexSurroundings = surroundings;
+    vec4 vertexSurroundingsDiag = surroundingsDiag;
+    if ( isPacked > 0 )
+    {
+        normal = PACKED_NORMALS[int(packedAttributes.x)];
+        vertexTexCoord = vec2(mod(float(packedAttributes.y) / 256.0 - 1.0 / 512.0, 1.0), 0.5);
+        vertexSurroundings = vec4(notEqual(packedAttributes.zzzz & uvec4(1u, 2u, 4u, 8u), uvec4(0u)));
+        vertexSurroundingsDiag = vec4(notEqual(packedAttributes.zzzz & uvec4(16u, 32u, 64u, 128u), uvec4(0u)));
+        vertexBorderCoord = BORDER_COORDS[int(packedAttributes.w)];
+    }
+
     vec4 initPos = vec4(0, 0, 0, 0);
     vec4 initNormal = vec4(0, 0, 0, 0);
     mat4 modelMatrix;
@@ -57,7 +72,7 @@ void main()
         modelMatrix = modelInstancedMatrix;
 
         initPos = vec4(position, 1.0);
-        initNormal = vec4(vertexNormal, 0.0);
+        initNormal = vec4(normal, 0.0);
     }
     else
     {
@@ -67,7 +82,8 @@ void main()
         modelMatrix = modelNonInstancedMatrix;
 
         int count = 0;
-        for(int i = 0; i < MAX_WEIGHTS; i++)
+        // Packed voxel meshes have no skinning data
+        for(int i = 0; i < MAX_WEIGHTS && isPacked == 0; i++)
         {
             float weight = jointWeights[i];
             if(weight > 0) {
@@ -76,27 +92,27 @@ void main()
                 vec4 tmpPos = jointsMatrix[jointIndex] * vec4(position, 1.0);
                 initPos += weight * tmpPos;
 
-                vec4 tmpNormal = jointsMatrix[jointIndex] * vec4(vertexNormal, 0.0);
+                vec4 tmpNormal = jointsMatrix[jointIndex] * vec4(normal, 0.0);
                 initNormal += weight * tmpNormal;
             }
         }
         if (count == 0)
         {
             initPos = vec4(position, 1.0);
-            initNormal = vec4(vertexNormal, 0.0);
+            initNormal = vec4(normal, 0.0);
         }
     }
 	vs_mvVertexPos = viewMatrix * modelMatrix * initPos;
     gl_Position = projectionMatrix * vs_mvVertexPos;
 
     // Support for texture atlas, update texture coordinates
-    float x = (texCoord.x / numCols + texOffset.x);
-    float y = (texCoord.y / numRows + texOffset.y);
+    float x = (vertexTexCoord.x / numCols + texOffset.x);
+    float y = (vertexTexCoord.y / numRows + texOffset.y);
 
     vs_textcoord = vec2(x, y);
-    vs_bordercoord = borderCoord;
-    vs_surroundings = surroundings;
-    vs_surroundingsDiag = surroundingsDiag;
+    vs_bordercoord = vertexBorderCoord;
+    vs_surroundings = vertexSurroundings;
+    vs_surroundingsDiag = vertexSurroundingsDiag;
     vs_worldpos = (modelMatrix * initPos).xyz;
     vs_normal = normalize(modelMatrix * initNormal).xyz;
 
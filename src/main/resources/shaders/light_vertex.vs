@@ -1,7 +1,6 @@
 #version 330
 
 layout (location=0) in vec3 position;
-uniform mat4 projectionMatrix;
 uniform mat4 modelMatrix;
 
 void main()
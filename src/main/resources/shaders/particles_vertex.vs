@@ -9,9 +9,6 @@ layout (location=10) in float scale;
 
 out vec2 outTexCoord;
 
-uniform mat4 viewMatrix;
-uniform mat4 projectionMatrix;
-
 uniform int numCols;
 uniform int numRows;
 
@@ -18,24 +18,54 @@ struct PointLight
     Attenuation att;
 };
 
+#ifndef COMPACT_GBUFFER
 uniform sampler2D positionsText;
+uniform sampler2D shadowText;
+#endif
 uniform sampler2D diffuseText;
 uniform sampler2D specularText;
 uniform sampler2D normalsText;
-uniform sampler2D shadowText;
 uniform sampler2D depthText;
 
-uniform vec2 screenSize;
-
-uniform mat4 viewMatrix;
 uniform float specularPower;
+#ifdef CLUSTERED_LIGHTS
+// Must match LightClusters
+const int TILES_X = 16;
+const int TILES_Y = 9;
+const int SLICES = 24;
+const float FIRST_SLICE_DEPTH = 1.0;
+
+uniform samplerBuffer lightsData;
+uniform isamplerBuffer clustersData;
+uniform isamplerBuffer lightIndices;
+uniform float sliceScale;
+#else
 uniform PointLight pointLight;
+#endif
 
 vec2 getTextCoord()
 {
     return gl_FragCoord.xy / screenSize;
 }
 
+#ifdef COMPACT_GBUFFER
+vec3 getViewPosition(vec2 textCoord, float depth)
+{
+    vec4 pos = invProjectionMatrix * vec4(vec3(textCoord, depth) * 2.0 - 1.0, 1.0);
+    return pos.xyz / pos.w;
+}
+
+vec3 decodeNormal(vec2 e)
+{
+    vec3 n = vec3(e, 1.0 - abs(e.x) - abs(e.y));
+    if (n.z < 0)
+    {
+        n.xy = (1.0 - abs(n.yx)) * vec2(n.x >= 0 ? 1.0 : -1.0, n.y >= 0 ? 1.0 : -1.0);
+    }
+    return normalize(n);
+}
+#endif
+
 vec4 calcLightColour(vec4 diffuseC, vec4 speculrC, float reflectance, vec3 light_colour, float light_intensity, vec3 position, vec3 to_light_dir, vec3 normal)
 {
     vec4 diffuseColour = vec4(0, 0, 0, 1);
@@ -76,6 +106,17 @@ void main()
     if ( depth == 1 ) {
         discard;
     }
+#ifdef COMPACT_GBUFFER
+    vec4 diffuseC = texture(diffuseText, textCoord);
+    vec4 speculrC = texture(specularText, textCoord);
+    vec3 normal  = decodeNormal(texture(normalsText, textCoord).xy);
+    float shadowFactor = diffuseC.a;
+    float reflectance = speculrC.a;
+    diffuseC.a = 1;
+    speculrC.a = 1;
+
+    vec4 mvVertexPos = vec4(getViewPosition(textCoord, depth), 1);
+#else
     vec3 worldPos = texture(positionsText, textCoord).xyz;
     vec4 diffuseC = texture(diffuseText, textCoord);
     vec4 speculrC = texture(specularText, textCoord);
@@ -84,7 +125,28 @@ void main()
 	float reflectance = texture(shadowText, textCoord).g;
 
     vec4 mvVertexPos = viewMatrix * vec4(worldPos, 1);
+#endif
     vec4 mvNormal = viewMatrix * vec4(normal, 0);
 
+#ifdef CLUSTERED_LIGHTS
+    ivec2 tile = min(ivec2(textCoord * vec2(TILES_X, TILES_Y)), ivec2(TILES_X - 1, TILES_Y - 1));
+    float viewDepth = -mvVertexPos.z;
+    int slice = viewDepth < FIRST_SLICE_DEPTH ? 0 : 1 + min(int(log(viewDepth / FIRST_SLICE_DEPTH) * sliceScale), SLICES - 2);
+    ivec2 cluster = texelFetch(clustersData, (slice * TILES_Y + tile.y) * TILES_X + tile.x).xy;
+
+    vec4 colour = vec4(0);
+    for (int i = 0; i < cluster.y; i++)
+    {
+        int light = texelFetch(lightIndices, cluster.x + i).x * 3;
+        vec4 positionIntensity = texelFetch(lightsData, light);
+        vec4 colourConstant = texelFetch(lightsData, light + 1);
+        vec4 attenuation = texelFetch(lightsData, light + 2);
+        PointLight pointLight = PointLight(colourConstant.rgb, positionIntensity.xyz, positionIntensity.w,
+            Attenuation(colourConstant.w, attenuation.x, attenuation.y));
+        colour += calcPointLight(diffuseC, speculrC, reflectance, pointLight, mvVertexPos.xyz, mvNormal.xyz);
+    }
+	fragColor = colour * shadowFactor;
+#else
 	fragColor = calcPointLight(diffuseC, speculrC, reflectance, pointLight, mvVertexPos.xyz, mvNormal.xyz) * shadowFactor; 
+#endif
 }
\ No newline at end of file
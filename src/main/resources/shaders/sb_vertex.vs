@@ -7,7 +7,6 @@ layout (location=2) in vec3 vertexNormal;
 out vec2 outTexCoord;
 
 uniform mat4 modelViewMatrix;
-uniform mat4 projectionMatrix;
 
 void main()
 {
@@ -0,0 +1,219 @@
+package org.lwjglb.game;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.joml.AABBf;
+import org.joml.Matrix4f;
+import org.joml.Vector3f;
+import org.lwjglb.engine.MouseInput;
+import org.lwjglb.engine.Scene;
+import org.lwjglb.engine.SceneLight;
+import org.lwjglb.engine.Window;
+import org.lwjglb.engine.graph.Camera;
+import org.lwjglb.engine.graph.FrustumCullingFilter;
+import org.lwjglb.engine.graph.LightClusters;
+import org.lwjglb.engine.graph.Mesh;
+import org.lwjglb.engine.graph.OcclusionCuller;
+import org.lwjglb.engine.graph.RenderQueue;
+import org.lwjglb.engine.graph.lights.DirectionalLight;
+import org.lwjglb.engine.graph.lights.PointLight;
+import org.lwjglb.engine.graph.shadow.ShadowCascade;
+import org.lwjglb.engine.graph.shadow.ShadowRenderer;
+import org.lwjglb.engine.items.Board;
+import org.lwjglb.engine.items.Player;
+import org.lwjglb.engine.items.Tile;
+import org.lwjglb.engine.loaders.vox.VoxelVolume;
+
+/**
+ * Runs the CPU side work of a frame, culling, light binning and the game update, on a board built without a GL context
+ * and checks that once warmed up it allocates nothing on the game loop thread.
+ */
+public class FrameAllocationTest extends TestCase {
+
+    private static final int WARM_UP_FRAMES = 500;
+
+    private static final int FRAMES = 200;
+
+    private static final int MAX_WINDOWS = 5;
+
+    private static final int BOARD_SIZE = 64;
+
+    private static final int BOARD_HEIGHT = 16;
+
+    private static final int TILE_SIZE = 8;
+
+    private static final int NUM_POINT_LIGHTS = 32;
+
+    private Window window;
+
+    private MouseInput mouseInput;
+
+    private Camera camera;
+
+    private Scene scene;
+
+    private DummyGame game;
+
+    private FrustumCullingFilter frustumFilter;
+
+    private OcclusionCuller occlusionCuller;
+
+    private LightClusters lightClusters;
+
+    private List<ShadowCascade> shadowCascades;
+
+    private int frame;
+
+    private int drawn;
+
+    @Override
+    protected void setUp() {
+        Window.WindowOptions opts = new Window.WindowOptions();
+        opts.activeTile = true;
+        window = new Window("test", 1280, 720, false, opts);
+        window.updateProjectionMatrix();
+        mouseInput = new MouseInput();
+        mouseInput.getCurrentPos().set(640, 360);
+
+        scene = new Scene();
+        scene.setBoard(createBoard());
+        Player player = new Player(new BoxMesh(new AABBf(0, 0, 0, 1, 2, 1)), 4, BOARD_HEIGHT / 2, 4);
+        player.setPosition(4 * TILE_SIZE, BOARD_HEIGHT / 2, 4 * TILE_SIZE);
+        scene.setPlayer(player);
+        scene.setSceneLight(createSceneLight());
+        game = new DummyGame(scene);
+
+        // The game picks the hovered tile with its own camera
+        camera = game.getCamera();
+        camera.setPosition(BOARD_SIZE / 2, 40, BOARD_SIZE + 20);
+        camera.setRotation(30, 0, 0);
+
+        frustumFilter = new FrustumCullingFilter();
+        occlusionCuller = new OcclusionCuller();
+        lightClusters = new LightClusters();
+        shadowCascades = new ArrayList<>();
+        float zNear = Window.Z_NEAR;
+        for (int i = 0; i < ShadowRenderer.NUM_CASCADES; i++) {
+            shadowCascades.add(new ShadowCascade(zNear, ShadowRenderer.CASCADE_SPLITS[i]));
+            zNear = ShadowRenderer.CASCADE_SPLITS[i];
+        }
+    }
+
+    @Override
+    protected void tearDown() {
+        lightClusters.cleanUp();
+    }
+
+    public void testFrameDoesNotAllocate() {
+        com.sun.management.ThreadMXBean threadBean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        if (!threadBean.isThreadAllocatedMemorySupported()) {
+            return;
+        }
+        threadBean.setThreadAllocatedMemoryEnabled(true);
+        long threadId = Thread.currentThread().getId();
+
+        for (int i = 0; i < WARM_UP_FRAMES; i++) {
+            runFrame();
+        }
+        // Queueing a method for the optimizing compiler resolves its constants on the thread running it, a one off
+        // allocation that can land in any window, a frame allocating every time can not leave one window clean
+        long allocated = Long.MAX_VALUE;
+        for (int window = 0; window < MAX_WINDOWS && allocated != 0; window++) {
+            long start = threadBean.getThreadAllocatedBytes(threadId);
+            for (int i = 0; i < FRAMES; i++) {
+                runFrame();
+            }
+            allocated = Math.min(allocated, threadBean.getThreadAllocatedBytes(threadId) - start);
+        }
+
+        assertTrue("The frames drew nothing", drawn > 0);
+        assertTrue("No point light was binned", lightClusters.getLightCount() > 0);
+        assertEquals("Bytes allocated by the cleanest " + FRAMES + " frames", 0, allocated);
+    }
+
+    private void runFrame() {
+        // The camera and the player move so that the culling results and the hierarchy change every frame
+        float angle = frame++ * 0.05f;
+        camera.setRotation(30 + 10 * (float) Math.sin(angle), 20 * (float) Math.cos(angle), 0);
+        Player player = scene.getPlayer();
+        player.setPosition(4 * TILE_SIZE + 8 * (float) Math.sin(angle), BOARD_HEIGHT / 2, 4 * TILE_SIZE);
+
+        game.update(1.0f / 60, mouseInput, window);
+
+        Matrix4f viewMatrix = camera.updateViewMatrix();
+        Matrix4f projectionMatrix = window.getProjectionMatrix();
+        frustumFilter.updateFrustum(projectionMatrix, viewMatrix);
+        frustumFilter.filter(scene.getRenderQueue());
+        frustumFilter.filter(scene.getGameInstancedMeshes());
+        occlusionCuller.cull(projectionMatrix, viewMatrix, scene.getBoard());
+
+        DirectionalLight directionalLight = scene.getSceneLight().getDirectionalLight();
+        for (int i = 0; i < shadowCascades.size(); i++) {
+            shadowCascades.get(i).update(window, viewMatrix, directionalLight);
+        }
+        frustumFilter.filterCasters(scene.getRenderQueue(), shadowCascades);
+
+        lightClusters.bin(scene.getSceneLight().getPointLightList(), projectionMatrix, viewMatrix);
+
+        // Walk the batches as the G-Buffer pass does
+        RenderQueue renderQueue = scene.getRenderQueue();
+        for (int batch = 0; batch < renderQueue.getBatchCount(); batch++) {
+            for (int i = renderQueue.getBatchStart(batch); i < renderQueue.getBatchEnd(batch); i++) {
+                if (renderQueue.get(i).getItem().isInsideFrustum()) {
+                    drawn++;
+                }
+            }
+        }
+    }
+
+    private static Board createBoard() {
+        VoxelVolume volume = new VoxelVolume(BOARD_SIZE, BOARD_HEIGHT, BOARD_SIZE);
+        Board board = new Board(BOARD_SIZE, BOARD_HEIGHT, BOARD_SIZE, TILE_SIZE);
+        for (int x = 0; x < BOARD_SIZE; x += TILE_SIZE) {
+            for (int z = 0; z < BOARD_SIZE; z += TILE_SIZE) {
+                // Terraces rising away from the camera, so that the nearer ones hide part of the farther ones
+                int height = BOARD_HEIGHT / 2 - z / TILE_SIZE + x / TILE_SIZE % 2;
+                for (int i = x; i < x + TILE_SIZE; i++) {
+                    for (int k = z; k < z + TILE_SIZE; k++) {
+                        for (int y = 0; y < height; y++) {
+                            volume.set(i, y, k, (byte) 1);
+                        }
+                    }
+                }
+                Tile tile = new Tile(new BoxMesh(new AABBf(0, 0, 0, TILE_SIZE, height, TILE_SIZE)), x / TILE_SIZE, height, z / TILE_SIZE);
+                tile.setSolidHeight(height);
+                tile.setPosition(x, 0, z);
+                board.addTile(tile);
+            }
+        }
+        board.setVolume(volume);
+        return board;
+    }
+
+    private static SceneLight createSceneLight() {
+        SceneLight sceneLight = new SceneLight();
+        sceneLight.setAmbientLight(new Vector3f(0.7f, 0.7f, 0.7f));
+        sceneLight.setDirectionalLight(new DirectionalLight(new Vector3f(1, 1, 1), new Vector3f(0, 1, 1).normalize(), 1));
+        PointLight[] pointLights = new PointLight[NUM_POINT_LIGHTS];
+        for (int i = 0; i < pointLights.length; i++) {
+            Vector3f position = new Vector3f(i % 8 * TILE_SIZE + 4, BOARD_HEIGHT, i / 8 * TILE_SIZE * 2 + 4);
+            pointLights[i] = new PointLight(new Vector3f(1, 0.8f, 0.6f), position, 1, new PointLight.Attenuation(1, 0.5f, 0.2f));
+        }
+        sceneLight.setPointLightList(pointLights);
+        return sceneLight;
+    }
+
+    /**
+     * Mesh with a box and no vertex array, the frame work only reads the boxes
+     */
+    private static class BoxMesh extends Mesh {
+
+        BoxMesh(AABBf boundaryBox) {
+            super(36, 0, boundaryBox);
+        }
+    }
+}